@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.exec.expr.DrillAggFunc;
+import org.apache.drill.exec.expr.annotations.FunctionTemplate;
+import org.apache.drill.exec.expr.annotations.Output;
+import org.apache.drill.exec.expr.annotations.Param;
+import org.apache.drill.exec.expr.annotations.Workspace;
+import org.apache.drill.exec.expr.holders.IntHolder;
+import org.apache.drill.exec.expr.holders.NullableVarCharHolder;
+import org.apache.drill.exec.expr.holders.ObjectHolder;
+import org.apache.drill.exec.expr.holders.VarCharHolder;
+
+import javax.inject.Inject;
+
+/**
+ * Aggregates that count addresses per country or autonomous system without producing a string per row.
+ * The results are JSON documents which can be expanded with {@code convert_fromJSON}.
+ *
+ * <p>The counters of a group are objects, which a Drill aggregate can only keep in a workspace through the
+ * deprecated {@link ObjectHolder}, so its deprecation is suppressed here.</p>
+ */
+@SuppressWarnings({"unused", "deprecation"})
+public class GeoIPAggregateFunctions {
+
+  private GeoIPAggregateFunctions() {
+  }
+
+  @FunctionTemplate(name = "geo_country_histogram",
+    scope = FunctionTemplate.FunctionScope.POINT_AGGREGATE)
+  public static class CountryHistogramFunction implements DrillAggFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Workspace
+    ObjectHolder histogram;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Override
+    public void setup() {
+      histogram = new ObjectHolder();
+    }
+
+    @Override
+    public void add() {
+      if (histogram.obj == null) {
+        histogram.obj = new org.apache.drill.contrib.function.GeoIPCounters.CountryHistogram();
+      }
+      ((org.apache.drill.contrib.function.GeoIPCounters.CountryHistogram) histogram.obj).add(inputTextA.buffer, inputTextA.start, inputTextA.end);
+    }
+
+    @Override
+    public void output() {
+      String json = histogram.obj == null
+        ? "{}"
+        : ((org.apache.drill.contrib.function.GeoIPCounters.CountryHistogram) histogram.obj).toJson();
+      byte[] bytes = json.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      buffer = buffer.reallocIfNeeded(bytes.length);
+      out.buffer = buffer;
+      out.start = 0;
+      out.end = bytes.length;
+      buffer.setBytes(0, bytes);
+    }
+
+    @Override
+    public void reset() {
+      histogram.obj = null;
+    }
+  }
+
+  @FunctionTemplate(name = "geo_country_histogram",
+    scope = FunctionTemplate.FunctionScope.POINT_AGGREGATE)
+  public static class NullableCountryHistogramFunction implements DrillAggFunc {
+
+    @Param
+    NullableVarCharHolder inputTextA;
+
+    @Workspace
+    ObjectHolder histogram;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Override
+    public void setup() {
+      histogram = new ObjectHolder();
+    }
+
+    @Override
+    public void add() {
+      if (histogram.obj == null) {
+        histogram.obj = new org.apache.drill.contrib.function.GeoIPCounters.CountryHistogram();
+      }
+      if (inputTextA.isSet == 1) {
+        ((org.apache.drill.contrib.function.GeoIPCounters.CountryHistogram) histogram.obj).add(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      }
+    }
+
+    @Override
+    public void output() {
+      String json = histogram.obj == null
+        ? "{}"
+        : ((org.apache.drill.contrib.function.GeoIPCounters.CountryHistogram) histogram.obj).toJson();
+      byte[] bytes = json.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      buffer = buffer.reallocIfNeeded(bytes.length);
+      out.buffer = buffer;
+      out.start = 0;
+      out.end = bytes.length;
+      buffer.setBytes(0, bytes);
+    }
+
+    @Override
+    public void reset() {
+      histogram.obj = null;
+    }
+  }
+
+  @FunctionTemplate(name = "geo_asn_topk",
+    scope = FunctionTemplate.FunctionScope.POINT_AGGREGATE)
+  public static class AsnTopKFunction implements DrillAggFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    IntHolder k;
+
+    @Workspace
+    ObjectHolder counter;
+
+    @Workspace
+    IntHolder limit;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Override
+    public void setup() {
+      counter = new ObjectHolder();
+    }
+
+    @Override
+    public void add() {
+      if (counter.obj == null) {
+        counter.obj = new org.apache.drill.contrib.function.GeoIPCounters.AsnCounter();
+      }
+      limit.value = k.value;
+      ((org.apache.drill.contrib.function.GeoIPCounters.AsnCounter) counter.obj).add(inputTextA.buffer, inputTextA.start, inputTextA.end);
+    }
+
+    @Override
+    public void output() {
+      String json = counter.obj == null
+        ? "[]"
+        : ((org.apache.drill.contrib.function.GeoIPCounters.AsnCounter) counter.obj).toJson(limit.value);
+      byte[] bytes = json.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      buffer = buffer.reallocIfNeeded(bytes.length);
+      out.buffer = buffer;
+      out.start = 0;
+      out.end = bytes.length;
+      buffer.setBytes(0, bytes);
+    }
+
+    @Override
+    public void reset() {
+      counter.obj = null;
+    }
+  }
+
+  @FunctionTemplate(name = "geo_asn_topk",
+    scope = FunctionTemplate.FunctionScope.POINT_AGGREGATE)
+  public static class NullableAsnTopKFunction implements DrillAggFunc {
+
+    @Param
+    NullableVarCharHolder inputTextA;
+
+    @Param
+    IntHolder k;
+
+    @Workspace
+    ObjectHolder counter;
+
+    @Workspace
+    IntHolder limit;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Override
+    public void setup() {
+      counter = new ObjectHolder();
+    }
+
+    @Override
+    public void add() {
+      if (counter.obj == null) {
+        counter.obj = new org.apache.drill.contrib.function.GeoIPCounters.AsnCounter();
+      }
+      limit.value = k.value;
+      if (inputTextA.isSet == 1) {
+        ((org.apache.drill.contrib.function.GeoIPCounters.AsnCounter) counter.obj).add(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      }
+    }
+
+    @Override
+    public void output() {
+      String json = counter.obj == null
+        ? "[]"
+        : ((org.apache.drill.contrib.function.GeoIPCounters.AsnCounter) counter.obj).toJson(limit.value);
+      byte[] bytes = json.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      buffer = buffer.reallocIfNeeded(bytes.length);
+      out.buffer = buffer;
+      out.start = 0;
+      out.end = bytes.length;
+      buffer.setBytes(0, bytes);
+    }
+
+    @Override
+    public void reset() {
+      counter.obj = null;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the records of recently seen distinct addresses, keyed by the raw text of the address, so that
+ * a repeated address is parsed and looked up once. The memo is not tied to record batches: it rolls over
+ * the rows of its fragment, and holds about the distinct addresses of one batch of logs, where 64K rows
+ * typically have a few thousand.
+ *
+ * <p>The memo is an open addressing hash over primitive arrays with linear probing. It belongs to one
+ * function instance, which Drill only calls from its fragment's thread, so it is not synchronized. It is
+ * cleared once it holds its capacity of addresses, instead of evicting entries one by one.</p>
+ */
+public class GeoIPBatchMemo {
+
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  // IPv6 text is at most 45 bytes, longer values are looked up without being remembered
+  private static final int MAX_KEY_LENGTH = 45;
+
+  private final GeoIPLookup lookup;
+  private final int capacity;
+  private final int mask;
+  // Hashes are never 0, which marks a free slot
+  private final int[] hashes;
+  private final int[] records;
+  private final int[] keyStarts;
+  private final byte[] keyLengths;
+  private byte[] keys;
+  private int keyEnd;
+  private int size;
+
+  public GeoIPBatchMemo(GeoIPLookup lookup) {
+    this(lookup, DEFAULT_CAPACITY);
+  }
+
+  public GeoIPBatchMemo(GeoIPLookup lookup, int capacity) {
+    this.lookup = lookup;
+    this.capacity = capacity;
+    int slots = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+    this.mask = slots - 1;
+    this.hashes = new int[slots];
+    this.records = new int[slots];
+    this.keyStarts = new int[slots];
+    this.keyLengths = new byte[slots];
+    this.keys = new byte[capacity * 16];
+  }
+
+  /**
+   * Returns the record for the address written as text in the given bytes, as
+   * {@link GeoIPLookup#find(DrillBuf, int, int)} does.
+   */
+  public int find(DrillBuf buffer, int start, int end) {
+    int length = end - start;
+    if (length > MAX_KEY_LENGTH) {
+      return lookup.find(buffer, start, end);
+    }
+    int hash = hash(buffer, start, end);
+    int slot = hash & mask;
+    while (hashes[slot] != 0) {
+      if (hashes[slot] == hash && matches(slot, buffer, start, length)) {
+        return records[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int record = lookup.find(buffer, start, end);
+    if (size == capacity) {
+      clear();
+      slot = hash & mask;
+    }
+    if (keyEnd + length > keys.length) {
+      keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keyEnd + length));
+    }
+    buffer.getBytes(start, keys, keyEnd, length);
+    hashes[slot] = hash;
+    records[slot] = record;
+    keyStarts[slot] = keyEnd;
+    keyLengths[slot] = (byte) length;
+    keyEnd += length;
+    size++;
+    return record;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(hashes, 0);
+    keyEnd = 0;
+    size = 0;
+  }
+
+  private boolean matches(int slot, DrillBuf buffer, int start, int length) {
+    if (keyLengths[slot] != length) {
+      return false;
+    }
+    int keyStart = keyStarts[slot];
+    for (int i = 0; i < length; i++) {
+      if (keys[keyStart + i] != buffer.getByte(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // FNV-1a, finished with the murmur3 mixer so that the low bits used for the slot depend on every byte
+  private static int hash(DrillBuf buffer, int start, int end) {
+    int h = 0x811C9DC5;
+    for (int i = start; i < end; i++) {
+      h = (h ^ buffer.getByte(i)) * 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h == 0 ? 1 : h;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.contrib.function.GeoIPSnapshot.Column;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per group state of the GeoIP aggregate functions. Addresses are resolved through the shared
+ * {@link GeoIPLookup} of the database and counted by record in primitive arrays. Records are only mapped
+ * to countries or autonomous systems, and names looked up, when the result is written.
+ *
+ * <p>A group keeps the lookup it started with, so its records stay those of one release even if the
+ * database is reloaded while it is counting.</p>
+ */
+public class GeoIPCounters {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private GeoIPCounters() {
+  }
+
+  /**
+   * Counts addresses per record in an open addressing table keyed by the record. Addresses that are
+   * invalid or not in the database are counted apart.
+   */
+  public abstract static class RecordCounter {
+    private static final int EMPTY = -1;
+
+    final GeoIPLookup lookup;
+    int[] keys = newKeys(64);
+    long[] counts = new long[64];
+    private int size;
+    long unknown;
+
+    RecordCounter(GeoIPLookup lookup) {
+      this.lookup = lookup;
+    }
+
+    /**
+     * Counts the address written as text in the given bytes.
+     */
+    public void add(DrillBuf buffer, int start, int end) {
+      int record = lookup.find(buffer, start, end);
+      if (record < 0) {
+        unknown++;
+      } else {
+        increment(record);
+      }
+    }
+
+    private void increment(int record) {
+      int mask = keys.length - 1;
+      int slot = mix(record) & mask;
+      while (keys[slot] != EMPTY && keys[slot] != record) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == EMPTY) {
+        keys[slot] = record;
+        if (++size * 2 > keys.length) {
+          counts[slot]++;
+          grow();
+          return;
+        }
+      }
+      counts[slot]++;
+    }
+
+    private void grow() {
+      int[] oldKeys = keys;
+      long[] oldCounts = counts;
+      keys = newKeys(oldKeys.length * 2);
+      counts = new long[oldKeys.length * 2];
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != EMPTY) {
+          int slot = mix(oldKeys[i]) & mask;
+          while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          counts[slot] = oldCounts[i];
+        }
+      }
+    }
+
+    static boolean isUsed(int key) {
+      return key != EMPTY;
+    }
+
+    private static int[] newKeys(int capacity) {
+      int[] keys = new int[capacity];
+      Arrays.fill(keys, EMPTY);
+      return keys;
+    }
+
+    private static int mix(int key) {
+      int h = key * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
+
+  /**
+   * Counts addresses per country. Country ids are derived from the two letter ISO code.
+   */
+  public static class CountryHistogram extends RecordCounter {
+    static final int UNKNOWN = 26 * 26;
+
+    public CountryHistogram() {
+      super(GeoIPLookup.country());
+    }
+
+    /**
+     * Returns the counts as a JSON object of country names to counts, largest first.
+     */
+    public String toJson() {
+      long[] countryCounts = new long[UNKNOWN + 1];
+      String[] countryNames = new String[UNKNOWN + 1];
+      countryCounts[UNKNOWN] = unknown;
+      for (int i = 0; i < keys.length; i++) {
+        if (isUsed(keys[i])) {
+          int record = keys[i];
+          int id = countryId(lookup.getString(Column.COUNTRY_ISO_CODE, record));
+          if (id != UNKNOWN && countryNames[id] == null) {
+            countryNames[id] = lookup.getString(Column.COUNTRY_NAME, record);
+          }
+          countryCounts[id] += counts[i];
+        }
+      }
+
+      Integer[] ids = new Integer[countryCounts.length];
+      int used = 0;
+      for (int i = 0; i < countryCounts.length; i++) {
+        if (countryCounts[i] > 0) {
+          ids[used++] = i;
+        }
+      }
+      Arrays.sort(ids, 0, used, (a, b) -> Long.compare(countryCounts[b], countryCounts[a]));
+
+      Map<String, Long> histogram = new LinkedHashMap<>();
+      for (int i = 0; i < used; i++) {
+        int id = ids[i];
+        String name = id == UNKNOWN ? "Unknown" : countryNames[id];
+        if (name == null) {
+          name = new String(new char[] {(char) ('A' + id / 26), (char) ('A' + id % 26)});
+        }
+        histogram.merge(name, countryCounts[id], Long::sum);
+      }
+      return writeJson(histogram);
+    }
+
+    static int countryId(String isoCode) {
+      if (isoCode == null || isoCode.length() != 2) {
+        return UNKNOWN;
+      }
+      int first = isoCode.charAt(0) - 'A';
+      int second = isoCode.charAt(1) - 'A';
+      if (first < 0 || first >= 26 || second < 0 || second >= 26) {
+        return UNKNOWN;
+      }
+      return first * 26 + second;
+    }
+  }
+
+  /**
+   * Counts addresses per autonomous system.
+   */
+  public static class AsnCounter extends RecordCounter {
+
+    public AsnCounter() {
+      super(GeoIPLookup.asn());
+    }
+
+    /**
+     * Returns the k autonomous systems with the most addresses as a JSON array of objects.
+     */
+    public String toJson(int k) {
+      // Records of the same autonomous system are added up, and those without a number are unknown
+      Map<Long, Long> asnCounts = new HashMap<>();
+      Map<Long, String> organizations = new HashMap<>();
+      long unknownCount = unknown;
+      for (int i = 0; i < keys.length; i++) {
+        if (isUsed(keys[i])) {
+          int record = keys[i];
+          long asn = lookup.getLong(Column.ASN, record);
+          if (asn == 0) {
+            unknownCount += counts[i];
+            continue;
+          }
+          asnCounts.merge(asn, counts[i], Long::sum);
+          if (!organizations.containsKey(asn)) {
+            String organization = lookup.getString(Column.ASN_ORGANIZATION, record);
+            organizations.put(asn, organization == null ? "Unknown" : organization);
+          }
+        }
+      }
+
+      List<Map.Entry<Long, Long>> sorted = new ArrayList<>(asnCounts.entrySet());
+      sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+      List<Map<String, Object>> top = new ArrayList<>();
+      for (int i = 0; i < Math.min(k, sorted.size()); i++) {
+        Map.Entry<Long, Long> asn = sorted.get(i);
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("asn", asn.getKey());
+        entry.put("organization", organizations.get(asn.getKey()));
+        entry.put("count", asn.getValue());
+        top.add(entry);
+      }
+      if (unknownCount > 0 && top.size() < k) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("asn", 0L);
+        entry.put("organization", "Unknown");
+        entry.put("count", unknownCount);
+        top.add(entry);
+      }
+      return writeJson(top);
+    }
+  }
+
+  private static String writeJson(Object value) {
+    try {
+      return MAPPER.writeValueAsString(value);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.apache.drill.common.config.DrillConfig;
+import org.apache.drill.common.exceptions.UserException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Copies databases and snapshots from a shared file system, such as HDFS or S3, to a directory on the
+ * node, where they are memory mapped. The location is a Hadoop file system URI with optional file system
+ * properties, like the connection and config of a dfs storage plugin, so a new release is rolled out by
+ * uploading it once instead of rebuilding the jar or copying it to every node.
+ *
+ * <p>Each version of a file is copied once: it is identified by the SHA-256 in a {@code .sha256} file next
+ * to it, as written by {@code sha256sum}, or else by its modification time and length. The copy is hashed
+ * while it is written and checked against that checksum, and a local copy is hashed again before it is
+ * reused, so a truncated or corrupted copy is fetched again. Older versions are removed once a new one is
+ * in place; running fragments keep reading the pages they mapped.</p>
+ */
+public class GeoIPDatabaseCache {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPDatabaseCache.class);
+
+  // Hadoop URI of the directory the databases are read from, e.g. hdfs://namenode:8020/geoip
+  public static final String LOCATION = "drill.geoip.database.location";
+  // Properties of the file system, e.g. fs.s3a.endpoint
+  public static final String FILE_SYSTEM_CONFIG = "drill.geoip.database.config";
+  public static final String CACHE_DIRECTORY = "drill.geoip.database.cache.directory";
+
+  private static final String CHECKSUM_EXTENSION = ".sha256";
+
+  private GeoIPDatabaseCache() {
+  }
+
+  /**
+   * Returns the local copy of a file at the configured location, copying it first if this version is not
+   * cached yet, or null if no location is set or the file is not there.
+   */
+  public static synchronized File fetch(String fileName) throws UserException {
+    String location = SecurityHelperFunctions.getConfigString(LOCATION);
+    if (location.isEmpty()) {
+      return null;
+    }
+    Path remote = new Path(new Path(location), fileName);
+    try (FileSystem fs = FileSystem.newInstance(URI.create(location), fileSystemConfig())) {
+      if (!fs.exists(remote)) {
+        return null;
+      }
+      FileStatus status = fs.getFileStatus(remote);
+      String expected = readChecksum(fs, remote.suffix(CHECKSUM_EXTENSION));
+      String version = expected != null
+        ? expected.substring(0, 16)
+        : Long.toHexString(status.getModificationTime()) + "-" + status.getLen();
+
+      File directory = new File(new File(cacheDirectory(), fileName), version);
+      File local = new File(directory, fileName);
+      File checksum = new File(directory, fileName + CHECKSUM_EXTENSION);
+      if (isValid(local, checksum, status.getLen(), expected)) {
+        logger.debug("Using the cached copy {} of {}", local, remote);
+        return local;
+      }
+
+      long start = System.nanoTime();
+      Files.createDirectories(directory.toPath());
+      File part = File.createTempFile(fileName, ".part", directory);
+      try {
+        String actual = copy(fs, remote, part);
+        if (expected != null ? !expected.equals(actual) : part.length() != status.getLen()) {
+          throw new IOException(String.format("The copy of %s has the checksum %s instead of %s", remote, actual,
+            expected != null ? expected : status.getLen() + " bytes"));
+        }
+        // The checksum is written last, so a copy without one was interrupted
+        Files.move(part.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.write(checksum.toPath(), actual.getBytes(StandardCharsets.US_ASCII));
+      } finally {
+        Files.deleteIfExists(part.toPath());
+        if (!local.exists()) {
+          directory.delete();
+        }
+      }
+      logger.info("Copied {} ({} bytes) to {} in {} ms", remote, status.getLen(), local,
+        (System.nanoTime() - start) / 1_000_000);
+      removeOtherVersions(directory);
+      return local;
+    } catch (IOException e) {
+      throw UserException.dataReadError(e)
+        .message("Could not copy %s from %s to the local cache in %s.", fileName, location, cacheDirectory())
+        .build(logger);
+    }
+  }
+
+  private static Configuration fileSystemConfig() {
+    Configuration conf = new Configuration();
+    DrillConfig drillConfig = SecurityHelperFunctions.getConfig();
+    if (drillConfig.hasPath(FILE_SYSTEM_CONFIG)) {
+      setProperties(conf, "", drillConfig.getConfig(FILE_SYSTEM_CONFIG).root().unwrapped());
+    }
+    return conf;
+  }
+
+  // Unquoted keys such as fs.s3a.endpoint are nested objects in HOCON, quoted ones are single keys
+  private static void setProperties(Configuration conf, String prefix, Map<?, ?> properties) {
+    for (Map.Entry<?, ?> property : properties.entrySet()) {
+      String key = prefix + property.getKey();
+      if (property.getValue() instanceof Map) {
+        setProperties(conf, key + ".", (Map<?, ?>) property.getValue());
+      } else {
+        conf.set(key, String.valueOf(property.getValue()));
+      }
+    }
+  }
+
+  private static File cacheDirectory() {
+    String directory = SecurityHelperFunctions.getConfigString(CACHE_DIRECTORY);
+    return new File(directory.isEmpty() ? System.getProperty("java.io.tmpdir") + "/drill-geoip" : directory);
+  }
+
+  /**
+   * Reads the hex digest from a checksum file in the format of {@code sha256sum}, or returns null if there
+   * is none.
+   */
+  private static String readChecksum(FileSystem fs, Path path) throws IOException {
+    if (!fs.exists(path)) {
+      return null;
+    }
+    try (InputStream in = fs.open(path)) {
+      String text = new String(in.readNBytes(1024), StandardCharsets.US_ASCII).trim();
+      String digest = text.split("\\s+")[0].toLowerCase(Locale.ROOT);
+      if (!digest.matches("[0-9a-f]{64}")) {
+        throw new IOException(path + " does not hold a SHA-256 checksum");
+      }
+      return digest;
+    }
+  }
+
+  private static boolean isValid(File local, File checksum, long length, String expected) throws IOException {
+    if (!local.isFile() || !checksum.isFile() || local.length() != length) {
+      return false;
+    }
+    String recorded = new String(Files.readAllBytes(checksum.toPath()), StandardCharsets.US_ASCII).trim();
+    if (expected != null && !expected.equals(recorded)) {
+      return false;
+    }
+    try (InputStream in = Files.newInputStream(local.toPath())) {
+      if (recorded.equals(digest(in, OutputStream.nullOutputStream()))) {
+        return true;
+      }
+    }
+    logger.warn("The cached copy {} does not match its checksum and is copied again", local);
+    return false;
+  }
+
+  private static String copy(FileSystem fs, Path remote, File target) throws IOException {
+    try (InputStream in = fs.open(remote);
+         OutputStream out = Files.newOutputStream(target.toPath())) {
+      return digest(in, out);
+    }
+  }
+
+  /**
+   * Copies a stream and returns the hex SHA-256 of what was copied.
+   */
+  private static String digest(InputStream in, OutputStream out) throws IOException {
+    MessageDigest sha256;
+    try {
+      sha256 = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    try (DigestInputStream digesting = new DigestInputStream(in, sha256)) {
+      digesting.transferTo(out);
+    }
+    StringBuilder hex = new StringBuilder(64);
+    for (byte b : sha256.digest()) {
+      hex.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  private static void removeOtherVersions(File current) {
+    try (DirectoryStream<java.nio.file.Path> versions = Files.newDirectoryStream(current.getParentFile().toPath())) {
+      for (java.nio.file.Path version : versions) {
+        if (!version.equals(current.toPath())) {
+          try (Stream<java.nio.file.Path> files = Files.walk(version)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+          }
+        }
+      }
+    } catch (IOException e) {
+      logger.debug("Could not remove the old versions next to {}", current, e);
+    }
+  }
+}
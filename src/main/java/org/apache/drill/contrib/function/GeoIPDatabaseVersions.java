@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The dated releases of one MaxMind database found in a directory, ordered by build date. Each release
+ * is memory mapped once and shared by every fragment, and the release that was current at a given time
+ * is found with a binary search over the build dates.
+ *
+ * <p>Releases are recognized either as {@code GeoLite2-City_20230103.mmdb} files or in the layout of
+ * the MaxMind download archives, {@code GeoLite2-City_20230103/GeoLite2-City.mmdb}.</p>
+ */
+public class GeoIPDatabaseVersions {
+
+  private final String databaseName;
+  private final long[] buildDates;
+  private final GeoIPLookup[] lookups;
+  private final long size;
+
+  private GeoIPDatabaseVersions(String databaseName, long[] buildDates, GeoIPLookup[] lookups, long size) {
+    this.databaseName = databaseName;
+    this.buildDates = buildDates;
+    this.lookups = lookups;
+    this.size = size;
+  }
+
+  public static GeoIPDatabaseVersions load(File directory, String databaseName) throws IOException {
+    Pattern datedFile = Pattern.compile(Pattern.quote(databaseName) + "_\\d{8}\\.mmdb");
+    Pattern datedDirectory = Pattern.compile(Pattern.quote(databaseName) + "_\\d{8}");
+
+    List<File> files = new ArrayList<>();
+    File[] entries = directory.listFiles();
+    if (entries != null) {
+      for (File entry : entries) {
+        if (entry.isFile() && datedFile.matcher(entry.getName()).matches()) {
+          files.add(entry);
+        } else if (entry.isDirectory() && datedDirectory.matcher(entry.getName()).matches()) {
+          File database = new File(entry, databaseName + ".mmdb");
+          if (database.isFile()) {
+            files.add(database);
+          }
+        }
+      }
+    }
+    if (files.isEmpty()) {
+      throw new IOException("No dated versions of " + databaseName + " in " + directory);
+    }
+
+    long size = 0;
+    List<MaxMindDbFile> opened = new ArrayList<>();
+    for (File file : files) {
+      size += file.length();
+      opened.add(MaxMindDbFile.open(file));
+    }
+    opened.sort(Comparator.comparingLong(MaxMindDbFile::getBuildEpoch));
+
+    long[] buildDates = new long[opened.size()];
+    GeoIPLookup[] lookups = new GeoIPLookup[opened.size()];
+    for (int i = 0; i < buildDates.length; i++) {
+      buildDates[i] = opened.get(i).getBuildEpoch() * 1000;
+      lookups[i] = new GeoIPLookup(opened.get(i));
+    }
+    return new GeoIPDatabaseVersions(databaseName, buildDates, lookups, size);
+  }
+
+  /**
+   * Returns the lookup for the latest release built at or before the given time, or the oldest release
+   * for times before the first one.
+   */
+  public GeoIPLookup getLookup(long epochMillis) {
+    int low = 0;
+    int high = buildDates.length - 1;
+    int found = 0;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (buildDates[mid] <= epochMillis) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return lookups[found];
+  }
+
+  public String getDatabaseName() {
+    return databaseName;
+  }
+
+  public int getVersionCount() {
+    return lookups.length;
+  }
+
+  /**
+   * Returns the combined size of the mapped releases.
+   */
+  public long getSize() {
+    return size;
+  }
+}
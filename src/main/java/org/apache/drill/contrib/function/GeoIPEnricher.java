@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.contrib.function.GeoIPSnapshot.Column;
+import org.apache.drill.exec.vector.complex.writer.BaseWriter.MapWriter;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes every value a database has for an address into the fields of a map, for {@code geoip_enrich}.
+ * One lookup serves all fields, and an address seen again is resolved once through a {@link GeoIPBatchMemo},
+ * a rolling table of the last few thousand distinct addresses. Each function instance gets its own enricher.
+ */
+public class GeoIPEnricher {
+
+  private final GeoIPLookup lookup;
+  private final GeoIPBatchMemo memo;
+  private final Column[] columns;
+  private final String[] fields;
+
+  private GeoIPEnricher(GeoIPLookup lookup, GeoIPBatchMemo memo) {
+    this.lookup = lookup;
+    this.memo = memo;
+    Set<Column> columnSet = lookup.getColumns();
+    this.columns = columnSet.toArray(new Column[0]);
+    this.fields = new String[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      fields[i] = columns[i].name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  public static GeoIPEnricher forDatabase(String databaseName) {
+    GeoIPLookup lookup = GeoIPLookup.forDatabase(databaseName);
+    return new GeoIPEnricher(lookup, new GeoIPBatchMemo(lookup));
+  }
+
+  /**
+   * Returns an enricher for the ids of {@code geo_record_id}, which needs no memo.
+   */
+  public static GeoIPEnricher forRecords(String databaseName) {
+    return new GeoIPEnricher(GeoIPLookup.forDatabase(databaseName), null);
+  }
+
+  /**
+   * Writes the values for the address written as text in the given bytes. The map is left empty if the
+   * address is not in the database, and strings the record does not have are left out. Returns the
+   * buffer the strings were copied through, which replaces the function's buffer if it had to grow.
+   */
+  public DrillBuf write(DrillBuf input, int start, int end, MapWriter map, DrillBuf buffer) {
+    return writeRecord(memo.find(input, start, end), map, buffer);
+  }
+
+  /**
+   * Writes the values of a record id returned by {@code geo_record_id}.
+   */
+  public DrillBuf write(long recordId, MapWriter map, DrillBuf buffer) {
+    return writeRecord(lookup.getRecord(recordId), map, buffer);
+  }
+
+  private DrillBuf writeRecord(int record, MapWriter map, DrillBuf buffer) {
+    map.start();
+    if (record >= 0) {
+      for (int i = 0; i < columns.length; i++) {
+        Column column = columns[i];
+        switch (column) {
+          case LATITUDE:
+          case LONGITUDE:
+            map.float8(fields[i]).writeFloat8(lookup.getDouble(column, record));
+            break;
+          case ASN:
+            map.bigInt(fields[i]).writeBigInt(lookup.getLong(column, record));
+            break;
+          case IS_IN_EUROPEAN_UNION:
+          case IS_ANONYMOUS:
+          case IS_ANONYMOUS_VPN:
+          case IS_HOSTING_PROVIDER:
+          case IS_PUBLIC_PROXY:
+          case IS_TOR_EXIT_NODE:
+            map.bit(fields[i]).writeBit(lookup.getInt(column, record));
+            break;
+          default:
+            if (column.isString()) {
+              byte[] bytes = lookup.getUtf8(column, record);
+              if (bytes != null) {
+                buffer = buffer.reallocIfNeeded(bytes.length);
+                buffer.setBytes(0, bytes);
+                map.varChar(fields[i]).writeVarChar(0, bytes.length, buffer);
+              }
+            } else {
+              map.integer(fields[i]).writeInt(lookup.getInt(column, record));
+            }
+            break;
+        }
+      }
+    }
+    map.end();
+    return buffer;
+  }
+}
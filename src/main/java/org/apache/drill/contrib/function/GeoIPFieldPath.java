@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.common.exceptions.UserException;
+import org.apache.drill.exec.expr.holders.NullableBigIntHolder;
+import org.apache.drill.exec.expr.holders.NullableBitHolder;
+import org.apache.drill.exec.expr.holders.NullableFloat8Holder;
+import org.apache.drill.exec.expr.holders.NullableVarCharHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A dotted path to a field of the records of a raw MaxMind database, such as
+ * {@code subdivisions.0.iso_code} or {@code continent.names.en}, compiled once per function into the
+ * UTF-8 bytes of its keys. A lookup follows the path through the data section and decodes only the value
+ * at its end. Numeric steps index arrays, negative ones from the end, so {@code subdivisions.-1.names.en}
+ * is the most specific subdivision.
+ */
+public class GeoIPFieldPath {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPFieldPath.class);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // Lookups over the raw databases of those with a snapshot, whose record ids are data offsets
+  private static final Map<String, GeoIPLookup> lookups = new ConcurrentHashMap<>();
+
+  private final String path;
+  private final MaxMindDbFile database;
+  private final GeoIPLookup lookup;
+  private final byte[][] keys;
+  private final int[] indexes;
+
+  private GeoIPFieldPath(String path, MaxMindDbFile database, GeoIPLookup lookup, byte[][] keys, int[] indexes) {
+    this.path = path;
+    this.database = database;
+    this.lookup = lookup;
+    this.keys = keys;
+    this.indexes = indexes;
+  }
+
+  /**
+   * Compiles a path into the records of a database found on the classpath, e.g. {@code GeoLite2-City}.
+   */
+  public static GeoIPFieldPath compile(String databaseName, String path) {
+    String[] steps = path.split("\\.", -1);
+    byte[][] keys = new byte[steps.length][];
+    int[] indexes = new int[steps.length];
+    for (int i = 0; i < steps.length; i++) {
+      if (steps[i].isEmpty()) {
+        throw UserException.validationError()
+          .message("'%s' is not a valid field path. Use keys and array indexes separated by dots, "
+            + "e.g. 'subdivisions.0.iso_code'.", path)
+          .build(logger);
+      }
+      if (steps[i].matches("-?[0-9]+")) {
+        indexes[i] = Integer.parseInt(steps[i]);
+      } else {
+        keys[i] = steps[i].getBytes(StandardCharsets.UTF_8);
+      }
+    }
+    GeoIPLookup lookup = rawLookup(databaseName);
+    return new GeoIPFieldPath(path, lookup.getDatabase(), lookup, keys, indexes);
+  }
+
+  /**
+   * Returns a lookup over the raw database, the shared one if it has no snapshot. The path is followed in the
+   * copy of the database the lookup resolves addresses in, which may not be the loaded one while the database
+   * is reloaded.
+   */
+  private static GeoIPLookup rawLookup(String databaseName) {
+    GeoIPLookup shared = GeoIPLookup.forDatabase(databaseName);
+    if (shared.getDatabase() != null) {
+      return shared;
+    }
+    MaxMindDbFile database = SecurityHelperFunctions.getDatabaseFile(databaseName);
+    return lookups.compute(databaseName,
+      (name, lookup) -> lookup != null && lookup.getDatabase() == database ? lookup : new GeoIPLookup(database));
+  }
+
+  static void evict(String databaseName) {
+    lookups.remove(databaseName);
+  }
+
+  /**
+   * Returns the position of the value at the path for the address written as text in the given bytes,
+   * or -1 if the address is not in the database or its record has no such value.
+   */
+  public int find(DrillBuf buffer, int start, int end) {
+    int record = lookup.find(buffer, start, end);
+    return record < 0 ? -1 : database.seek(record, keys, indexes);
+  }
+
+  /**
+   * Decodes the value at a position returned by {@link #find(DrillBuf, int, int)}.
+   */
+  public Object get(int position) {
+    return position < 0 ? null : database.decodeAt(position);
+  }
+
+  /**
+   * Writes the value at a position as text: strings as they are, maps and arrays as JSON. Leaves the
+   * holder unset if there is no value, and returns the buffer holding it.
+   */
+  public DrillBuf write(int position, NullableVarCharHolder out, DrillBuf buffer) {
+    if (position < 0) {
+      out.isSet = 0;
+      return buffer;
+    }
+    ByteBuffer utf8 = database.getUtf8At(position);
+    byte[] bytes = null;
+    if (utf8 == null) {
+      Object value = database.decodeAt(position);
+      bytes = (value instanceof Map || value instanceof List ? toJson(value) : String.valueOf(value))
+        .getBytes(StandardCharsets.UTF_8);
+    }
+    int length = bytes == null ? utf8.remaining() : bytes.length;
+    buffer = buffer.reallocIfNeeded(length);
+    if (bytes == null) {
+      buffer.setBytes(0, utf8);
+    } else {
+      buffer.setBytes(0, bytes);
+    }
+    out.isSet = 1;
+    out.buffer = buffer;
+    out.start = 0;
+    out.end = length;
+    return buffer;
+  }
+
+  /**
+   * Writes the integer at a position, leaving the holder unset if there is none or the value is not a
+   * number. Floating point values are truncated.
+   */
+  public void write(int position, NullableBigIntHolder out) {
+    Object value = get(position);
+    if (value instanceof Number) {
+      out.isSet = 1;
+      out.value = ((Number) value).longValue();
+    } else {
+      out.isSet = 0;
+    }
+  }
+
+  public void write(int position, NullableFloat8Holder out) {
+    Object value = get(position);
+    if (value instanceof Number) {
+      out.isSet = 1;
+      out.value = ((Number) value).doubleValue();
+    } else {
+      out.isSet = 0;
+    }
+  }
+
+  public void write(int position, NullableBitHolder out) {
+    Object value = get(position);
+    if (value instanceof Boolean) {
+      out.isSet = 1;
+      out.value = (Boolean) value ? 1 : 0;
+    } else {
+      out.isSet = 0;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+  private static String toJson(Object value) {
+    try {
+      return MAPPER.writeValueAsString(value);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
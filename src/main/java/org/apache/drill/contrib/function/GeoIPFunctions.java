@@ -30,6 +30,12 @@ import org.apache.drill.exec.expr.holders.IntHolder;
 import org.apache.drill.exec.expr.holders.BitHolder;
 import org.apache.drill.exec.expr.holders.Float8Holder;
 import org.apache.drill.exec.expr.holders.VarBinaryHolder;
+import org.apache.drill.exec.expr.holders.TimeStampHolder;
+import org.apache.drill.exec.expr.holders.NullableVarCharHolder;
+import org.apache.drill.exec.expr.holders.NullableBigIntHolder;
+import org.apache.drill.exec.expr.holders.NullableFloat8Holder;
+import org.apache.drill.exec.expr.holders.NullableBitHolder;
+import org.apache.drill.exec.vector.complex.writer.BaseWriter;
 
 import javax.inject.Inject;
 
@@ -43,38 +49,57 @@ public class GeoIPFunctions {
     scope = FunctionTemplate.FunctionScope.SIMPLE,
     nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
   public static class getCountryNameFunction implements DrillSimpleFunc {
+
     @Param
     VarCharHolder inputTextA;
+
     @Output
     VarCharHolder out;
+
     @Inject
     DrillBuf buffer;
+
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCountryDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.country();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      String countryName;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.COUNTRY_NAME, record, "Unknown", out, buffer);
+    }
+  }
+
+  @FunctionTemplate(names = {"getCountryName", "get_country_name"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getLocalizedCountryNameFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
 
-      try {
-        com.maxmind.geoip2.model.CountryResponse country = reader.country(java.net.InetAddress.getByName(ip));
+    @Param(constant = true)
+    VarCharHolder locale;
 
-        countryName = country.getCountry().getName();
-        if (countryName == null) {
-          countryName = "Unknown";
-        }
-      } catch (Exception e) {
-        countryName = "Unknown";
-      }
+    @Output
+    VarCharHolder out;
 
-      out.buffer = buffer;
-      out.start = 0;
-      out.end = countryName.getBytes().length;
-      buffer.setBytes(0, countryName.getBytes());
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPNameTable names;
+
+    public void setup() {
+      names = org.apache.drill.contrib.function.GeoIPNameTable.countryNames(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(locale.start, locale.end, locale.buffer));
+    }
+
+    public void eval() {
+      int record = names.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = names.write(record, "Unknown", out, buffer);
     }
   }
 
@@ -94,30 +119,15 @@ public class GeoIPFunctions {
     DrillBuf buffer;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCountryDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.country();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      String countryName;
-
-      try {
-        com.maxmind.geoip2.model.CountryResponse country = reader.country(java.net.InetAddress.getByName(ip));
-        countryName = country.getCountry().getIsoCode();
-        if (countryName == null) {
-          countryName = "UNK";
-        }
-
-      } catch (Exception e) {
-        countryName = "UNK";
-      }
-      out.buffer = buffer;
-      out.start = 0;
-      out.end = countryName.getBytes().length;
-      buffer.setBytes(0, countryName.getBytes());
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.COUNTRY_ISO_CODE, record, "UNK", out, buffer);
     }
   }
 
@@ -133,28 +143,16 @@ public class GeoIPFunctions {
     @Output
     IntHolder out;
 
-    @Inject
-    DrillBuf buffer;
-
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCountryDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.country();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      int confidence;
-
-      try {
-        com.maxmind.geoip2.model.CountryResponse country = reader.country(java.net.InetAddress.getByName(ip));
-        confidence = country.getCountry().getConfidence();
-
-      } catch (Exception e) {
-        confidence = 0;
-      }
-      out.value = confidence;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.COUNTRY_CONFIDENCE, record);
     }
   }
 
@@ -175,29 +173,46 @@ public class GeoIPFunctions {
     DrillBuf buffer;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      String cityName;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.CITY_NAME, record, "Unknown", out, buffer);
+    }
+  }
 
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        cityName = city.getCity().getName();
-        if (cityName == null) {
-          cityName = "Unknown";
-        }
-      } catch (Exception e) {
-        cityName = "Unknown";
-      }
-      out.buffer = buffer;
-      out.start = 0;
-      out.end = cityName.getBytes().length;
-      buffer.setBytes(0, cityName.getBytes());
+  @FunctionTemplate(names = {"getCityName", "get_city_name"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getLocalizedCityNameFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder locale;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPNameTable names;
+
+    public void setup() {
+      names = org.apache.drill.contrib.function.GeoIPNameTable.cityNames(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(locale.start, locale.end, locale.buffer));
+    }
+
+    public void eval() {
+      int record = names.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = names.write(record, "Unknown", out, buffer);
     }
   }
 
@@ -213,27 +228,16 @@ public class GeoIPFunctions {
     @Output
     IntHolder out;
 
-    @Inject
-    DrillBuf buffer;
-
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      int cityConfidence;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        cityConfidence = city.getCity().getConfidence();
-      } catch (Exception e) {
-        cityConfidence = 0;
-      }
-      out.value = cityConfidence;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.CITY_CONFIDENCE, record);
     }
   }
 
@@ -248,32 +252,16 @@ public class GeoIPFunctions {
     @Output
     Float8Holder out;
 
-    @Inject
-    DrillBuf buffer;
-
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
-
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      double latitude;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        latitude = location.getLatitude();
-
-      } catch (Exception e) {
-        latitude = 0.0;
-      }
-
-      out.value = latitude;
-
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getDouble(org.apache.drill.contrib.function.GeoIPSnapshot.Column.LATITUDE, record);
     }
   }
 
@@ -289,31 +277,15 @@ public class GeoIPFunctions {
     Float8Holder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
-
-    @Workspace
-    java.io.File database;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
-
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      double longitude;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        longitude = location.getLongitude();
-
-      } catch (Exception e) {
-        longitude = 0.0;
-      }
-
-      out.value = longitude;
-
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getDouble(org.apache.drill.contrib.function.GeoIPSnapshot.Column.LONGITUDE, record);
     }
   }
 
@@ -332,33 +304,69 @@ public class GeoIPFunctions {
     DrillBuf buffer;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
+
+    public void setup() {
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
+    }
+
+    public void eval() {
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.TIME_ZONE, record, "Unknown", out, buffer);
+    }
+  }
+
+  @FunctionTemplate(names = {"getUTCOffsetFromIP", "get_utc_offset_from_ip"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getUTCOffsetFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    TimeStampHolder eventTime;
+
+    @Output
+    IntHolder out;
 
     @Workspace
-    java.io.File database;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      String timezone;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getUtcOffset(record, eventTime.value);
+    }
+  }
 
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        timezone = location.getTimeZone();
+  @FunctionTemplate(names = {"getLocalTimeFromIP", "get_local_time_from_ip"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getLocalTimeFunction implements DrillSimpleFunc {
 
-      } catch (Exception e) {
-        timezone = "Unknown";
-      }
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    TimeStampHolder eventTime;
 
-      out.buffer = buffer;
-      out.start = 0;
-      out.end = timezone.getBytes().length;
-      buffer.setBytes(0, timezone.getBytes());
+    @Output
+    TimeStampHolder out;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
+    public void setup() {
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
+    }
+
+    public void eval() {
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = eventTime.value + lookup.getUtcOffset(record, eventTime.value) * 1000L;
     }
   }
 
@@ -373,32 +381,16 @@ public class GeoIPFunctions {
     @Output
     IntHolder out;
 
-    @Inject
-    DrillBuf buffer;
-
-    @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
-
     @Workspace
-    java.io.File database;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      int accuracyRadius;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        accuracyRadius = location.getAccuracyRadius();
-
-      } catch (Exception e) {
-        accuracyRadius = 0;
-      }
-      out.value = accuracyRadius;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.ACCURACY_RADIUS, record);
     }
   }
 
@@ -414,28 +406,15 @@ public class GeoIPFunctions {
     IntHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
-
-    @Workspace
-    java.io.File database;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      int averageIncome;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        averageIncome = location.getAverageIncome();
-
-      } catch (Exception e) {
-        averageIncome = 0;
-      }
-      out.value = averageIncome;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.AVERAGE_INCOME, record);
     }
   }
 
@@ -451,28 +430,15 @@ public class GeoIPFunctions {
     IntHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
-
-    @Workspace
-    java.io.File database;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      int metroCode;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        metroCode = location.getMetroCode();
-
-      } catch (Exception e) {
-        metroCode = 0;
-      }
-      out.value = metroCode;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.METRO_CODE, record);
     }
   }
 
@@ -488,25 +454,15 @@ public class GeoIPFunctions {
     IntHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      int populationDensity;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        populationDensity = location.getPopulationDensity();
-
-      } catch (Exception e) {
-        populationDensity = 0;
-      }
-      out.value = populationDensity;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.POPULATION_DENSITY, record);
     }
   }
 
@@ -522,27 +478,15 @@ public class GeoIPFunctions {
     BitHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCountryDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.country();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      boolean isEU;
-
-      try {
-        com.maxmind.geoip2.model.CountryResponse country = reader.country(java.net.InetAddress.getByName(ip));
-        isEU = country.getCountry().isInEuropeanUnion();
-      } catch (Exception e) {
-        isEU = false;
-      }
-      if (isEU) {
-        out.value = 1;
-      } else {
-        out.value = 0;
-      }
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.IS_IN_EUROPEAN_UNION, record);
     }
   }
 
@@ -561,34 +505,15 @@ public class GeoIPFunctions {
     DrillBuf buffer;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
-
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
-
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      String postalCode;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Postal postal = city.getPostal();
-        postalCode = postal.getCode();
-        if (postalCode == null) {
-          postalCode = "Unknown";
-        }
-      } catch (Exception e) {
-        postalCode = "Unknown";
-      }
-
-      out.buffer = buffer;
-      out.start = 0;
-      out.end = postalCode.getBytes().length;
-      buffer.setBytes(0, postalCode.getBytes());
-
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.POSTAL_CODE, record, "Unknown", out, buffer);
     }
   }
 
@@ -607,37 +532,18 @@ public class GeoIPFunctions {
     DrillBuf buffer;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
-
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.city();
     }
 
-
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      double longitude;
-      double latitude;
-
-      try {
-        com.maxmind.geoip2.model.CityResponse city = reader.city(java.net.InetAddress.getByName(ip));
-        com.maxmind.geoip2.record.Location location = city.getLocation();
-        longitude = location.getLongitude();
-        latitude = location.getLatitude();
-
-      } catch (Exception e) {
-        latitude = 0.0;
-        longitude = 0.0;
-      }
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      double longitude = lookup.getDouble(org.apache.drill.contrib.function.GeoIPSnapshot.Column.LONGITUDE, record);
+      double latitude = lookup.getDouble(org.apache.drill.contrib.function.GeoIPSnapshot.Column.LATITUDE, record);
       com.esri.core.geometry.ogc.OGCPoint point = new com.esri.core.geometry.ogc.OGCPoint(new com.esri.core.geometry.Point(longitude, latitude), com.esri.core.geometry.SpatialReference.create(4326));
-
-      java.nio.ByteBuffer pointBytes = point.asBinary();
-      out.buffer = buffer;
-      out.start = 0;
-      out.end = pointBytes.remaining();
-      buffer.setBytes(0, pointBytes);
-
+      buffer = org.apache.drill.contrib.function.GeoIPLookup.write(point.asBinary(), out, buffer);
     }
   }
 
@@ -653,22 +559,15 @@ public class GeoIPFunctions {
     BigIntHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getASNDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.asn();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      Long ASN;
-
-      try {
-        ASN = reader.asn(java.net.InetAddress.getByName(ip)).getAutonomousSystemNumber();
-      } catch (Exception e) {
-        ASN = 0L;
-      }
-      out.value = ASN;
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getLong(org.apache.drill.contrib.function.GeoIPSnapshot.Column.ASN, record);
     }
   }
 
@@ -687,25 +586,15 @@ public class GeoIPFunctions {
     DrillBuf buffer;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getASNDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.asn();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      String ASNorg;
-
-      try {
-        ASNorg = reader.asn(java.net.InetAddress.getByName(ip)).getAutonomousSystemOrganization();
-      } catch (Exception e) {
-        ASNorg = "Unknown";
-      }
-      out.buffer = buffer;
-      out.start = 0;
-      out.end = ASNorg.getBytes().length;
-      buffer.setBytes(0, ASNorg.getBytes());
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.ASN_ORGANIZATION, record, "Unknown", out, buffer);
     }
   }
 
@@ -721,27 +610,15 @@ public class GeoIPFunctions {
     BitHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.anonymousIp();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      boolean isAnonymous;
-
-      try {
-        com.maxmind.geoip2.model.AnonymousIpResponse response = reader.anonymousIp(java.net.InetAddress.getByName(ip));
-        isAnonymous = response.isAnonymous();
-      } catch (Exception e) {
-        isAnonymous = false;
-      }
-      if (isAnonymous) {
-        out.value = 1;
-      } else {
-        out.value = 0;
-      }
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.IS_ANONYMOUS, record);
     }
   }
 
@@ -757,27 +634,15 @@ public class GeoIPFunctions {
     BitHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.anonymousIp();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      boolean isAnonymousVPN;
-
-      try {
-        com.maxmind.geoip2.model.AnonymousIpResponse response = reader.anonymousIp(java.net.InetAddress.getByName(ip));
-        isAnonymousVPN = response.isAnonymousVpn();
-      } catch (Exception e) {
-        isAnonymousVPN = false;
-      }
-      if (isAnonymousVPN) {
-        out.value = 1;
-      } else {
-        out.value = 0;
-      }
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.IS_ANONYMOUS_VPN, record);
     }
   }
 
@@ -793,27 +658,15 @@ public class GeoIPFunctions {
     BitHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.anonymousIp();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      boolean isHostingProvider;
-
-      try {
-        com.maxmind.geoip2.model.AnonymousIpResponse response = reader.anonymousIp(java.net.InetAddress.getByName(ip));
-        isHostingProvider = response.isHostingProvider();
-      } catch (Exception e) {
-        isHostingProvider = false;
-      }
-      if (isHostingProvider) {
-        out.value = 1;
-      } else {
-        out.value = 0;
-      }
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.IS_HOSTING_PROVIDER, record);
     }
   }
 
@@ -829,27 +682,15 @@ public class GeoIPFunctions {
     BitHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.anonymousIp();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      boolean isPublicProxy;
-
-      try {
-        com.maxmind.geoip2.model.AnonymousIpResponse response = reader.anonymousIp(java.net.InetAddress.getByName(ip));
-        isPublicProxy = response.isPublicProxy();
-      } catch (Exception e) {
-        isPublicProxy = false;
-      }
-      if (isPublicProxy) {
-        out.value = 1;
-      } else {
-        out.value = 0;
-      }
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.IS_PUBLIC_PROXY, record);
     }
   }
 
@@ -865,27 +706,525 @@ public class GeoIPFunctions {
     BitHolder out;
 
     @Workspace
-    com.maxmind.geoip2.DatabaseReader reader;
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
+
+    public void setup() {
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.anonymousIp();
+    }
+
+    public void eval() {
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getInt(org.apache.drill.contrib.function.GeoIPSnapshot.Column.IS_TOR_EXIT_NODE, record);
+    }
+  }
+
+  @FunctionTemplate(names = {"getCountryName", "get_country_name"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getCountryNameAtTimeFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    TimeStampHolder eventTime;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPDatabaseVersions versions;
+
+    public void setup() {
+      versions = org.apache.drill.contrib.function.SecurityHelperFunctions.getCountryDatabaseVersions();
+    }
+
+    public void eval() {
+      org.apache.drill.contrib.function.GeoIPLookup lookup = versions.getLookup(eventTime.value);
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.COUNTRY_NAME, record, "Unknown", out, buffer);
+    }
+  }
+
+  @FunctionTemplate(names = {"getCountryISOCode"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getCountryISOAtTimeFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    TimeStampHolder eventTime;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPDatabaseVersions versions;
 
     public void setup() {
-      reader = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseReader();
+      versions = org.apache.drill.contrib.function.SecurityHelperFunctions.getCountryDatabaseVersions();
     }
 
     public void eval() {
-      String ip = org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(inputTextA.start, inputTextA.end, inputTextA.buffer);
-      boolean isTOR;
+      org.apache.drill.contrib.function.GeoIPLookup lookup = versions.getLookup(eventTime.value);
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.COUNTRY_ISO_CODE, record, "UNK", out, buffer);
+    }
+  }
+
+  @FunctionTemplate(names = {"getCityName", "get_city_name"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getCityNameAtTimeFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    TimeStampHolder eventTime;
+
+    @Output
+    VarCharHolder out;
 
-      try {
-        com.maxmind.geoip2.model.AnonymousIpResponse response = reader.anonymousIp(java.net.InetAddress.getByName(ip));
-        isTOR = response.isTorExitNode();
-      } catch (Exception e) {
-        isTOR = false;
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPDatabaseVersions versions;
+
+    public void setup() {
+      versions = org.apache.drill.contrib.function.SecurityHelperFunctions.getCityDatabaseVersions();
+    }
+
+    public void eval() {
+      org.apache.drill.contrib.function.GeoIPLookup lookup = versions.getLookup(eventTime.value);
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.CITY_NAME, record, "Unknown", out, buffer);
+    }
+  }
+
+  @FunctionTemplate(names = {"getASN", "get_asn"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getASNAtTimeFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    TimeStampHolder eventTime;
+
+    @Output
+    BigIntHolder out;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPDatabaseVersions versions;
+
+    public void setup() {
+      versions = org.apache.drill.contrib.function.SecurityHelperFunctions.getASNDatabaseVersions();
+    }
+
+    public void eval() {
+      org.apache.drill.contrib.function.GeoIPLookup lookup = versions.getLookup(eventTime.value);
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      out.value = lookup.getLong(org.apache.drill.contrib.function.GeoIPSnapshot.Column.ASN, record);
+    }
+  }
+
+  @FunctionTemplate(names = {"getASNOrganization", "get_asn_organization"},
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class getASNOrgAtTimeFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param
+    TimeStampHolder eventTime;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPDatabaseVersions versions;
+
+    public void setup() {
+      versions = org.apache.drill.contrib.function.SecurityHelperFunctions.getASNDatabaseVersions();
+    }
+
+    public void eval() {
+      org.apache.drill.contrib.function.GeoIPLookup lookup = versions.getLookup(eventTime.value);
+      int record = lookup.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = lookup.writeString(org.apache.drill.contrib.function.GeoIPSnapshot.Column.ASN_ORGANIZATION, record, "Unknown", out, buffer);
+    }
+  }
+
+  @FunctionTemplate(name = "mmdb_get",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.INTERNAL)
+  public static class MmdbGetFunction implements DrillSimpleFunc {
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Param
+    NullableVarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder fieldPath;
+
+    @Output
+    NullableVarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPFieldPath path;
+
+    public void setup() {
+      path = org.apache.drill.contrib.function.GeoIPFieldPath.compile(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer),
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(fieldPath.start, fieldPath.end, fieldPath.buffer));
+    }
+
+    public void eval() {
+      int position = inputTextA.isSet == 0 ? -1 : path.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      buffer = path.write(position, out, buffer);
+    }
+  }
+
+  @FunctionTemplate(name = "mmdb_get_bigint",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.INTERNAL)
+  public static class MmdbGetBigIntFunction implements DrillSimpleFunc {
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Param
+    NullableVarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder fieldPath;
+
+    @Output
+    NullableBigIntHolder out;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPFieldPath path;
+
+    public void setup() {
+      path = org.apache.drill.contrib.function.GeoIPFieldPath.compile(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer),
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(fieldPath.start, fieldPath.end, fieldPath.buffer));
+    }
+
+    public void eval() {
+      int position = inputTextA.isSet == 0 ? -1 : path.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      path.write(position, out);
+    }
+  }
+
+  @FunctionTemplate(name = "mmdb_get_double",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.INTERNAL)
+  public static class MmdbGetDoubleFunction implements DrillSimpleFunc {
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Param
+    NullableVarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder fieldPath;
+
+    @Output
+    NullableFloat8Holder out;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPFieldPath path;
+
+    public void setup() {
+      path = org.apache.drill.contrib.function.GeoIPFieldPath.compile(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer),
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(fieldPath.start, fieldPath.end, fieldPath.buffer));
+    }
+
+    public void eval() {
+      int position = inputTextA.isSet == 0 ? -1 : path.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      path.write(position, out);
+    }
+  }
+
+  @FunctionTemplate(name = "mmdb_get_boolean",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.INTERNAL)
+  public static class MmdbGetBooleanFunction implements DrillSimpleFunc {
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Param
+    NullableVarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder fieldPath;
+
+    @Output
+    NullableBitHolder out;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPFieldPath path;
+
+    public void setup() {
+      path = org.apache.drill.contrib.function.GeoIPFieldPath.compile(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer),
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(fieldPath.start, fieldPath.end, fieldPath.buffer));
+    }
+
+    public void eval() {
+      int position = inputTextA.isSet == 0 ? -1 : path.find(inputTextA.buffer, inputTextA.start, inputTextA.end);
+      path.write(position, out);
+    }
+  }
+
+  @FunctionTemplate(name = "geoip_enrich",
+    scope = FunctionTemplate.FunctionScope.SIMPLE)
+  public static class GeoIPEnrichFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Output
+    BaseWriter.ComplexWriter out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPEnricher enricher;
+
+    public void setup() {
+      enricher = org.apache.drill.contrib.function.GeoIPEnricher.forDatabase(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer));
+    }
+
+    public void eval() {
+      buffer = enricher.write(inputTextA.buffer, inputTextA.start, inputTextA.end, out.rootAsMap(), buffer);
+    }
+  }
+
+  @FunctionTemplate(name = "geoip_enrich",
+    scope = FunctionTemplate.FunctionScope.SIMPLE)
+  public static class GeoIPEnrichNullableInputFunction implements DrillSimpleFunc {
+
+    @Param
+    NullableVarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Output
+    BaseWriter.ComplexWriter out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPEnricher enricher;
+
+    public void setup() {
+      enricher = org.apache.drill.contrib.function.GeoIPEnricher.forDatabase(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer));
+    }
+
+    public void eval() {
+      if (inputTextA.isSet == 0) {
+        // Return empty map
+        org.apache.drill.exec.vector.complex.writer.BaseWriter.MapWriter map = out.rootAsMap();
+        map.start();
+        map.end();
+      } else {
+        buffer = enricher.write(inputTextA.buffer, inputTextA.start, inputTextA.end, out.rootAsMap(), buffer);
       }
-      if (isTOR) {
-        out.value = 1;
+    }
+  }
+
+  @FunctionTemplate(name = "geo_record_id",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class GeoRecordIdFunction implements DrillSimpleFunc {
+
+    @Param
+    VarCharHolder inputTextA;
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Output
+    BigIntHolder out;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPBatchMemo memo;
+
+    public void setup() {
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.forDatabase(org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer));
+      memo = new org.apache.drill.contrib.function.GeoIPBatchMemo(lookup);
+    }
+
+    public void eval() {
+      out.value = lookup.getRecordId(memo.find(inputTextA.buffer, inputTextA.start, inputTextA.end));
+    }
+  }
+
+  @FunctionTemplate(name = "geo_record_decode",
+    scope = FunctionTemplate.FunctionScope.SIMPLE)
+  public static class GeoRecordDecodeFunction implements DrillSimpleFunc {
+
+    @Param
+    BigIntHolder recordId;
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Output
+    BaseWriter.ComplexWriter out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPEnricher enricher;
+
+    public void setup() {
+      enricher = org.apache.drill.contrib.function.GeoIPEnricher.forRecords(org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer));
+    }
+
+    public void eval() {
+      buffer = enricher.write(recordId.value, out.rootAsMap(), buffer);
+    }
+  }
+
+  @FunctionTemplate(name = "geo_record_decode",
+    scope = FunctionTemplate.FunctionScope.SIMPLE)
+  public static class GeoRecordDecodeNullableInputFunction implements DrillSimpleFunc {
+
+    @Param
+    NullableBigIntHolder recordId;
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Output
+    BaseWriter.ComplexWriter out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPEnricher enricher;
+
+    public void setup() {
+      enricher = org.apache.drill.contrib.function.GeoIPEnricher.forRecords(org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer));
+    }
+
+    public void eval() {
+      if (recordId.isSet == 0) {
+        // Return empty map
+        org.apache.drill.exec.vector.complex.writer.BaseWriter.MapWriter map = out.rootAsMap();
+        map.start();
+        map.end();
       } else {
-        out.value = 0;
+        buffer = enricher.write(recordId.value, out.rootAsMap(), buffer);
       }
     }
   }
+
+  @FunctionTemplate(name = "geo_record_string",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class GeoRecordStringFunction implements DrillSimpleFunc {
+
+    @Param
+    BigIntHolder recordId;
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Param(constant = true)
+    VarCharHolder field;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPSnapshot.Column column;
+
+    public void setup() {
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.forDatabase(org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer));
+      column = lookup.getColumn(org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(field.start, field.end, field.buffer), true);
+    }
+
+    public void eval() {
+      buffer = lookup.writeString(column, lookup.getRecord(recordId.value), "Unknown", out, buffer);
+    }
+  }
+
+  @FunctionTemplate(name = "geo_record_number",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+  public static class GeoRecordNumberFunction implements DrillSimpleFunc {
+
+    @Param
+    BigIntHolder recordId;
+
+    @Param(constant = true)
+    VarCharHolder database;
+
+    @Param(constant = true)
+    VarCharHolder field;
+
+    @Output
+    Float8Holder out;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPLookup lookup;
+
+    @Workspace
+    org.apache.drill.contrib.function.GeoIPSnapshot.Column column;
+
+    public void setup() {
+      lookup = org.apache.drill.contrib.function.GeoIPLookup.forDatabase(org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(database.start, database.end, database.buffer));
+      column = lookup.getColumn(org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(field.start, field.end, field.buffer), false);
+    }
+
+    public void eval() {
+      out.value = lookup.getNumber(column, lookup.getRecord(recordId.value));
+    }
+  }
 }
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.apache.drill.common.config.DrillConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the addresses a {@link GeoIPLookup} resolves, so that a new lookup can be warmed up with the
+ * hottest ones instead of starting with cold caches. When a database is hot-swapped the new lookup is
+ * warmed with the samples of the one it replaces. When a directory is configured the hottest keys are
+ * also written to a {@code <database>.hotkeys} file every interval and when the drillbit stops, and read
+ * back when the database is next loaded.
+ *
+ * <p>One lookup in 64 is written to a random slot of a fixed array of samples, so frequent addresses hold
+ * proportionally more slots. The arrays are written without locking: a torn sample only warms up an
+ * address that was not hot.</p>
+ *
+ * <p>A file holds the build epoch of the release it was sampled from and one key per network of a raw
+ * database or per record of a snapshot, IPv4 keys in 6 bytes and IPv6 keys in 18. The keys are resolved
+ * again when they are read, so a file written for an older release still warms up a newer one.</p>
+ */
+public class GeoIPHotKeys {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPHotKeys.class);
+
+  // Keys kept per database, 0 disables sampling
+  public static final String MAX_KEYS = "drill.geoip.hot.keys.max";
+  // Directory the keys are written to, empty to only carry them over hot-swaps
+  public static final String DIRECTORY = "drill.geoip.hot.keys.directory";
+  public static final String INTERVAL = "drill.geoip.hot.keys.interval";
+
+  private static final int SAMPLES = 1 << 16;
+  private static final int SAMPLE_MASK = 63;
+  private static final int MAGIC = 0x47484B31;
+  private static final String EXTENSION = ".hotkeys";
+  // IPv4 addresses are sampled as IPv4-mapped IPv6 addresses
+  private static final long IPV4_MAPPED = 0xFFFF00000000L;
+
+  private static ScheduledExecutorService writer;
+
+  private final long[] his = new long[SAMPLES];
+  private final long[] los = new long[SAMPLES];
+  // Keys the lookup was warmed up with, kept after the samples until they are replaced
+  private volatile List<Key> inherited = Collections.emptyList();
+
+  /**
+   * An address, or the first address of a network of the given prefix length, in IPv4-mapped form for
+   * IPv4 with the prefix length counted in IPv4 bits.
+   */
+  public static final class Key {
+    private final long hi;
+    private final long lo;
+    private final int prefixLength;
+
+    public Key(long hi, long lo, int prefixLength) {
+      this.hi = hi;
+      this.lo = lo;
+      this.prefixLength = prefixLength;
+    }
+
+    public static Key ipv4(int address, int prefixLength) {
+      int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+      return new Key(0, IPV4_MAPPED | (address & mask & 0xFFFFFFFFL), prefixLength);
+    }
+
+    public static Key ipv6(long hi, long lo, int prefixLength) {
+      long hiMask = prefixLength == 0 ? 0 : prefixLength >= 64 ? -1L : -1L << (64 - prefixLength);
+      long loMask = prefixLength <= 64 ? 0 : -1L << (128 - prefixLength);
+      return new Key(hi & hiMask, lo & loMask, prefixLength);
+    }
+
+    public boolean isIpv4() {
+      return hi == 0 && (lo >>> 32) == 0xFFFF;
+    }
+
+    public int getIpv4() {
+      return (int) lo;
+    }
+
+    public long getHi() {
+      return hi;
+    }
+
+    public long getLo() {
+      return lo;
+    }
+
+    public int getPrefixLength() {
+      return prefixLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hi == other.hi && lo == other.lo && prefixLength == other.prefixLength;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(hi * 31 + lo) * 31 + prefixLength;
+    }
+  }
+
+  /**
+   * Returns a sampler if sampling is enabled, null otherwise.
+   */
+  static GeoIPHotKeys create() {
+    return getMaxKeys() > 0 ? new GeoIPHotKeys() : null;
+  }
+
+  public void sampleIpv4(int address) {
+    int random = ThreadLocalRandom.current().nextInt();
+    if ((random & SAMPLE_MASK) == 0) {
+      put(random, 0, IPV4_MAPPED | (address & 0xFFFFFFFFL));
+    }
+  }
+
+  public void sampleIpv6(long hi, long lo) {
+    int random = ThreadLocalRandom.current().nextInt();
+    if ((random & SAMPLE_MASK) == 0) {
+      put(random, hi, lo);
+    }
+  }
+
+  // Kept out of the sampling methods, so that they stay small enough to be inlined into the lookups
+  private void put(int random, long hi, long lo) {
+    int slot = (random >>> 6) & (SAMPLES - 1);
+    his[slot] = hi;
+    los[slot] = lo;
+  }
+
+  /**
+   * Keeps the keys a new lookup was warmed up with, so that keys written shortly after a restart or a
+   * hot-swap do not lose the ones that were not sampled again yet.
+   */
+  public void inherit(List<Key> keys) {
+    inherited = keys;
+  }
+
+  /**
+   * Returns the sampled addresses, the most frequent first, followed by the inherited keys.
+   */
+  public List<Key> getSamples() {
+    Map<Key, Integer> counts = new HashMap<>();
+    for (int i = 0; i < SAMPLES; i++) {
+      long hi = his[i];
+      long lo = los[i];
+      // Free slots read as ::, which is never looked up
+      if (hi != 0 || lo != 0) {
+        counts.merge(new Key(hi, lo, hi == 0 && (lo >>> 32) == 0xFFFF ? 32 : 128), 1, Integer::sum);
+      }
+    }
+    List<Key> keys = new ArrayList<>(counts.keySet());
+    keys.sort((a, b) -> Integer.compare(counts.get(b), counts.get(a)));
+    keys.addAll(inherited);
+    return keys;
+  }
+
+  static int getMaxKeys() {
+    DrillConfig config = SecurityHelperFunctions.getConfig();
+    return config.hasPath(MAX_KEYS) ? config.getInt(MAX_KEYS) : 0;
+  }
+
+  /**
+   * Returns the file of a database's keys, or null if no directory is configured.
+   */
+  static File getFile(String databaseName) {
+    String directory = SecurityHelperFunctions.getConfigString(DIRECTORY);
+    return directory.isEmpty() ? null : new File(directory, databaseName + EXTENSION);
+  }
+
+  /**
+   * Writes the keys of a database with the build epoch of the release they were sampled from. The file
+   * is replaced atomically, so a drillbit stopping while it is written leaves the previous one.
+   */
+  static void write(File file, String databaseName, long buildEpoch, List<Key> keys) throws IOException {
+    Files.createDirectories(file.getParentFile().toPath());
+    File part = File.createTempFile(file.getName(), ".part", file.getParentFile());
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(part.toPath())))) {
+        out.writeInt(MAGIC);
+        out.writeUTF(databaseName);
+        out.writeLong(buildEpoch);
+        out.writeInt(keys.size());
+        for (Key key : keys) {
+          out.writeByte(key.isIpv4() ? 4 : 6);
+          out.writeByte(key.prefixLength);
+          if (key.isIpv4()) {
+            out.writeInt(key.getIpv4());
+          } else {
+            out.writeLong(key.hi);
+            out.writeLong(key.lo);
+          }
+        }
+      }
+      Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(part.toPath());
+    }
+  }
+
+  /**
+   * Reads the keys written for a database, or returns an empty list if there is no file or it is not
+   * readable.
+   */
+  static List<Key> read(String databaseName, long buildEpoch) {
+    File file = getFile(databaseName);
+    if (file == null || !file.isFile()) {
+      return new ArrayList<>();
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != MAGIC || !databaseName.equals(in.readUTF())) {
+        throw new IOException("not a key file of " + databaseName);
+      }
+      long sampledEpoch = in.readLong();
+      int count = in.readInt();
+      List<Key> keys = new ArrayList<>(Math.min(count, getMaxKeys()));
+      for (int i = 0; i < count && keys.size() < getMaxKeys(); i++) {
+        int family = in.readUnsignedByte();
+        int prefixLength = in.readUnsignedByte();
+        keys.add(family == 4 ? Key.ipv4(in.readInt(), prefixLength) : Key.ipv6(in.readLong(), in.readLong(), prefixLength));
+      }
+      logger.debug("Read {} hot keys of {} sampled from the release of {} for the release of {}", keys.size(),
+        databaseName, sampledEpoch, buildEpoch);
+      return keys;
+    } catch (IOException e) {
+      logger.warn("Could not read the hot keys of {} from {}", databaseName, file, e);
+      return new ArrayList<>();
+    }
+  }
+
+  /**
+   * Runs a task that writes the keys of all databases every interval and when the JVM stops, once.
+   */
+  static synchronized void scheduleWrites(Runnable task) {
+    if (writer != null) {
+      return;
+    }
+    DrillConfig config = SecurityHelperFunctions.getConfig();
+    long interval = config.hasPath(INTERVAL) ? config.getLong(INTERVAL) : 300;
+    writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "geoip-hot-keys");
+      thread.setDaemon(true);
+      return thread;
+    });
+    writer.scheduleWithFixedDelay(task, interval, interval, TimeUnit.SECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread(task, "geoip-hot-keys-shutdown"));
+  }
+}
@@ -0,0 +1,677 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.common.exceptions.UserException;
+import org.apache.drill.contrib.function.GeoIPSnapshot.Column;
+import org.apache.drill.exec.expr.holders.VarBinaryHolder;
+import org.apache.drill.exec.expr.holders.VarCharHolder;
+import org.apache.drill.shaded.guava.com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The lookup path shared by the GeoIP functions. Drill copies the {@code eval()} body of every function
+ * into the generated code of each operator that calls it, so the bodies only find the record for an
+ * address and write one of its values, and the work happens here, in small methods the JIT compiles
+ * and inlines once for all functions.
+ *
+ * <p>A lookup answers from the compiled snapshot of a database when there is one and otherwise from the
+ * raw database, caching the networks found in its search tree and decoded records by their offset. Records
+ * are identified by an int in both cases, -1 when the address is invalid or not in the database, and the
+ * getters return the same defaults as the MaxMind model classes for missing values.</p>
+ */
+public class GeoIPLookup {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPLookup.class);
+
+  public static final int NOT_FOUND = -1;
+
+  // Whether functions reading the same address in a row share its lookup through a GeoIPRowMemo
+  public static final String ROW_MEMO = "drill.geoip.row.memo";
+
+  // Same bound as the MaxMind CHMCache: once full, records are decoded without being cached
+  private static final int RECORD_CACHE_CAPACITY = 4096;
+
+  // Sets of the network cache per address family, of four networks each
+  private static final int NETWORK_CACHE_SETS = 4096;
+
+  private static final Map<String, GeoIPLookup> lookups = new ConcurrentHashMap<>();
+
+  // Time zone rules by zone id, shared by all databases. Unknown ids resolve to UTC.
+  private static final Map<String, ZoneRules> zoneRules = new ConcurrentHashMap<>();
+
+  private final GeoIPSnapshot snapshot;
+  private final MaxMindDbFile database;
+  private final GeoIPNetworkFilter filter;
+  private final GeoIPNetworkCache networks;
+  private final Map<Integer, Object> records;
+  // Shared by all fragments, so the encoded strings are published with a volatile write. Zone rules are
+  // immutable and safe to publish through a plain array.
+  private final AtomicReferenceArray<byte[]> utf8;
+  private final ZoneRules[] zonesByStringId;
+  private final int recordIdTag;
+  private final ThreadLocal<GeoIPRowMemo> rowMemos;
+  private final GeoIPHotKeys hotKeys;
+
+  public GeoIPLookup(GeoIPSnapshot snapshot) {
+    this.snapshot = snapshot;
+    this.database = null;
+    this.filter = null;
+    this.networks = null;
+    this.records = null;
+    this.utf8 = new AtomicReferenceArray<>(snapshot.getStringCount());
+    this.zonesByStringId = new ZoneRules[snapshot.getStringCount()];
+    this.recordIdTag = recordIdTag(snapshot.getBuildEpoch(), true);
+    this.rowMemos = useRowMemo() ? ThreadLocal.withInitial(GeoIPRowMemo::new) : null;
+    this.hotKeys = GeoIPHotKeys.create();
+  }
+
+  public GeoIPLookup(MaxMindDbFile database) {
+    this(database, null);
+  }
+
+  /**
+   * Creates a lookup over a raw database that consults the filter first, so addresses outside the
+   * database's networks are rejected without walking the search tree.
+   */
+  public GeoIPLookup(MaxMindDbFile database, GeoIPNetworkFilter filter) {
+    this.snapshot = null;
+    this.database = database;
+    this.filter = filter;
+    this.networks = new GeoIPNetworkCache(NETWORK_CACHE_SETS);
+    this.records = new ConcurrentHashMap<>();
+    this.utf8 = null;
+    this.zonesByStringId = null;
+    this.recordIdTag = recordIdTag(database.getBuildEpoch(), false);
+    this.rowMemos = useRowMemo() ? ThreadLocal.withInitial(GeoIPRowMemo::new) : null;
+    this.hotKeys = GeoIPHotKeys.create();
+  }
+
+  public static GeoIPLookup country() {
+    return forDatabase(SecurityHelperFunctions.COUNTRY_DATABASE);
+  }
+
+  public static GeoIPLookup city() {
+    return forDatabase(SecurityHelperFunctions.CITY_DATABASE);
+  }
+
+  public static GeoIPLookup asn() {
+    return forDatabase(SecurityHelperFunctions.ASN_DATABASE);
+  }
+
+  /**
+   * Returns the lookup for the Anonymous-IP database. Most addresses are not anonymous, so it is
+   * guarded by a prefilter built from the database's networks when it is loaded.
+   */
+  public static GeoIPLookup anonymousIp() {
+    return forDatabase(SecurityHelperFunctions.ANONYMOUS_IP_DATABASE);
+  }
+
+  /**
+   * Returns the shared lookup for a database, preferring its compiled snapshot.
+   */
+  public static GeoIPLookup forDatabase(String databaseName) {
+    return lookups.computeIfAbsent(databaseName, GeoIPLookup::load);
+  }
+
+  private static GeoIPLookup load(String databaseName) {
+    GeoIPLookup lookup = open(databaseName);
+    lookup.warmUp(databaseName, GeoIPHotKeys.read(databaseName, lookup.getBuildEpoch()));
+    if (GeoIPHotKeys.getFile(databaseName) != null) {
+      GeoIPHotKeys.scheduleWrites(GeoIPLookup::writeHotKeys);
+    }
+    return lookup;
+  }
+
+  private static GeoIPLookup open(String databaseName) {
+    if (SecurityHelperFunctions.ANONYMOUS_IP_DATABASE.equals(databaseName)) {
+      MaxMindDbFile database = SecurityHelperFunctions.getDatabaseFile(databaseName);
+      long start = System.nanoTime();
+      GeoIPNetworkFilter filter = GeoIPNetworkFilter.build(database);
+      GeoIPMemory.track(databaseName + " (filter)", GeoIPMemory.Residence.HEAP, filter.getSize());
+      logger.info("Built the network filter of {} in {} ms", databaseName, (System.nanoTime() - start) / 1_000_000);
+      return new GeoIPLookup(database, filter);
+    }
+    GeoIPSnapshot snapshot = SecurityHelperFunctions.getSnapshot(databaseName);
+    if (snapshot != null) {
+      return new GeoIPLookup(snapshot);
+    }
+    GeoIPLookup lookup = new GeoIPLookup(SecurityHelperFunctions.getDatabaseFile(databaseName));
+    GeoIPMemory.track(databaseName + " (network cache)", GeoIPMemory.Residence.HEAP, lookup.networks.getSize());
+    return lookup;
+  }
+
+  /**
+   * Loads a database that is in use again and then replaces its shared lookup, so that fragments being
+   * set up meanwhile keep getting the previous one instead of waiting for the load. The new lookup is
+   * warmed up with the addresses the previous one resolved most often first.
+   */
+  static void reload(String databaseName) {
+    GeoIPLookup previous = lookups.get(databaseName);
+    if (previous != null) {
+      GeoIPLookup lookup = open(databaseName);
+      lookup.warmUp(databaseName, previous.getHotKeys(GeoIPHotKeys.getMaxKeys()));
+      lookups.put(databaseName, lookup);
+    }
+  }
+
+  /**
+   * Writes the hot keys of every loaded database to the configured directory.
+   */
+  static void writeHotKeys() {
+    for (Map.Entry<String, GeoIPLookup> entry : lookups.entrySet()) {
+      File file = GeoIPHotKeys.getFile(entry.getKey());
+      GeoIPLookup lookup = entry.getValue();
+      if (file == null || lookup.hotKeys == null) {
+        continue;
+      }
+      try {
+        List<GeoIPHotKeys.Key> keys = lookup.getHotKeys(GeoIPHotKeys.getMaxKeys());
+        if (!keys.isEmpty()) {
+          GeoIPHotKeys.write(file, entry.getKey(), lookup.getBuildEpoch(), keys);
+          logger.debug("Wrote {} hot keys of {} to {}", keys.size(), entry.getKey(), file);
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Could not write the hot keys of {} to {}", entry.getKey(), file, e);
+      }
+    }
+  }
+
+  private static boolean useRowMemo() {
+    return !SecurityHelperFunctions.getConfig().hasPath(ROW_MEMO)
+      || SecurityHelperFunctions.getConfig().getBoolean(ROW_MEMO);
+  }
+
+  /**
+   * Returns the record for the address written as text in the given bytes. The last address of the
+   * calling thread is remembered, so other functions evaluated on the same row find its record without
+   * parsing it again.
+   */
+  public int find(DrillBuf buffer, int start, int end) {
+    GeoIPRowMemo memo = rowMemos == null ? null : rowMemos.get();
+    int record = memo == null ? GeoIPNetworkCache.MISS : memo.find(buffer, start, end);
+    if (record == GeoIPNetworkCache.MISS) {
+      byte[] address = parse(buffer, start, end);
+      record = address == null ? NOT_FOUND : find(address);
+      if (memo != null) {
+        memo.put(buffer, start, end, record);
+      }
+    }
+    return record;
+  }
+
+  public int find(byte[] address) {
+    if (address.length == 4) {
+      return findIpv4(GeoIPSnapshot.toInt(address, 0));
+    }
+    return findIpv6(GeoIPSnapshot.toLong(address, 0), GeoIPSnapshot.toLong(address, 8));
+  }
+
+  public int findIpv4(int address) {
+    if (hotKeys != null) {
+      hotKeys.sampleIpv4(address);
+    }
+    if (snapshot != null) {
+      return snapshot.lookupIpv4(address);
+    }
+    if (filter != null && !filter.mightContainIpv4(address)) {
+      return NOT_FOUND;
+    }
+    int record = networks.findIpv4(address);
+    if (record == GeoIPNetworkCache.MISS) {
+      long network = database.findNetwork(ByteBuffer.allocate(4).putInt(address).array());
+      record = (int) network;
+      networks.putIpv4(address, (int) (network >>> 32), record);
+    }
+    return record;
+  }
+
+  public int findIpv6(long hi, long lo) {
+    if (hotKeys != null) {
+      hotKeys.sampleIpv6(hi, lo);
+    }
+    if (snapshot != null) {
+      return snapshot.lookupIpv6(hi, lo);
+    }
+    if (filter != null && !filter.mightContainIpv6(hi, lo)) {
+      return NOT_FOUND;
+    }
+    int record = networks.findIpv6(hi, lo);
+    if (record == GeoIPNetworkCache.MISS) {
+      long network = database.findNetwork(ByteBuffer.allocate(16).putLong(hi).putLong(lo).array());
+      record = (int) network;
+      networks.putIpv6(hi, lo, (int) (network >>> 32), record);
+    }
+    return record;
+  }
+
+  /**
+   * Returns a record as an id for {@code geo_record_id}, or -1. Records are snapshot rows or data offsets
+   * depending on how the database was loaded, so the upper 32 bits tag the id with the release and the
+   * kind of lookup, which lets a drillbit that loaded the database differently reject the id.
+   */
+  public long getRecordId(int record) {
+    return record < 0 ? NOT_FOUND : ((long) recordIdTag << 32) | record;
+  }
+
+  /**
+   * Returns the record of an id from {@link #getRecordId(int)}, -1 for -1.
+   */
+  public int getRecord(long recordId) {
+    if (recordId < 0) {
+      return NOT_FOUND;
+    }
+    if (recordId >>> 32 != recordIdTag) {
+      throw UserException.validationError()
+        .message("Record id %d was not returned by geo_record_id for the database release loaded on this drillbit. "
+          + "Record ids are only valid within a query, on drillbits with the same release.", recordId)
+        .build(logger);
+    }
+    return (int) recordId;
+  }
+
+  // 31 bits, so that ids stay positive
+  private static int recordIdTag(long buildEpoch, boolean snapshot) {
+    long h = (buildEpoch * 2 + (snapshot ? 1 : 0)) * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 33);
+  }
+
+  /**
+   * Returns the column of a field name such as {@code city_name}, checking that the database has it and
+   * that it holds strings or numbers as requested.
+   */
+  public Column getColumn(String field, boolean string) {
+    Column column = null;
+    for (Column candidate : getColumns()) {
+      if (candidate.name().equalsIgnoreCase(field)) {
+        column = candidate;
+      }
+    }
+    if (column == null || column.isString() != string) {
+      throw UserException.validationError()
+        .message("'%s' is not a %s field of this database. Its fields are %s.", field, string ? "string" : "numeric",
+          getColumns().toString().toLowerCase(Locale.ROOT))
+        .build(logger);
+    }
+    return column;
+  }
+
+  /**
+   * Returns the columns the records of the database have values for.
+   */
+  public Set<Column> getColumns() {
+    if (snapshot == null) {
+      return GeoIPSnapshotCompiler.columnsOf(database.getDatabaseType());
+    }
+    Set<Column> columns = EnumSet.noneOf(Column.class);
+    for (Column column : Column.values()) {
+      if (snapshot.hasColumn(column)) {
+        columns.add(column);
+      }
+    }
+    return columns;
+  }
+
+  public String getString(Column column, int record) {
+    if (snapshot != null) {
+      return snapshot.getString(column, record);
+    }
+    Object value = value(column, record);
+    return value == null ? null : value.toString();
+  }
+
+  public int getInt(Column column, int record) {
+    if (snapshot != null) {
+      return snapshot.getInt(column, record);
+    }
+    Object value = value(column, record);
+    if (value instanceof Boolean) {
+      return (Boolean) value ? 1 : 0;
+    }
+    return value instanceof Number ? ((Number) value).intValue() : 0;
+  }
+
+  /**
+   * Returns an unsigned 32 bit value, such as an autonomous system number.
+   */
+  public long getLong(Column column, int record) {
+    if (snapshot != null) {
+      return snapshot.getUnsignedInt(column, record);
+    }
+    Object value = value(column, record);
+    return value instanceof Number ? ((Number) value).longValue() : 0;
+  }
+
+  public double getDouble(Column column, int record) {
+    if (snapshot != null) {
+      return snapshot.getCoordinate(column, record);
+    }
+    Object value = value(column, record);
+    return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+  }
+
+  /**
+   * Returns any numeric value as a double: coordinates, unsigned values and small integers.
+   */
+  public double getNumber(Column column, int record) {
+    switch (column) {
+      case LATITUDE:
+      case LONGITUDE:
+        return getDouble(column, record);
+      case ASN:
+        return getLong(column, record);
+      default:
+        return getInt(column, record);
+    }
+  }
+
+  /**
+   * Returns the offset from UTC in seconds of the record's time zone at the given time, 0 if the time
+   * zone is unknown.
+   */
+  public int getUtcOffset(int record, long epochMillis) {
+    ZoneRules rules = getZoneRules(record);
+    if (rules.isFixedOffset()) {
+      return rules.getOffset(Instant.EPOCH).getTotalSeconds();
+    }
+    return rules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds();
+  }
+
+  /**
+   * Returns the rules of the record's time zone. With a snapshot they are resolved once per time zone
+   * string in the dictionary, so a lookup does not parse the zone id.
+   */
+  public ZoneRules getZoneRules(int record) {
+    if (snapshot != null) {
+      int id = snapshot.getStringId(Column.TIME_ZONE, record);
+      if (id < 0) {
+        return ZoneOffset.UTC.getRules();
+      }
+      ZoneRules rules = zonesByStringId[id];
+      if (rules == null) {
+        rules = zoneRules(snapshot.getString(Column.TIME_ZONE, record));
+        zonesByStringId[id] = rules;
+      }
+      return rules;
+    }
+    String zone = getString(Column.TIME_ZONE, record);
+    return zone == null ? ZoneOffset.UTC.getRules() : zoneRules(zone);
+  }
+
+  private static ZoneRules zoneRules(String zone) {
+    return zoneRules.computeIfAbsent(zone, id -> {
+      try {
+        return ZoneId.of(id).getRules();
+      } catch (DateTimeException e) {
+        return ZoneOffset.UTC.getRules();
+      }
+    });
+  }
+
+  /**
+   * Writes a string value, or the given default if it is missing, to the output holder and returns the
+   * buffer holding it, which replaces the function's buffer if it had to grow.
+   */
+  public DrillBuf writeString(Column column, int record, String missing, VarCharHolder out, DrillBuf buffer) {
+    byte[] bytes = getUtf8(column, record);
+    return write(bytes == null ? missing.getBytes(StandardCharsets.UTF_8) : bytes, out, buffer);
+  }
+
+  /**
+   * Returns the UTF-8 bytes of a string value, null if it is missing. With a snapshot they are encoded
+   * once per string in the dictionary.
+   */
+  public byte[] getUtf8(Column column, int record) {
+    if (snapshot != null) {
+      int id = snapshot.getStringId(column, record);
+      if (id < 0) {
+        return null;
+      }
+      byte[] bytes = utf8.get(id);
+      if (bytes == null) {
+        bytes = snapshot.getUtf8(id);
+        utf8.set(id, bytes);
+      }
+      return bytes;
+    }
+    String value = getString(column, record);
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Looks up an address and reads all its string values, which fills the caches the functions use
+   * before the first query does.
+   */
+  void warm(byte[] address) {
+    int record = find(address);
+    for (Column column : Column.values()) {
+      if (column.isString() && (snapshot == null || snapshot.hasColumn(column))) {
+        getUtf8(column, record);
+      }
+    }
+  }
+
+  /**
+   * Returns the most frequently sampled keys, at most max of them: one per entry of the network cache
+   * of a raw database, and one per record of a snapshot.
+   */
+  List<GeoIPHotKeys.Key> getHotKeys(int max) {
+    List<GeoIPHotKeys.Key> keys = new ArrayList<>();
+    if (hotKeys == null) {
+      return keys;
+    }
+    Set<Object> seen = new HashSet<>();
+    for (GeoIPHotKeys.Key sample : hotKeys.getSamples()) {
+      if (keys.size() >= max) {
+        break;
+      }
+      GeoIPHotKeys.Key key = sample;
+      Object identity;
+      if (snapshot != null) {
+        identity = sample.isIpv4() ? snapshot.lookupIpv4(sample.getIpv4())
+          : snapshot.lookupIpv6(sample.getHi(), sample.getLo());
+      } else {
+        // The network cache holds a network once per block it picks sets by, so a shorter network needs a
+        // key in each hot block
+        int prefixLength = (int) (database.findNetwork(toBytes(sample)) >>> 32);
+        key = sample.isIpv4()
+          ? GeoIPHotKeys.Key.ipv4(sample.getIpv4(), Math.max(prefixLength, GeoIPNetworkCache.IPV4_BLOCK_BITS))
+          : GeoIPHotKeys.Key.ipv6(sample.getHi(), sample.getLo(), Math.max(prefixLength, GeoIPNetworkCache.IPV6_BLOCK_BITS));
+        identity = key;
+      }
+      if (seen.add(identity)) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Resolves the given keys and encodes the strings of their records, filling the caches a query would.
+   */
+  void warmUp(String databaseName, List<GeoIPHotKeys.Key> keys) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    if (hotKeys != null) {
+      hotKeys.inherit(keys);
+    }
+    long start = System.nanoTime();
+    for (GeoIPHotKeys.Key key : keys) {
+      warm(toBytes(key));
+    }
+    logger.info("Warmed up {} with {} hot keys in {} ms", databaseName, keys.size(),
+      (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private long getBuildEpoch() {
+    return snapshot != null ? snapshot.getBuildEpoch() : database.getBuildEpoch();
+  }
+
+  private static byte[] toBytes(GeoIPHotKeys.Key key) {
+    return key.isIpv4() ? ByteBuffer.allocate(4).putInt(key.getIpv4()).array()
+      : ByteBuffer.allocate(16).putLong(key.getHi()).putLong(key.getLo()).array();
+  }
+
+  /**
+   * Returns the snapshot the lookup answers from, null for a raw database.
+   */
+  GeoIPSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Returns the raw database the lookup answers from, null for a snapshot.
+   */
+  MaxMindDbFile getDatabase() {
+    return database;
+  }
+
+  /**
+   * Reads every page of a memory mapped snapshot, so that the first lookups do not wait for the disk.
+   */
+  long pageIn() {
+    return snapshot == null ? 0 : snapshot.pageIn();
+  }
+
+  public static DrillBuf write(byte[] bytes, VarCharHolder out, DrillBuf buffer) {
+    buffer = buffer.reallocIfNeeded(bytes.length);
+    buffer.setBytes(0, bytes);
+    out.buffer = buffer;
+    out.start = 0;
+    out.end = bytes.length;
+    return buffer;
+  }
+
+  public static DrillBuf write(ByteBuffer bytes, VarBinaryHolder out, DrillBuf buffer) {
+    int length = bytes.remaining();
+    buffer = buffer.reallocIfNeeded(length);
+    buffer.setBytes(0, bytes);
+    out.buffer = buffer;
+    out.start = 0;
+    out.end = length;
+    return buffer;
+  }
+
+  /**
+   * Parses an IPv4 or IPv6 address literal without going through {@link java.net.InetAddress}, and
+   * without the host name resolution it falls back to. Returns null if the text is not an address.
+   * It accepts the literals {@link java.net.InetAddress#getByName(String)} does, including the short
+   * IPv4 forms and IPv6 addresses in brackets.
+   */
+  public static byte[] parse(DrillBuf buffer, int start, int end) {
+    byte[] address = parseIpv4(buffer, start, end);
+    if (address != null || end - start < 2) {
+      return address;
+    }
+    if (buffer.getByte(start) == '[' && buffer.getByte(end - 1) == ']') {
+      start++;
+      end--;
+    }
+    String text = buffer.toString(start, end - start, StandardCharsets.UTF_8);
+    if (text.indexOf(':') < 0) {
+      return null;
+    }
+    try {
+      return InetAddresses.forString(text).getAddress();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Parses an IPv4 address of one to four decimal parts, returning null for anything else. As in C's
+   * {@code inet_aton}, the last part fills the remaining bytes, so {@code 10.1} is {@code 10.0.0.1}.
+   */
+  static byte[] parseIpv4(DrillBuf buffer, int start, int end) {
+    if (end - start < 1 || end - start > 15) {
+      return null;
+    }
+    long[] parts = new long[4];
+    int part = 0;
+    boolean digits = false;
+    for (int i = start; i < end; i++) {
+      byte b = buffer.getByte(i);
+      if (b >= '0' && b <= '9') {
+        parts[part] = parts[part] * 10 + (b - '0');
+        if (parts[part] > 0xFFFFFFFFL) {
+          return null;
+        }
+        digits = true;
+      } else if (b == '.' && digits && part < 3) {
+        if (parts[part] > 255) {
+          return null;
+        }
+        part++;
+        digits = false;
+      } else {
+        return null;
+      }
+    }
+    if (!digits || parts[part] >= 1L << (8 * (4 - part))) {
+      return null;
+    }
+    long value = parts[part];
+    for (int i = 0; i < part; i++) {
+      value |= parts[i] << (8 * (3 - i));
+    }
+    return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+  }
+
+  private Object value(Column column, int record) {
+    if (record < 0) {
+      return null;
+    }
+    GeoIPRowMemo memo = rowMemos == null ? null : rowMemos.get();
+    Object decoded = memo == null ? null : memo.getDecoded(record);
+    if (decoded == null) {
+      decoded = records.get(record);
+      if (decoded == null) {
+        decoded = database.decode(record);
+        if (records.size() < RECORD_CACHE_CAPACITY) {
+          records.put(record, decoded);
+        }
+      }
+      if (memo != null) {
+        memo.putDecoded(record, decoded);
+      }
+    }
+    return GeoIPSnapshotCompiler.extract(decoded, column);
+  }
+}
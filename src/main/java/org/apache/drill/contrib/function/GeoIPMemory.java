@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import com.codahale.metrics.Gauge;
+import org.apache.drill.common.exceptions.UserException;
+import org.apache.drill.exec.metrics.DrillMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accounts for the memory held by the databases the functions load. Every loaded database is recorded
+ * with its size and where it lives, and the totals are published as drillbit metrics under
+ * {@code drill.geoip.memory}, next to Drill's own heap and direct memory gauges. The databases are shared by
+ * every query on the drillbit, and functions cannot reach operator stats, so they are not reported in query
+ * profiles and are not seen by memory planning or query admission.
+ *
+ * <p>When {@code drill.geoip.memory.direct} is set, databases read from the classpath are copied into
+ * direct byte buffers instead of the heap. Functions cannot reach the drillbit's allocator, so this memory
+ * is outside Drill's: it is not counted by the drillbit allocator, {@code drill.memory.top.max} or query
+ * admission, only by the JVM's {@code -XX:MaxDirectMemorySize}. The databases loaded at a time may hold
+ * at most {@code drill.geoip.memory.limit} bytes of it, and the space of a replaced copy is returned once
+ * the garbage collector finds it unused.</p>
+ */
+public class GeoIPMemory {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPMemory.class);
+
+  public static final String DIRECT = "drill.geoip.memory.direct";
+  public static final String LIMIT = "drill.geoip.memory.limit";
+
+  private static final String METRIC_PREFIX = "drill.geoip.memory.";
+
+  // The first buffer for a database whose length is not known
+  private static final long INITIAL_DIRECT_BYTES = 16 << 20;
+
+  public enum Residence {
+    HEAP, DIRECT, MAPPED
+  }
+
+  private static final Map<String, Long> heapBytes = new ConcurrentHashMap<>();
+  private static final Map<String, Long> directBytes = new ConcurrentHashMap<>();
+  private static final Map<String, Long> mappedBytes = new ConcurrentHashMap<>();
+
+  private static boolean metricsRegistered;
+
+  private GeoIPMemory() {
+  }
+
+  public static boolean useDirectMemory() {
+    return SecurityHelperFunctions.getConfig().hasPath(DIRECT)
+      && SecurityHelperFunctions.getConfig().getBoolean(DIRECT);
+  }
+
+  /**
+   * Reads a database from the classpath, which cannot be mapped into a buffer, in direct memory if that is
+   * enabled and on the heap otherwise, and records it under the given name. Returns null if the file is not
+   * on the classpath.
+   */
+  public static ByteBuffer load(String name, String fileName) throws IOException {
+    URL resource = GeoIPMemory.class.getClassLoader().getResource(fileName);
+    if (resource == null) {
+      return null;
+    }
+    URLConnection connection = resource.openConnection();
+    try (InputStream in = connection.getInputStream()) {
+      if (!useDirectMemory()) {
+        byte[] bytes = in.readAllBytes();
+        track(name, Residence.HEAP, bytes.length);
+        return ByteBuffer.wrap(bytes);
+      }
+      return readDirect(name, in, connection.getContentLengthLong());
+    }
+  }
+
+  // Streams a database into direct memory without a copy on the heap, in a buffer of its length when that
+  // is known and in one that grows otherwise
+  private static ByteBuffer readDirect(String name, InputStream in, long length) throws IOException {
+    ReadableByteChannel channel = Channels.newChannel(in);
+    ByteBuffer buffer = allocateDirect(name, length >= 0 ? length : INITIAL_DIRECT_BYTES);
+    while (true) {
+      if (!buffer.hasRemaining()) {
+        int next = in.read();
+        if (next < 0) {
+          break;
+        }
+        ByteBuffer larger = allocateDirect(name, buffer.capacity() * 2L);
+        buffer.flip();
+        larger.put(buffer).put((byte) next);
+        buffer = larger;
+      }
+      if (channel.read(buffer) < 0) {
+        break;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static synchronized ByteBuffer allocateDirect(String name, long bytes) {
+    long limit = getLimit();
+    long used = getBytes(Residence.DIRECT) - directBytes.getOrDefault(name, 0L);
+    if (used + bytes > limit) {
+      throw UserException.resourceError()
+        .message("Loading %s into direct memory would take %d bytes, over the %d bytes of %s.",
+          name, used + bytes, limit, LIMIT)
+        .build(logger);
+    }
+    if (bytes > Integer.MAX_VALUE) {
+      throw UserException.resourceError()
+        .message("%s does not fit into a direct buffer of at most %d bytes.", name, Integer.MAX_VALUE)
+        .build(logger);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes);
+    track(name, Residence.DIRECT, bytes);
+    return buffer;
+  }
+
+  /**
+   * Records the size of a loaded database or cache, replacing an earlier record of the same name.
+   */
+  public static void track(String name, Residence residence, long bytes) {
+    registerMetrics();
+    release(name);
+    usage(residence).put(name, bytes);
+    logger.debug("GeoIP {} holds {} bytes in {} memory", name, bytes, residence);
+  }
+
+  /**
+   * Removes the record of a database that was only loaded for a while.
+   */
+  public static void release(String name) {
+    heapBytes.remove(name);
+    directBytes.remove(name);
+    mappedBytes.remove(name);
+  }
+
+  public static long getBytes(Residence residence) {
+    long total = 0;
+    for (long bytes : usage(residence).values()) {
+      total += bytes;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the recorded sizes by name, for diagnostics.
+   */
+  public static Map<String, Long> getUsage() {
+    Map<String, Long> all = new TreeMap<>();
+    all.putAll(heapBytes);
+    all.putAll(directBytes);
+    all.putAll(mappedBytes);
+    return all;
+  }
+
+  private static Map<String, Long> usage(Residence residence) {
+    switch (residence) {
+      case DIRECT:
+        return directBytes;
+      case MAPPED:
+        return mappedBytes;
+      default:
+        return heapBytes;
+    }
+  }
+
+  private static long getLimit() {
+    return SecurityHelperFunctions.getConfig().hasPath(LIMIT)
+      ? SecurityHelperFunctions.getConfig().getBytes(LIMIT)
+      : Long.MAX_VALUE;
+  }
+
+  private static synchronized void registerMetrics() {
+    if (metricsRegistered) {
+      return;
+    }
+    for (Residence residence : Residence.values()) {
+      DrillMetrics.register(METRIC_PREFIX + residence.name().toLowerCase(Locale.ROOT), (Gauge<Long>) () -> getBytes(residence));
+    }
+    metricsRegistered = true;
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.common.exceptions.UserException;
+import org.apache.drill.exec.expr.holders.VarCharHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Country or city names of a database in one language, encoded as UTF-8 once and indexed by the records of
+ * its {@link GeoIPLookup}, so that a localized name is found with the same lookup, caches and row memo as an
+ * English one and written with the same copy. Records without a name in the language fall back to the
+ * English name, as the MaxMind readers do when given a list of locales.
+ *
+ * <p>The names are read from the raw database. With a snapshot, its networks are mapped to snapshot rows once
+ * while the table is built and the raw database is not kept loaded.</p>
+ */
+public class GeoIPNameTable {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPNameTable.class);
+
+  private static final String DEFAULT_LOCALE = "en";
+
+  // Stands for records without a name, which the concurrent map used while building cannot hold as null
+  private static final byte[] NO_NAME = new byte[0];
+
+  private static final Map<String, GeoIPNameTable> tables = new ConcurrentHashMap<>();
+
+  private final GeoIPLookup lookup;
+  // The data offsets of a raw database in order, with the names at the same index. Null for a snapshot,
+  // whose names are indexed by row.
+  private final int[] offsets;
+  private final byte[][] names;
+
+  private GeoIPNameTable(GeoIPLookup lookup, int[] offsets, byte[][] names) {
+    this.lookup = lookup;
+    this.offsets = offsets;
+    this.names = names;
+  }
+
+  public static GeoIPNameTable countryNames(String locale) {
+    return forLocale(SecurityHelperFunctions.COUNTRY_DATABASE, "country", locale);
+  }
+
+  public static GeoIPNameTable cityNames(String locale) {
+    return forLocale(SecurityHelperFunctions.CITY_DATABASE, "city", locale);
+  }
+
+  /**
+   * Returns the table of names of the given record field, e.g. {@code country}, in the given language.
+   * Tables are built once per loaded database and shared by all fragments.
+   */
+  public static GeoIPNameTable forLocale(String databaseName, String field, String locale) {
+    GeoIPLookup lookup = GeoIPLookup.forDatabase(databaseName);
+    return tables.compute(databaseName + '/' + field + '/' + locale, (key, table) -> {
+      if (table != null && table.lookup == lookup) {
+        return table;
+      }
+      long start = System.nanoTime();
+      GeoIPNameTable built = build(databaseName, lookup, field, locale);
+      GeoIPMemory.track(databaseName + " names (" + field + ", " + locale + ")", GeoIPMemory.Residence.HEAP,
+        built.getSize());
+      logger.info("Built {} names of {} in {} ms", locale, databaseName, (System.nanoTime() - start) / 1_000_000);
+      return built;
+    });
+  }
+
+  private static GeoIPNameTable build(String databaseName, GeoIPLookup lookup, String field, String locale) {
+    if (lookup.getDatabase() != null) {
+      checkLanguage(databaseName, lookup.getDatabase(), locale);
+      return build(lookup, lookup.getDatabase(), field, locale);
+    }
+    // A snapshot does not keep the records, so they are read from the database file. If a reload replaced the
+    // snapshot while they were read, the file may be of the newer release, so the table is built again.
+    while (true) {
+      GeoIPLookup snapshotLookup = lookup;
+      GeoIPNameTable built = SecurityHelperFunctions.withDatabaseFile(databaseName, database -> {
+        checkLanguage(databaseName, database, locale);
+        return build(snapshotLookup, snapshotLookup.getSnapshot(), database, field, locale);
+      });
+      GeoIPLookup current = GeoIPLookup.forDatabase(databaseName);
+      if (current == lookup || current.getSnapshot() == null) {
+        return built;
+      }
+      lookup = current;
+    }
+  }
+
+  private static void checkLanguage(String databaseName, MaxMindDbFile database, String locale) {
+    Object languages = database.getMetadata().get("languages");
+    if (languages instanceof List && !((List<?>) languages).contains(locale)) {
+      throw UserException.validationError()
+        .message("%s has no names in '%s'. Available languages are %s.", databaseName, locale, languages)
+        .build(logger);
+    }
+  }
+
+  static void evict(String databaseName) {
+    tables.keySet().removeIf(key -> key.startsWith(databaseName + '/'));
+  }
+
+  // The subtrees of the database are walked in parallel, all adding to the same map
+  private static GeoIPNameTable build(GeoIPLookup lookup, MaxMindDbFile database, String field, String locale) {
+    Map<Integer, byte[]> byOffset = new ConcurrentHashMap<>();
+    MaxMindDbFile.NetworkVisitor visitor = new MaxMindDbFile.NetworkVisitor() {
+      @Override
+      public void network(long hi, long lo, int prefixLength, int dataOffset) {
+        if (!byOffset.containsKey(dataOffset)) {
+          byte[] name = name(database.decode(dataOffset), field, locale);
+          byOffset.putIfAbsent(dataOffset, name == null ? NO_NAME : name);
+        }
+      }
+
+      @Override
+      public void ipv4Alias(long hi, long lo, int prefixLength) {
+      }
+    };
+    database.walkIpv4InParallel(() -> visitor);
+    database.walkIpv6InParallel(() -> visitor);
+
+    int[] offsets = new int[byOffset.size()];
+    int count = 0;
+    for (Map.Entry<Integer, byte[]> entry : byOffset.entrySet()) {
+      if (entry.getValue() != NO_NAME) {
+        offsets[count++] = entry.getKey();
+      }
+    }
+    offsets = Arrays.copyOf(offsets, count);
+    Arrays.sort(offsets);
+    byte[][] names = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      names[i] = byOffset.get(offsets[i]);
+    }
+    return new GeoIPNameTable(lookup, offsets, names);
+  }
+
+  // Each network of the raw database gives the name of the snapshot row its first address falls in. Rows
+  // hold the columns of a record, so networks of the same row share their names.
+  private static GeoIPNameTable build(GeoIPLookup lookup, GeoIPSnapshot snapshot, MaxMindDbFile database,
+                                      String field, String locale) {
+    byte[][] names = new byte[snapshot.getRecordCount()][];
+    Map<Integer, byte[]> byOffset = new ConcurrentHashMap<>();
+    class RowNames implements MaxMindDbFile.NetworkVisitor {
+      private final boolean ipv4;
+
+      RowNames(boolean ipv4) {
+        this.ipv4 = ipv4;
+      }
+
+      @Override
+      public void network(long hi, long lo, int prefixLength, int dataOffset) {
+        int row = ipv4 ? snapshot.lookupIpv4((int) lo) : snapshot.lookupIpv6(hi, lo);
+        if (row >= 0 && names[row] == null) {
+          byte[] name = byOffset.computeIfAbsent(dataOffset, offset -> {
+            byte[] decoded = name(database.decode(offset), field, locale);
+            return decoded == null ? NO_NAME : decoded;
+          });
+          names[row] = name;
+        }
+      }
+
+      @Override
+      public void ipv4Alias(long hi, long lo, int prefixLength) {
+      }
+    }
+    database.walkIpv4InParallel(() -> new RowNames(true));
+    database.walkIpv6InParallel(() -> new RowNames(false));
+
+    for (int row = 0; row < names.length; row++) {
+      if (names[row] == NO_NAME) {
+        names[row] = null;
+      }
+    }
+    return new GeoIPNameTable(lookup, null, names);
+  }
+
+  private static byte[] name(Object record, String field, String locale) {
+    if (!(record instanceof Map)) {
+      return null;
+    }
+    Object value = ((Map<?, ?>) record).get(field);
+    if (!(value instanceof Map)) {
+      return null;
+    }
+    Object names = ((Map<?, ?>) value).get("names");
+    if (!(names instanceof Map)) {
+      return null;
+    }
+    Object name = ((Map<?, ?>) names).get(locale);
+    if (name == null) {
+      name = ((Map<?, ?>) names).get(DEFAULT_LOCALE);
+    }
+    return name == null ? null : name.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the record for the address written as text in the given bytes, -1 if there is none.
+   */
+  public int find(DrillBuf buffer, int start, int end) {
+    return lookup.find(buffer, start, end);
+  }
+
+  /**
+   * Writes the name of a record, or the given default if it has none, and returns the buffer holding
+   * it, which replaces the function's buffer if it had to grow.
+   */
+  public DrillBuf write(int record, String missing, VarCharHolder out, DrillBuf buffer) {
+    byte[] name = null;
+    if (record >= 0) {
+      int index = offsets == null ? record : Arrays.binarySearch(offsets, record);
+      name = index < 0 ? null : names[index];
+    }
+    return GeoIPLookup.write(name == null ? missing.getBytes(StandardCharsets.UTF_8) : name, out, buffer);
+  }
+
+  public long getSize() {
+    long size = offsets == null ? names.length * 8L : offsets.length * 4L;
+    for (byte[] name : names) {
+      size += name == null ? 0 : name.length + 16;
+    }
+    return size;
+  }
+}
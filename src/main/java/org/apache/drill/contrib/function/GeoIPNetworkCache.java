@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+/**
+ * Caches the results of the search tree by network instead of by address. IPv6 clients and scanners
+ * rarely repeat an address, but their addresses fall into a few networks, and every address of a network
+ * has the same record. A lookup answers from a cached network that contains the address, without
+ * walking the tree.
+ *
+ * <p>The cache is set associative. Addresses pick their set by their first 24 bits for IPv4 and 48 bits
+ * for IPv6, so all addresses of a network at least that long share a set, and shorter networks are
+ * cached once per such block. Entries are immutable and the arrays are written without locking: a
+ * reader sees either a complete entry or none, and a lost write only costs a later miss.</p>
+ */
+public class GeoIPNetworkCache {
+
+  /**
+   * Returned by the lookups when no cached network contains the address.
+   */
+  public static final int MISS = Integer.MIN_VALUE;
+
+  // Leading bits of an address that pick its set
+  static final int IPV4_BLOCK_BITS = 24;
+  static final int IPV6_BLOCK_BITS = 48;
+
+  private static final int WAYS = 4;
+  private static final int IPV4_SET_SHIFT = 32 - IPV4_BLOCK_BITS;
+  private static final int IPV6_SET_SHIFT = 64 - IPV6_BLOCK_BITS;
+
+  private final Network[] ipv4;
+  private final Network[] ipv6;
+  private final int setMask;
+
+  /**
+   * Creates a cache of the given number of sets per address family, rounded up to a power of two.
+   */
+  public GeoIPNetworkCache(int sets) {
+    int size = Integer.highestOneBit(Math.max(1, sets - 1)) << 1;
+    this.ipv4 = new Network[size * WAYS];
+    this.ipv6 = new Network[size * WAYS];
+    this.setMask = size - 1;
+  }
+
+  /**
+   * Returns the data offset cached for an IPv4 address, -1 if its network is not in the database, or
+   * {@link #MISS}.
+   */
+  public int findIpv4(int address) {
+    int base = set(address >>> IPV4_SET_SHIFT);
+    for (int i = base; i < base + WAYS; i++) {
+      Network network = ipv4[i];
+      if (network != null && (address & ipv4Mask(network.prefixLength)) == network.lo) {
+        return network.record;
+      }
+    }
+    return MISS;
+  }
+
+  public int findIpv6(long hi, long lo) {
+    int base = set(hi >>> IPV6_SET_SHIFT);
+    for (int i = base; i < base + WAYS; i++) {
+      Network network = ipv6[i];
+      if (network != null && GeoIPSnapshot.matches(hi, lo, network.hi, network.lo, network.prefixLength)) {
+        return network.record;
+      }
+    }
+    return MISS;
+  }
+
+  /**
+   * Caches the record of the IPv4 network of the given prefix length that holds the address.
+   */
+  public void putIpv4(int address, int prefixLength, int record) {
+    insert(ipv4, set(address >>> IPV4_SET_SHIFT), new Network(0, address & ipv4Mask(prefixLength), prefixLength, record));
+  }
+
+  public void putIpv6(long hi, long lo, int prefixLength, int record) {
+    long hiMask = prefixLength == 0 ? 0 : prefixLength >= 64 ? -1L : -1L << (64 - prefixLength);
+    long loMask = prefixLength <= 64 ? 0 : -1L << (128 - prefixLength);
+    insert(ipv6, set(hi >>> IPV6_SET_SHIFT), new Network(hi & hiMask, lo & loMask, prefixLength, record));
+  }
+
+  /**
+   * Returns the approximate heap footprint of the cache when full.
+   */
+  public long getSize() {
+    return (ipv4.length + ipv6.length) * 48L;
+  }
+
+  // The newest entry goes first and the oldest one of the set is dropped
+  private static void insert(Network[] entries, int base, Network network) {
+    for (int i = base + WAYS - 1; i > base; i--) {
+      entries[i] = entries[i - 1];
+    }
+    entries[base] = network;
+  }
+
+  private int set(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return ((int) (h >>> 32) & setMask) * WAYS;
+  }
+
+  private static int ipv4Mask(int prefixLength) {
+    return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+  }
+
+  private static final class Network {
+    private final long hi;
+    private final long lo;
+    private final int prefixLength;
+    private final int record;
+
+    Network(long hi, long lo, int prefixLength, int record) {
+      this.hi = hi;
+      this.lo = lo;
+      this.prefixLength = prefixLength;
+      this.record = record;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import java.util.Arrays;
+
+/**
+ * A membership prefilter over the networks of a sparse database such as Anonymous-IP, where most
+ * addresses are not in the database at all. IPv4 is covered by a bitmap with one bit per /24 and IPv6
+ * by sorted, merged ranges over the upper 64 bits of the address. A negative answer is exact, a positive
+ * one only means the database has to be consulted.
+ */
+public class GeoIPNetworkFilter {
+
+  private static final int IPV4_BLOCK_SHIFT = 8;
+
+  private final long[] ipv4Blocks;
+  private final long[] ipv6Starts;
+  private final long[] ipv6Ends;
+  private final long[] aliasHi;
+  private final long[] aliasLo;
+  private final int[] aliasPrefix;
+
+  private GeoIPNetworkFilter(long[] ipv4Blocks, long[] ipv6Starts, long[] ipv6Ends,
+                             long[] aliasHi, long[] aliasLo, int[] aliasPrefix) {
+    this.ipv4Blocks = ipv4Blocks;
+    this.ipv6Starts = ipv6Starts;
+    this.ipv6Ends = ipv6Ends;
+    this.aliasHi = aliasHi;
+    this.aliasLo = aliasLo;
+    this.aliasPrefix = aliasPrefix;
+  }
+
+  /**
+   * Builds the filter from every network that has a record in the database, walking its subtrees in
+   * parallel. The IPv4 subtrees set their bits in the same bitmap: they are /10 networks or larger, so
+   * they cover whole words of the bitmap and no two of them write to the same word.
+   */
+  public static GeoIPNetworkFilter build(MaxMindDbFile database) {
+    long[] ipv4Blocks = new long[(1 << (32 - IPV4_BLOCK_SHIFT)) / 64];
+    MaxMindDbFile.NetworkVisitor ipv4 = new MaxMindDbFile.NetworkVisitor() {
+      @Override
+      public void network(long hi, long lo, int prefixLength, int dataOffset) {
+        int first = (int) (lo >>> IPV4_BLOCK_SHIFT);
+        int count = prefixLength >= 32 - IPV4_BLOCK_SHIFT ? 1 : 1 << (32 - IPV4_BLOCK_SHIFT - prefixLength);
+        for (int block = first; block < first + count; block++) {
+          ipv4Blocks[block >>> 6] |= 1L << block;
+        }
+      }
+
+      @Override
+      public void ipv4Alias(long hi, long lo, int prefixLength) {
+      }
+    };
+    database.walkIpv4InParallel(() -> ipv4);
+
+    Ipv6Ranges ipv6 = new Ipv6Ranges();
+    for (Ipv6Ranges subtree : database.walkIpv6InParallel(Ipv6Ranges::new)) {
+      ipv6.addAll(subtree);
+    }
+    return new GeoIPNetworkFilter(ipv4Blocks, ipv6.keys(ipv6.starts), ipv6.keys(ipv6.ends),
+      Arrays.copyOf(ipv6.aliasHi, ipv6.aliasCount), Arrays.copyOf(ipv6.aliasLo, ipv6.aliasCount),
+      Arrays.copyOf(ipv6.aliasPrefix, ipv6.aliasCount));
+  }
+
+  /**
+   * Returns false if no network in the database contains the address.
+   */
+  public boolean mightContain(byte[] address) {
+    if (address.length == 4) {
+      return mightContainIpv4(GeoIPSnapshot.toInt(address, 0));
+    }
+    return mightContainIpv6(GeoIPSnapshot.toLong(address, 0), GeoIPSnapshot.toLong(address, 8));
+  }
+
+  public boolean mightContainIpv4(int address) {
+    int block = address >>> IPV4_BLOCK_SHIFT;
+    return (ipv4Blocks[block >>> 6] & (1L << block)) != 0;
+  }
+
+  public boolean mightContainIpv6(long hi, long lo) {
+    for (int i = 0; i < aliasPrefix.length; i++) {
+      if (GeoIPSnapshot.matches(hi, lo, aliasHi[i], aliasLo[i], aliasPrefix[i])) {
+        return mightContainIpv4(GeoIPSnapshot.embeddedIpv4(hi, lo, aliasPrefix[i]));
+      }
+    }
+
+    long key = hi ^ Long.MIN_VALUE;
+    int low = 0;
+    int high = ipv6Starts.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (ipv6Starts[mid] <= key) {
+        if (key <= ipv6Ends[mid]) {
+          return true;
+        }
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the approximate heap footprint of the filter.
+   */
+  public long getSize() {
+    return ipv4Blocks.length * 8L + ipv6Starts.length * 16L;
+  }
+
+  /**
+   * Collects the upper 64 bits of the IPv6 networks as merged ranges. The walk visits networks in
+   * address order, so a network only has to be merged with the range before it.
+   */
+  private static class Ipv6Ranges implements MaxMindDbFile.NetworkVisitor {
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+    private int count;
+    private long[] aliasHi = new long[4];
+    private long[] aliasLo = new long[4];
+    private int[] aliasPrefix = new int[4];
+    private int aliasCount;
+
+    @Override
+    public void network(long hi, long lo, int prefixLength, int dataOffset) {
+      add(hi, prefixLength >= 64 ? hi : hi | (-1L >>> prefixLength));
+    }
+
+    private void add(long hi, long end) {
+      if (count > 0 && ends[count - 1] != -1L && Long.compareUnsigned(hi, ends[count - 1] + 1) <= 0) {
+        if (Long.compareUnsigned(end, ends[count - 1]) > 0) {
+          ends[count - 1] = end;
+        }
+        return;
+      }
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+        ends = Arrays.copyOf(ends, count * 2);
+      }
+      starts[count] = hi;
+      ends[count] = end;
+      count++;
+    }
+
+    @Override
+    public void ipv4Alias(long hi, long lo, int prefixLength) {
+      if (aliasCount == aliasPrefix.length) {
+        aliasHi = Arrays.copyOf(aliasHi, aliasCount * 2);
+        aliasLo = Arrays.copyOf(aliasLo, aliasCount * 2);
+        aliasPrefix = Arrays.copyOf(aliasPrefix, aliasCount * 2);
+      }
+      aliasHi[aliasCount] = hi;
+      aliasLo[aliasCount] = lo;
+      aliasPrefix[aliasCount] = prefixLength;
+      aliasCount++;
+    }
+
+    // Appends the ranges of the next subtree in address order
+    void addAll(Ipv6Ranges subtree) {
+      for (int i = 0; i < subtree.count; i++) {
+        add(subtree.starts[i], subtree.ends[i]);
+      }
+      for (int i = 0; i < subtree.aliasCount; i++) {
+        ipv4Alias(subtree.aliasHi[i], subtree.aliasLo[i], subtree.aliasPrefix[i]);
+      }
+    }
+
+    // Flipping the sign bit lets the lookup compare unsigned values with plain long comparisons
+    long[] keys(long[] values) {
+      long[] keys = new long[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = values[i] ^ Long.MIN_VALUE;
+      }
+      return keys;
+    }
+  }
+}
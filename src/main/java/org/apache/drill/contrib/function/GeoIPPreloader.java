@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import com.codahale.metrics.Gauge;
+import org.apache.drill.common.config.DrillConfig;
+import org.apache.drill.common.expression.FunctionCall;
+import org.apache.drill.exec.expr.fn.AbstractFuncHolder;
+import org.apache.drill.exec.expr.fn.PluggableFunctionRegistry;
+import org.apache.drill.exec.metrics.DrillMetrics;
+import org.apache.drill.exec.planner.sql.DrillOperatorTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Loads the databases listed in {@code drill.geoip.preload.databases} when the drillbit starts, so that
+ * the first queries after a restart do not load them in the functions' {@code setup()}. Drill creates
+ * every {@link PluggableFunctionRegistry} on the classpath while it builds its function registry, before
+ * the drillbit registers with ZooKeeper, which makes this class a startup hook; it adds no functions.
+ *
+ * <p>With {@code blocking} set, the drillbit joins the cluster only once the databases are loaded, paged
+ * in and warmed up, so no query is planned on it earlier. Otherwise they are loaded in the background.
+ * Either way the {@code drill.geoip.preload.ready} metric turns to 1 when the databases are hot, for load
+ * balancers that check the drillbit's metrics. The databases and Drill's metrics are shared by the drillbits of
+ * a JVM, such as those of a test cluster, so the metric is 1 once every preloader created in the JVM is done
+ * and {@code drill.geoip.preload.millis} is the longest of them.</p>
+ */
+public class GeoIPPreloader implements PluggableFunctionRegistry {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPPreloader.class);
+
+  public static final String DATABASES = "drill.geoip.preload.databases";
+  public static final String SERVICES = "drill.geoip.preload.services";
+  public static final String PAGE_IN = "drill.geoip.preload.page.in";
+  public static final String WARMUP_ADDRESSES = "drill.geoip.preload.warmup.addresses";
+  public static final String BLOCKING = "drill.geoip.preload.blocking";
+
+  private static final String METRIC_PREFIX = "drill.geoip.preload.";
+
+  private static final List<GeoIPPreloader> preloaders = new CopyOnWriteArrayList<>();
+
+  private static boolean metricsRegistered;
+
+  private volatile boolean ready;
+  private volatile long preloadMillis = -1;
+
+  public GeoIPPreloader(DrillConfig config) {
+    List<String> databases = config.hasPath(DATABASES) ? config.getStringList(DATABASES) : Collections.emptyList();
+    boolean services = config.hasPath(SERVICES) && config.getBoolean(SERVICES);
+    preloaders.add(this);
+    registerMetrics();
+    if (databases.isEmpty() && !services) {
+      preloadMillis = 0;
+      ready = true;
+      return;
+    }
+
+    boolean pageIn = !config.hasPath(PAGE_IN) || config.getBoolean(PAGE_IN);
+    int warmupAddresses = config.hasPath(WARMUP_ADDRESSES) ? config.getInt(WARMUP_ADDRESSES) : 0;
+    Runnable preload = () -> preload(databases, services, pageIn, warmupAddresses);
+    if (!config.hasPath(BLOCKING) || config.getBoolean(BLOCKING)) {
+      preload.run();
+    } else {
+      Thread thread = new Thread(preload, "geoip-preload");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Returns true once the databases configured for this drillbit are loaded and warmed up.
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  private static synchronized void registerMetrics() {
+    if (metricsRegistered) {
+      return;
+    }
+    DrillMetrics.register(METRIC_PREFIX + "ready",
+      (Gauge<Integer>) () -> preloaders.stream().allMatch(GeoIPPreloader::isReady) ? 1 : 0);
+    DrillMetrics.register(METRIC_PREFIX + "millis", (Gauge<Long>) () -> {
+      long millis = 0;
+      for (GeoIPPreloader preloader : preloaders) {
+        if (!preloader.ready) {
+          return -1L;
+        }
+        millis = Math.max(millis, preloader.preloadMillis);
+      }
+      return millis;
+    });
+    metricsRegistered = true;
+  }
+
+  private void preload(List<String> databases, boolean services, boolean pageIn, int warmupAddresses) {
+    long start = System.nanoTime();
+    List<byte[]> addresses = warmupAddresses(warmupAddresses);
+    for (String database : databases) {
+      try {
+        long databaseStart = System.nanoTime();
+        GeoIPLookup lookup = GeoIPLookup.forDatabase(database);
+        long pagedIn = pageIn ? lookup.pageIn() : 0;
+        for (byte[] address : addresses) {
+          lookup.warm(address);
+        }
+        logger.info("Preloaded GeoIP database {} in {} ms, {} bytes paged in, {} warm-up lookups", database,
+          (System.nanoTime() - databaseStart) / 1_000_000, pagedIn, addresses.size());
+      } catch (RuntimeException e) {
+        // The functions will report the problem when a query uses the database
+        logger.warn("Could not preload GeoIP database {}", database, e);
+      }
+    }
+    if (services) {
+      try {
+        SecurityHelperFunctions.getServiceNameIndex();
+        SecurityHelperFunctions.getServicePortTable();
+      } catch (RuntimeException e) {
+        logger.warn("Could not preload the service registry", e);
+      }
+    }
+    preloadMillis = (System.nanoTime() - start) / 1_000_000;
+    ready = true;
+    logger.info("GeoIP databases ready in {} ms", preloadMillis);
+  }
+
+  // Reproducible random public addresses, a fifth of them IPv6
+  private static List<byte[]> warmupAddresses(int count) {
+    List<byte[]> addresses = new ArrayList<>(count);
+    Random random = new Random(42);
+    for (int i = 0; i < count; i++) {
+      byte[] address = new byte[i % 5 == 0 ? 16 : 4];
+      random.nextBytes(address);
+      if (address.length == 16) {
+        // Global unicast, 2000::/3
+        address[0] = (byte) (0x20 | (address[0] & 0x1F));
+      } else {
+        // Stay out of 0/8, 10/8, 127/8 and the multicast and reserved ranges
+        int first;
+        do {
+          first = 1 + random.nextInt(223);
+        } while (first == 10 || first == 127);
+        address[0] = (byte) first;
+      }
+      addresses.add(address);
+    }
+    return addresses;
+  }
+
+  // Drill has no startup hook for UDF jars. Function registries are the only classes it finds on the classpath
+  // and creates by itself while the drillbit starts, before it registers with ZooKeeper; a storage plugin would
+  // need a config added by an administrator. So this registry adds no functions.
+  @Override
+  public void register(DrillOperatorTable operatorTable) {
+  }
+
+  @Override
+  public AbstractFuncHolder getFunction(FunctionCall functionCall) {
+    return null;
+  }
+}
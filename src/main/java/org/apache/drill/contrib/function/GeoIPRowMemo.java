@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+
+/**
+ * Remembers the last address a thread looked up in one database, with its record and, for raw databases,
+ * the decoded record. Drill evaluates all expressions of a projection for a row before the next row, on
+ * the thread running the fragment, so when {@code getCityName(ip)}, {@code getLatitudeFromIP(ip)} and
+ * {@code getTimezoneFromIP(ip)} read the same column only the first of them parses and looks up the
+ * address. The others compare its bytes and read the remembered record.
+ *
+ * <p>A memo belongs to one thread through its {@link GeoIPLookup}, so it is not synchronized. It is keyed
+ * by the text itself, never by its position in a buffer, so a thread moving to another fragment cannot
+ * read a stale record.</p>
+ */
+public class GeoIPRowMemo {
+
+  // IPv6 text is at most 45 bytes, longer values are looked up without being remembered
+  private static final int MAX_KEY_LENGTH = 45;
+
+  private final byte[] key = new byte[MAX_KEY_LENGTH];
+  private int keyLength = -1;
+  private int record;
+  private int decodedRecord = GeoIPLookup.NOT_FOUND;
+  private Object decoded;
+
+  /**
+   * Returns the remembered record if the given bytes hold the last address, {@link GeoIPNetworkCache#MISS}
+   * otherwise.
+   */
+  public int find(DrillBuf buffer, int start, int end) {
+    int length = end - start;
+    if (length != keyLength) {
+      return GeoIPNetworkCache.MISS;
+    }
+    for (int i = 0; i < length; i++) {
+      if (key[i] != buffer.getByte(start + i)) {
+        return GeoIPNetworkCache.MISS;
+      }
+    }
+    return record;
+  }
+
+  public void put(DrillBuf buffer, int start, int end, int record) {
+    int length = end - start;
+    if (length > MAX_KEY_LENGTH) {
+      keyLength = -1;
+      return;
+    }
+    buffer.getBytes(start, key, 0, length);
+    keyLength = length;
+    this.record = record;
+  }
+
+  /**
+   * Returns the decoded record if it is the last one decoded, null otherwise.
+   */
+  public Object getDecoded(int record) {
+    return record == decodedRecord ? decoded : null;
+  }
+
+  public void putDecoded(int record, Object decoded) {
+    this.decodedRecord = record;
+    this.decoded = decoded;
+  }
+}
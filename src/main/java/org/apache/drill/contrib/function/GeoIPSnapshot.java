@@ -0,0 +1,382 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compiled, columnar copy of a MaxMind database produced by {@link GeoIPSnapshotCompiler}.
+ *
+ * <p>The address space is stored as sorted range starts, each mapped to a record number (or -1 for
+ * addresses that are not in the database). Records are stored column by column as 32 bit values:
+ * strings are ids in a dictionary of UTF-8 bytes and coordinates are fixed point numbers with four
+ * decimal digits, which is the precision MaxMind publishes. The whole file is read through views over a
+ * single buffer, so loading a memory mapped snapshot costs a header read and a lookup is two binary
+ * searches over primitive arrays.</p>
+ */
+public class GeoIPSnapshot {
+
+  static final long MAGIC = 0x50414E534F454744L; // "DGEOSNAP" read little endian
+  static final int FORMAT_VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int NOT_FOUND = -1;
+  static final int MISSING_COORDINATE = Integer.MIN_VALUE;
+  static final double COORDINATE_SCALE = 10000.0;
+
+  public enum Kind {
+    COUNTRY, CITY, ASN
+  }
+
+  public enum Column {
+    COUNTRY_ISO_CODE(true),
+    COUNTRY_NAME(true),
+    COUNTRY_CONFIDENCE(false),
+    IS_IN_EUROPEAN_UNION(false),
+    CITY_NAME(true),
+    CITY_CONFIDENCE(false),
+    LATITUDE(false),
+    LONGITUDE(false),
+    ACCURACY_RADIUS(false),
+    TIME_ZONE(true),
+    METRO_CODE(false),
+    AVERAGE_INCOME(false),
+    POPULATION_DENSITY(false),
+    POSTAL_CODE(true),
+    ASN(false),
+    ASN_ORGANIZATION(true),
+    IS_ANONYMOUS(false),
+    IS_ANONYMOUS_VPN(false),
+    IS_HOSTING_PROVIDER(false),
+    IS_PUBLIC_PROXY(false),
+    IS_TOR_EXIT_NODE(false);
+
+    private final boolean string;
+
+    Column(boolean string) {
+      this.string = string;
+    }
+
+    public boolean isString() {
+      return string;
+    }
+  }
+
+  private final ByteBuffer buffer;
+  private final Kind kind;
+  private final long buildEpoch;
+  private final IntBuffer v4Starts;
+  private final IntBuffer v4Records;
+  private final LongBuffer v6StartsHi;
+  private final LongBuffer v6StartsLo;
+  private final IntBuffer v6Records;
+  private final long[] aliasHi;
+  private final long[] aliasLo;
+  private final int[] aliasPrefix;
+  private final IntBuffer[] columns;
+  private final int recordCount;
+  private final IntBuffer dictionaryOffsets;
+  private final ByteBuffer dictionary;
+  private final String[] strings;
+  private int pageSum;
+
+  public GeoIPSnapshot(ByteBuffer source) throws IOException {
+    this.buffer = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.capacity() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+      throw new IOException("Not a GeoIP snapshot file.");
+    }
+    if (buffer.getInt(8) != FORMAT_VERSION) {
+      throw new IOException("Unsupported GeoIP snapshot version " + buffer.getInt(8));
+    }
+    this.kind = Kind.values()[buffer.getInt(12)];
+    this.buildEpoch = buffer.getLong(16);
+    int v4Count = buffer.getInt(24);
+    int v6Count = buffer.getInt(28);
+    int aliasCount = buffer.getInt(32);
+    this.recordCount = buffer.getInt(36);
+    int dictionaryCount = buffer.getInt(40);
+    int dictionaryBytes = buffer.getInt(44);
+    int columnMask = buffer.getInt(48);
+
+    int position = HEADER_SIZE;
+    this.v4Starts = intView(position, v4Count);
+    position = align(position + v4Count * 4);
+    this.v4Records = intView(position, v4Count);
+    position = align(position + v4Count * 4);
+    this.v6StartsHi = longView(position, v6Count);
+    position += v6Count * 8;
+    this.v6StartsLo = longView(position, v6Count);
+    position += v6Count * 8;
+    this.v6Records = intView(position, v6Count);
+    position = align(position + v6Count * 4);
+
+    // Aliases are a handful of prefixes, copy them to the heap for the linear scan
+    this.aliasHi = new long[aliasCount];
+    this.aliasLo = new long[aliasCount];
+    this.aliasPrefix = new int[aliasCount];
+    for (int i = 0; i < aliasCount; i++) {
+      aliasHi[i] = buffer.getLong(position + i * 8);
+      aliasLo[i] = buffer.getLong(position + (aliasCount + i) * 8);
+      aliasPrefix[i] = buffer.getInt(position + aliasCount * 16 + i * 4);
+    }
+    position = align(position + aliasCount * 20);
+
+    this.columns = new IntBuffer[Column.values().length];
+    for (Column column : Column.values()) {
+      if ((columnMask & (1 << column.ordinal())) != 0) {
+        columns[column.ordinal()] = intView(position, recordCount);
+        position = align(position + recordCount * 4);
+      }
+    }
+
+    this.dictionaryOffsets = intView(position, dictionaryCount + 1);
+    position = align(position + (dictionaryCount + 1) * 4);
+    this.dictionary = slice(position, dictionaryBytes);
+    this.strings = new String[dictionaryCount];
+  }
+
+  public static GeoIPSnapshot open(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+         FileChannel channel = raf.getChannel()) {
+      return new GeoIPSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Loads a snapshot that cannot be mapped, such as a classpath resource inside a jar, into direct memory.
+   */
+  public static GeoIPSnapshot read(InputStream in) throws IOException {
+    byte[] bytes = in.readAllBytes();
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    return new GeoIPSnapshot(direct);
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public long getBuildEpoch() {
+    return buildEpoch;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Returns the number of distinct strings in the dictionary, the upper bound of the string ids.
+   */
+  public int getStringCount() {
+    return strings.length;
+  }
+
+  public long getSize() {
+    return buffer.capacity();
+  }
+
+  /**
+   * Touches one byte of every page of the snapshot and returns the number of bytes covered.
+   */
+  public long pageIn() {
+    int sum = 0;
+    for (int position = 0; position < buffer.capacity(); position += 4096) {
+      sum += buffer.get(position);
+    }
+    // Stored so that the reads cannot be optimized away
+    pageSum = sum;
+    return buffer.capacity();
+  }
+
+  public boolean hasColumn(Column column) {
+    return columns[column.ordinal()] != null;
+  }
+
+  /**
+   * Returns the record number for an address, or -1 if the address is not in the database.
+   */
+  public int lookup(InetAddress address) {
+    byte[] bytes = address.getAddress();
+    if (bytes.length == 4) {
+      return lookupIpv4(toInt(bytes, 0));
+    }
+    return lookupIpv6(toLong(bytes, 0), toLong(bytes, 8));
+  }
+
+  public int lookupIpv4(int address) {
+    int index = floor(v4Starts, address ^ Integer.MIN_VALUE);
+    return index < 0 ? NOT_FOUND : v4Records.get(index);
+  }
+
+  public int lookupIpv6(long hi, long lo) {
+    for (int i = 0; i < aliasPrefix.length; i++) {
+      int prefix = aliasPrefix[i];
+      if (matches(hi, lo, aliasHi[i], aliasLo[i], prefix)) {
+        return lookupIpv4(embeddedIpv4(hi, lo, prefix));
+      }
+    }
+
+    long keyHi = hi ^ Long.MIN_VALUE;
+    long keyLo = lo ^ Long.MIN_VALUE;
+    int low = 0;
+    int high = v6StartsHi.limit() - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midHi = v6StartsHi.get(mid);
+      if (midHi < keyHi || (midHi == keyHi && v6StartsLo.get(mid) <= keyLo)) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found < 0 ? NOT_FOUND : v6Records.get(found);
+  }
+
+  public int getInt(Column column, int record) {
+    IntBuffer values = columns[column.ordinal()];
+    if (record < 0 || values == null) {
+      return 0;
+    }
+    return values.get(record);
+  }
+
+  public long getUnsignedInt(Column column, int record) {
+    return getInt(column, record) & 0xFFFFFFFFL;
+  }
+
+  public double getCoordinate(Column column, int record) {
+    IntBuffer values = columns[column.ordinal()];
+    if (record < 0 || values == null) {
+      return 0.0;
+    }
+    int value = values.get(record);
+    return value == MISSING_COORDINATE ? 0.0 : value / COORDINATE_SCALE;
+  }
+
+  /**
+   * Returns the dictionary id of a string column, -1 if the value is missing.
+   */
+  public int getStringId(Column column, int record) {
+    IntBuffer values = columns[column.ordinal()];
+    if (record < 0 || values == null) {
+      return NOT_FOUND;
+    }
+    return values.get(record);
+  }
+
+  public String getString(Column column, int record) {
+    int id = getStringId(column, record);
+    if (id < 0) {
+      return null;
+    }
+    String value = strings[id];
+    if (value == null) {
+      value = new String(getUtf8(id), StandardCharsets.UTF_8);
+      // Strings are immutable, so a racy publication just decodes the same value twice
+      strings[id] = value;
+    }
+    return value;
+  }
+
+  /**
+   * Returns a copy of the UTF-8 bytes of a dictionary string.
+   */
+  public byte[] getUtf8(int id) {
+    byte[] bytes = new byte[dictionaryOffsets.get(id + 1) - dictionaryOffsets.get(id)];
+    ByteBuffer view = dictionary.duplicate();
+    view.position(dictionaryOffsets.get(id));
+    view.get(bytes);
+    return bytes;
+  }
+
+  static boolean matches(long hi, long lo, long prefixHi, long prefixLo, int prefixLength) {
+    if (prefixLength <= 64) {
+      long mask = prefixLength == 0 ? 0 : -1L << (64 - prefixLength);
+      return (hi & mask) == prefixHi;
+    }
+    long mask = -1L << (128 - prefixLength);
+    return hi == prefixHi && (lo & mask) == prefixLo;
+  }
+
+  static int embeddedIpv4(long hi, long lo, int prefixLength) {
+    // The IPv4 address is stored in the 32 bits following the alias prefix
+    int shift = 128 - prefixLength - 32;
+    if (shift >= 64) {
+      return (int) (hi >>> (shift - 64));
+    } else if (shift <= 32) {
+      return (int) (lo >>> shift);
+    }
+    return (int) ((hi << (64 - shift)) | (lo >>> shift));
+  }
+
+  static int toInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+      | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+
+  static long toLong(byte[] bytes, int offset) {
+    return ((long) toInt(bytes, offset) << 32) | (toInt(bytes, offset + 4) & 0xFFFFFFFFL);
+  }
+
+  static int align(int position) {
+    return (position + 7) & ~7;
+  }
+
+  private static int floor(IntBuffer starts, int key) {
+    int low = 0;
+    int high = starts.limit() - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (starts.get(mid) <= key) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  private ByteBuffer slice(int position, int length) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(position);
+    view.limit(position + length);
+    return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private IntBuffer intView(int position, int count) {
+    return slice(position, count * 4).asIntBuffer();
+  }
+
+  private LongBuffer longView(int position, int count) {
+    return slice(position, count * 8).asLongBuffer();
+  }
+}
@@ -0,0 +1,552 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.apache.drill.contrib.function.GeoIPSnapshot.Column;
+import org.apache.drill.contrib.function.GeoIPSnapshot.Kind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts a MaxMind City, Country or ASN database into the snapshot format read by {@link GeoIPSnapshot}.
+ *
+ * <pre>
+ *   java -cp drill-geoip-functions.jar:$DRILL_HOME/jars/* \
+ *     org.apache.drill.contrib.function.GeoIPSnapshotCompiler GeoLite2-City.mmdb [GeoLite2-City.geosnap]
+ * </pre>
+ */
+public class GeoIPSnapshotCompiler {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPSnapshotCompiler.class);
+
+  public static final String SNAPSHOT_EXTENSION = ".geosnap";
+
+  private static final Set<Column> COUNTRY_COLUMNS = EnumSet.of(Column.COUNTRY_ISO_CODE, Column.COUNTRY_NAME,
+    Column.COUNTRY_CONFIDENCE, Column.IS_IN_EUROPEAN_UNION);
+
+  private static final Set<Column> CITY_COLUMNS = EnumSet.range(Column.COUNTRY_ISO_CODE, Column.POSTAL_CODE);
+
+  private static final Set<Column> ASN_COLUMNS = EnumSet.of(Column.ASN, Column.ASN_ORGANIZATION);
+
+  private static final Set<Column> ANONYMOUS_IP_COLUMNS = EnumSet.range(Column.IS_ANONYMOUS, Column.IS_TOR_EXIT_NODE);
+
+  // Marks the IPv4 aliases among the networks collected from a subtree
+  private static final int ALIAS = -2;
+
+  private final MaxMindDbFile database;
+  private final Kind kind;
+  private final Set<Column> columns;
+
+  private final IntList v4Starts = new IntList();
+  private final IntList v4Records = new IntList();
+  private final LongList v6StartsHi = new LongList();
+  private final LongList v6StartsLo = new LongList();
+  private final IntList v6Records = new IntList();
+  private final LongList aliasHi = new LongList();
+  private final LongList aliasLo = new LongList();
+  private final IntList aliasPrefix = new IntList();
+
+  private final Map<Integer, Object[]> extractedRecords = new ConcurrentHashMap<>();
+  private final Map<Integer, Integer> recordsByOffset = new HashMap<>();
+  private final Map<Column, IntList> values = new EnumMap<>(Column.class);
+  private final Map<String, Integer> dictionaryIds = new HashMap<>();
+  private final IntList dictionaryOffsets = new IntList();
+  private final ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+
+  public GeoIPSnapshotCompiler(MaxMindDbFile database) {
+    this.database = database;
+    this.kind = kindOf(database.getDatabaseType());
+    this.columns = columnsOf(kind);
+    for (Column column : columns) {
+      values.put(column, new IntList());
+    }
+    dictionaryOffsets.add(0);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: GeoIPSnapshotCompiler <database.mmdb> [output" + SNAPSHOT_EXTENSION + "]");
+      System.exit(1);
+    }
+    File input = new File(args[0]);
+    File output = new File(args.length == 2 ? args[1] : snapshotName(input.getPath()));
+
+    long start = System.nanoTime();
+    MaxMindDbFile database = MaxMindDbFile.open(input);
+    ByteBuffer snapshot = new GeoIPSnapshotCompiler(database).compile();
+    try (OutputStream out = new FileOutputStream(output)) {
+      out.write(snapshot.array(), 0, snapshot.limit());
+    }
+    logger.info("Compiled {} ({}) into {}: {} bytes in {} ms", input, database.getDatabaseType(), output,
+      snapshot.limit(), (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * Returns the snapshot file name for a MaxMind database, e.g. {@code GeoLite2-City.geosnap} for
+   * {@code GeoLite2-City.mmdb}.
+   */
+  public static String snapshotName(String databaseName) {
+    int dot = databaseName.lastIndexOf('.');
+    String base = dot > databaseName.lastIndexOf(File.separatorChar) ? databaseName.substring(0, dot) : databaseName;
+    return base + SNAPSHOT_EXTENSION;
+  }
+
+  static Kind kindOf(String databaseType) {
+    if (databaseType.contains("City") || databaseType.contains("Enterprise")) {
+      return Kind.CITY;
+    } else if (databaseType.contains("ASN") || databaseType.contains("ISP")) {
+      return Kind.ASN;
+    } else if (databaseType.contains("Country")) {
+      return Kind.COUNTRY;
+    }
+    throw new IllegalArgumentException("Cannot compile a snapshot of a " + databaseType + " database.");
+  }
+
+  static Set<Column> columnsOf(Kind kind) {
+    switch (kind) {
+      case CITY:
+        return CITY_COLUMNS;
+      case ASN:
+        return ASN_COLUMNS;
+      default:
+        return COUNTRY_COLUMNS;
+    }
+  }
+
+  /**
+   * Returns the columns of the records of a database type, including the Anonymous-IP database, which
+   * cannot be compiled.
+   */
+  static Set<Column> columnsOf(String databaseType) {
+    return databaseType.contains("Anonymous") ? ANONYMOUS_IP_COLUMNS : columnsOf(kindOf(databaseType));
+  }
+
+  /**
+   * Builds the snapshot in two passes. Subtrees of the search tree are walked in parallel, collecting
+   * their networks and decoding the columns of their records. The networks are then turned into ranges
+   * in address order on the calling thread, which numbers records and strings as a single walk would,
+   * so the snapshot does not depend on the number of threads.
+   */
+  public ByteBuffer compile() {
+    long start = System.nanoTime();
+    List<SubtreeNetworks> ipv4Subtrees = database.walkIpv4InParallel(SubtreeNetworks::new);
+    List<SubtreeNetworks> ipv6Subtrees = database.walkIpv6InParallel(SubtreeNetworks::new);
+    long walked = System.nanoTime();
+
+    RangeBuilder ipv4 = new RangeBuilder(false);
+    for (SubtreeNetworks subtree : ipv4Subtrees) {
+      subtree.replay(ipv4);
+    }
+    ipv4.finish();
+
+    RangeBuilder ipv6 = new RangeBuilder(true);
+    for (SubtreeNetworks subtree : ipv6Subtrees) {
+      subtree.replay(ipv6);
+    }
+    ipv6.finish();
+
+    ByteBuffer snapshot = write();
+    logger.debug("Compiled {}: {} subtrees walked in {} ms, {} records merged in {} ms", database.getDatabaseType(),
+      ipv4Subtrees.size() + ipv6Subtrees.size(), (walked - start) / 1_000_000, recordsByOffset.size(),
+      (System.nanoTime() - walked) / 1_000_000);
+    return snapshot;
+  }
+
+  private int recordFor(int dataOffset) {
+    Integer record = recordsByOffset.get(dataOffset);
+    if (record == null) {
+      record = recordsByOffset.size();
+      recordsByOffset.put(dataOffset, record);
+      addRecord(extractedRecords.get(dataOffset));
+    }
+    return record;
+  }
+
+  private Object[] extractColumns(Object decoded) {
+    Object[] extracted = new Object[columns.size()];
+    int i = 0;
+    for (Column column : columns) {
+      extracted[i++] = extract(decoded, column);
+    }
+    return extracted;
+  }
+
+  private void addRecord(Object[] extracted) {
+    int i = 0;
+    for (Column column : columns) {
+      Object value = extracted[i++];
+      int encoded;
+      if (column.isString()) {
+        encoded = value == null ? GeoIPSnapshot.NOT_FOUND : stringId(value.toString());
+      } else if (column == Column.LATITUDE || column == Column.LONGITUDE) {
+        encoded = value == null
+          ? GeoIPSnapshot.MISSING_COORDINATE
+          : (int) Math.round(((Number) value).doubleValue() * GeoIPSnapshot.COORDINATE_SCALE);
+      } else if (value instanceof Boolean) {
+        encoded = (Boolean) value ? 1 : 0;
+      } else {
+        encoded = value == null ? 0 : ((Number) value).intValue();
+      }
+      values.get(column).add(encoded);
+    }
+  }
+
+  static Object extract(Object record, Column column) {
+    switch (column) {
+      case COUNTRY_ISO_CODE:
+        return path(record, "country", "iso_code");
+      case COUNTRY_NAME:
+        return path(record, "country", "names", "en");
+      case COUNTRY_CONFIDENCE:
+        return path(record, "country", "confidence");
+      case IS_IN_EUROPEAN_UNION:
+        return path(record, "country", "is_in_european_union");
+      case CITY_NAME:
+        return path(record, "city", "names", "en");
+      case CITY_CONFIDENCE:
+        return path(record, "city", "confidence");
+      case LATITUDE:
+        return path(record, "location", "latitude");
+      case LONGITUDE:
+        return path(record, "location", "longitude");
+      case ACCURACY_RADIUS:
+        return path(record, "location", "accuracy_radius");
+      case TIME_ZONE:
+        return path(record, "location", "time_zone");
+      case METRO_CODE:
+        return path(record, "location", "metro_code");
+      case AVERAGE_INCOME:
+        return path(record, "location", "average_income");
+      case POPULATION_DENSITY:
+        return path(record, "location", "population_density");
+      case POSTAL_CODE:
+        return path(record, "postal", "code");
+      case ASN:
+        return path(record, "autonomous_system_number");
+      case ASN_ORGANIZATION:
+        return path(record, "autonomous_system_organization");
+      case IS_ANONYMOUS:
+        return path(record, "is_anonymous");
+      case IS_ANONYMOUS_VPN:
+        return path(record, "is_anonymous_vpn");
+      case IS_HOSTING_PROVIDER:
+        return path(record, "is_hosting_provider");
+      case IS_PUBLIC_PROXY:
+        return path(record, "is_public_proxy");
+      case IS_TOR_EXIT_NODE:
+        return path(record, "is_tor_exit_node");
+      default:
+        return null;
+    }
+  }
+
+  private static Object path(Object value, String... keys) {
+    for (String key : keys) {
+      if (!(value instanceof Map)) {
+        return null;
+      }
+      value = ((Map<?, ?>) value).get(key);
+    }
+    return value;
+  }
+
+  private int stringId(String value) {
+    Integer id = dictionaryIds.get(value);
+    if (id == null) {
+      id = dictionaryIds.size();
+      dictionaryIds.put(value, id);
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      dictionary.write(bytes, 0, bytes.length);
+      dictionaryOffsets.add(dictionary.size());
+    }
+    return id;
+  }
+
+  private ByteBuffer write() {
+    int v4Count = v4Starts.size();
+    int v6Count = v6StartsHi.size();
+    int aliasCount = aliasPrefix.size();
+    int recordCount = recordsByOffset.size();
+    byte[] dictionaryBytes = dictionary.toByteArray();
+
+    int columnMask = 0;
+    for (Column column : columns) {
+      columnMask |= 1 << column.ordinal();
+    }
+
+    long size = GeoIPSnapshot.HEADER_SIZE
+      + 2L * GeoIPSnapshot.align(v4Count * 4)
+      + GeoIPSnapshot.align(v6Count * 20)
+      + GeoIPSnapshot.align(aliasCount * 20)
+      + (long) columns.size() * GeoIPSnapshot.align(recordCount * 4)
+      + GeoIPSnapshot.align(dictionaryOffsets.size() * 4)
+      + dictionaryBytes.length;
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The snapshot of " + database.getDatabaseType() + " would exceed 2GB.");
+    }
+
+    ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    out.putLong(GeoIPSnapshot.MAGIC)
+      .putInt(GeoIPSnapshot.FORMAT_VERSION)
+      .putInt(kind.ordinal())
+      .putLong(database.getBuildEpoch())
+      .putInt(v4Count)
+      .putInt(v6Count)
+      .putInt(aliasCount)
+      .putInt(recordCount)
+      .putInt(dictionaryIds.size())
+      .putInt(dictionaryBytes.length)
+      .putInt(columnMask);
+    out.position(GeoIPSnapshot.HEADER_SIZE);
+
+    v4Starts.writeTo(out);
+    pad(out);
+    v4Records.writeTo(out);
+    pad(out);
+    v6StartsHi.writeTo(out);
+    v6StartsLo.writeTo(out);
+    v6Records.writeTo(out);
+    pad(out);
+    aliasHi.writeTo(out);
+    aliasLo.writeTo(out);
+    aliasPrefix.writeTo(out);
+    pad(out);
+    for (Column column : Column.values()) {
+      if (columns.contains(column)) {
+        values.get(column).writeTo(out);
+        pad(out);
+      }
+    }
+    dictionaryOffsets.writeTo(out);
+    pad(out);
+    out.put(dictionaryBytes);
+    out.flip();
+    return out;
+  }
+
+  private static void pad(ByteBuffer out) {
+    out.position(GeoIPSnapshot.align(out.position()));
+  }
+
+  /**
+   * Collects the networks of one subtree and decodes the records they point at, once per record for the
+   * whole database.
+   */
+  private class SubtreeNetworks implements MaxMindDbFile.NetworkVisitor {
+    private final LongList his = new LongList(16);
+    private final LongList los = new LongList(16);
+    private final IntList prefixLengths = new IntList(16);
+    private final IntList dataOffsets = new IntList(16);
+
+    @Override
+    public void network(long hi, long lo, int prefixLength, int dataOffset) {
+      add(hi, lo, prefixLength, dataOffset);
+      if (!extractedRecords.containsKey(dataOffset)) {
+        extractedRecords.putIfAbsent(dataOffset, extractColumns(database.decode(dataOffset)));
+      }
+    }
+
+    @Override
+    public void ipv4Alias(long hi, long lo, int prefixLength) {
+      add(hi, lo, prefixLength, ALIAS);
+    }
+
+    private void add(long hi, long lo, int prefixLength, int dataOffset) {
+      his.add(hi);
+      los.add(lo);
+      prefixLengths.add(prefixLength);
+      dataOffsets.add(dataOffset);
+    }
+
+    void replay(MaxMindDbFile.NetworkVisitor visitor) {
+      for (int i = 0; i < dataOffsets.size(); i++) {
+        if (dataOffsets.get(i) == ALIAS) {
+          visitor.ipv4Alias(his.get(i), los.get(i), prefixLengths.get(i));
+        } else {
+          visitor.network(his.get(i), los.get(i), prefixLengths.get(i), dataOffsets.get(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * Turns the networks of a tree walk into contiguous ranges, filling the holes with -1 and merging
+   * neighbouring networks that point at the same record.
+   */
+  private class RangeBuilder implements MaxMindDbFile.NetworkVisitor {
+    private final boolean ipv6;
+    private long nextHi;
+    private long nextLo;
+    private boolean exhausted;
+
+    RangeBuilder(boolean ipv6) {
+      this.ipv6 = ipv6;
+    }
+
+    @Override
+    public void network(long hi, long lo, int prefixLength, int dataOffset) {
+      append(hi, lo, recordFor(dataOffset));
+      advance(hi, lo, prefixLength);
+    }
+
+    @Override
+    public void ipv4Alias(long hi, long lo, int prefixLength) {
+      aliasHi.add(hi);
+      aliasLo.add(lo);
+      aliasPrefix.add(prefixLength);
+      append(hi, lo, GeoIPSnapshot.NOT_FOUND);
+      advance(hi, lo, prefixLength);
+    }
+
+    void finish() {
+      if (!exhausted) {
+        append(nextHi, nextLo, GeoIPSnapshot.NOT_FOUND);
+      }
+    }
+
+    private void append(long hi, long lo, int record) {
+      if (hi != nextHi || lo != nextLo) {
+        // A hole in the tree between the previous network and this one
+        appendRange(nextHi, nextLo, GeoIPSnapshot.NOT_FOUND);
+      }
+      appendRange(hi, lo, record);
+    }
+
+    private void appendRange(long hi, long lo, int record) {
+      if (ipv6) {
+        int last = v6Records.size() - 1;
+        if (last < 0 || v6Records.get(last) != record) {
+          v6StartsHi.add(hi ^ Long.MIN_VALUE);
+          v6StartsLo.add(lo ^ Long.MIN_VALUE);
+          v6Records.add(record);
+        }
+      } else {
+        int last = v4Records.size() - 1;
+        if (last < 0 || v4Records.get(last) != record) {
+          v4Starts.add((int) lo ^ Integer.MIN_VALUE);
+          v4Records.add(record);
+        }
+      }
+    }
+
+    private void advance(long hi, long lo, int prefixLength) {
+      int width = ipv6 ? 128 : 32;
+      int hostBits = width - prefixLength;
+      if (!ipv6) {
+        long next = lo + (1L << hostBits);
+        exhausted = next > 0xFFFFFFFFL;
+        nextHi = 0;
+        nextLo = next;
+      } else if (hostBits >= 64) {
+        long next = hostBits == 128 ? 0 : hi + (1L << (hostBits - 64));
+        exhausted = hostBits == 128 || Long.compareUnsigned(next, hi) <= 0;
+        nextHi = next;
+        nextLo = 0;
+      } else {
+        long next = lo + (1L << hostBits);
+        boolean carry = Long.compareUnsigned(next, lo) <= 0;
+        nextHi = carry ? hi + 1 : hi;
+        nextLo = next;
+        exhausted = carry && nextHi == 0;
+      }
+    }
+  }
+
+  private static final class IntList {
+    private int[] data;
+    private int size;
+
+    IntList() {
+      this(1024);
+    }
+
+    IntList(int capacity) {
+      data = new int[capacity];
+    }
+
+    void add(int value) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, size * 2);
+      }
+      data[size++] = value;
+    }
+
+    int get(int index) {
+      return data[index];
+    }
+
+    int size() {
+      return size;
+    }
+
+    void writeTo(ByteBuffer out) {
+      out.asIntBuffer().put(data, 0, size);
+      out.position(out.position() + size * 4);
+    }
+  }
+
+  private static final class LongList {
+    private long[] data;
+    private int size;
+
+    LongList() {
+      this(1024);
+    }
+
+    LongList(int capacity) {
+      data = new long[capacity];
+    }
+
+    void add(long value) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, size * 2);
+      }
+      data[size++] = value;
+    }
+
+    long get(int index) {
+      return data[index];
+    }
+
+    int size() {
+      return size;
+    }
+
+    void writeTo(ByteBuffer out) {
+      out.asLongBuffer().put(data, 0, size);
+      out.position(out.position() + size * 8);
+    }
+  }
+}
@@ -0,0 +1,703 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Low level reader for the MaxMind DB file format. Unlike {@link com.maxmind.db.Reader}, this
+ * exposes the search tree and the offsets of records in the data section, which is what is needed
+ * to build flattened lookup structures from a database. All reads are absolute, so a single
+ * instance can be shared between threads.
+ */
+public class MaxMindDbFile {
+  private static final Logger logger = LoggerFactory.getLogger(MaxMindDbFile.class);
+
+  private static final byte[] METADATA_MARKER = {(byte) 0xAB, (byte) 0xCD, (byte) 0xEF,
+    'M', 'a', 'x', 'M', 'i', 'n', 'd', '.', 'c', 'o', 'm'};
+
+  private static final int DATA_SECTION_SEPARATOR_SIZE = 16;
+
+  // Parallel walks split the tree down to these depths, IPv6 deeper as its networks sit under a few prefixes
+  private static final int IPV4_SPLIT_DEPTH = 10;
+  private static final int IPV6_SPLIT_DEPTH = 16;
+
+  private static final ForkJoinPool walkPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+    pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("geoip-build-" + thread.getPoolIndex());
+      return thread;
+    }, null, false);
+
+  static final int TYPE_EXTENDED = 0;
+  static final int TYPE_POINTER = 1;
+  static final int TYPE_UTF8_STRING = 2;
+  static final int TYPE_DOUBLE = 3;
+  static final int TYPE_BYTES = 4;
+  static final int TYPE_UINT16 = 5;
+  static final int TYPE_UINT32 = 6;
+  static final int TYPE_MAP = 7;
+  static final int TYPE_INT32 = 8;
+  static final int TYPE_UINT64 = 9;
+  static final int TYPE_UINT128 = 10;
+  static final int TYPE_ARRAY = 11;
+  static final int TYPE_CONTAINER = 12;
+  static final int TYPE_END_MARKER = 13;
+  static final int TYPE_BOOLEAN = 14;
+  static final int TYPE_FLOAT = 15;
+
+  /**
+   * Receives the networks of the search tree in ascending address order. Addresses are passed
+   * left aligned in a field of the walked bit width: the low 32 bits of {@code lo} for an IPv4 walk,
+   * {@code hi} and {@code lo} together for an IPv6 walk.
+   */
+  public interface NetworkVisitor {
+
+    void network(long hi, long lo, int prefixLength, int dataOffset);
+
+    /**
+     * Called when the walk reaches the IPv4 subtree from an IPv6 prefix, e.g. {@code ::/96} or
+     * {@code 2002::/16}. The subtree is not descended into.
+     */
+    void ipv4Alias(long hi, long lo, int prefixLength);
+  }
+
+  private final ByteBuffer buffer;
+  private final int nodeCount;
+  private final int recordSize;
+  private final int nodeByteSize;
+  private final int ipVersion;
+  private final int dataSectionStart;
+  private final int ipv4Start;
+  private final String databaseType;
+  private final long buildEpoch;
+  private final Map<String, Object> metadata;
+
+  @SuppressWarnings("unchecked")
+  public MaxMindDbFile(ByteBuffer source) throws IOException {
+    this.buffer = source.duplicate();
+    int metadataStart = findMetadataStart(buffer);
+    if (metadataStart < 0) {
+      throw new IOException("Could not find a MaxMind DB metadata marker in this file.");
+    }
+
+    Object decoded = new Cursor(metadataStart, metadataStart).decode();
+    if (!(decoded instanceof Map)) {
+      throw new IOException("The MaxMind DB metadata section is not a map.");
+    }
+    this.metadata = Collections.unmodifiableMap((Map<String, Object>) decoded);
+    this.nodeCount = metadataInt("node_count");
+    this.recordSize = metadataInt("record_size");
+    this.ipVersion = metadataInt("ip_version");
+    this.databaseType = String.valueOf(metadata.get("database_type"));
+    this.buildEpoch = metadata.get("build_epoch") == null ? 0 : ((Number) metadata.get("build_epoch")).longValue();
+
+    if (recordSize != 24 && recordSize != 28 && recordSize != 32) {
+      throw new IOException("Unsupported MaxMind DB record size: " + recordSize);
+    }
+    this.nodeByteSize = recordSize / 4;
+    this.dataSectionStart = nodeCount * nodeByteSize + DATA_SECTION_SEPARATOR_SIZE;
+
+    int node = 0;
+    if (ipVersion == 6) {
+      for (int i = 0; i < 96 && node < nodeCount; i++) {
+        node = readNode(node, 0);
+      }
+    }
+    this.ipv4Start = node;
+  }
+
+  /**
+   * Memory maps a database file. The mapping stays valid after the channel is closed.
+   */
+  public static MaxMindDbFile open(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+         FileChannel channel = raf.getChannel()) {
+      return new MaxMindDbFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  public static MaxMindDbFile read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[64 * 1024];
+    int read;
+    while ((read = in.read(chunk)) != -1) {
+      bytes.write(chunk, 0, read);
+    }
+    return new MaxMindDbFile(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  public int getIpVersion() {
+    return ipVersion;
+  }
+
+  public int getIpv4Start() {
+    return ipv4Start;
+  }
+
+  public String getDatabaseType() {
+    return databaseType;
+  }
+
+  public long getBuildEpoch() {
+    return buildEpoch;
+  }
+
+  public Map<String, Object> getMetadata() {
+    return metadata;
+  }
+
+  public long getSize() {
+    return buffer.capacity();
+  }
+
+  /**
+   * Returns the offset of the record for an address in the data section, or -1 if the address
+   * is not in the database. 16 byte addresses cannot be looked up in an IPv4 only database.
+   */
+  public int findDataOffset(byte[] address) {
+    return (int) findNetwork(address);
+  }
+
+  /**
+   * Returns the data offset of the record for an address as {@link #findDataOffset(byte[])} does in the
+   * lower 32 bits, and the prefix length of the network the search ended in, which holds the address and
+   * has the same record, in the upper 32 bits.
+   */
+  public long findNetwork(byte[] address) {
+    int node;
+    if (address.length == 4) {
+      node = ipv4Start;
+    } else if (ipVersion == 6) {
+      node = 0;
+    } else {
+      return 0xFFFFFFFFL;
+    }
+
+    int bitCount = address.length * 8;
+    int depth = 0;
+    while (depth < bitCount && node < nodeCount) {
+      int bit = 1 & (address[depth >> 3] >> (7 - (depth & 7)));
+      node = readNode(node, bit);
+      depth++;
+    }
+    return ((long) depth << 32) | (toDataOffset(node) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Decodes the value stored at an offset of the data section into plain Java objects: maps,
+   * lists, strings, numbers, booleans and byte arrays.
+   */
+  public Object decode(int dataOffset) {
+    return new Cursor(dataSectionStart, dataSectionStart + dataOffset).decode();
+  }
+
+  /**
+   * Returns the position of the value at a path inside the record at a data offset, or -1 if the record
+   * has no value there. Each step of the path is a map key, given as its UTF-8 bytes, or an index into an
+   * array where the key is null, counted from the end if negative. Only the keys along the path are read,
+   * every other value is skipped by its size without being decoded.
+   */
+  public int seek(int dataOffset, byte[][] keys, int[] indexes) {
+    Cursor cursor = new Cursor(dataSectionStart, dataSectionStart + dataOffset);
+    for (int step = 0; step < keys.length; step++) {
+      cursor.followPointer();
+      int ctrl = buffer.get(cursor.position++) & 0xFF;
+      int type = ctrl >>> 5;
+      if (type == TYPE_EXTENDED) {
+        type = 7 + (buffer.get(cursor.position++) & 0xFF);
+      }
+      int size = cursor.readSize(ctrl);
+      if (keys[step] != null) {
+        if (type != TYPE_MAP || !cursor.skipToKey(keys[step], size)) {
+          return -1;
+        }
+      } else {
+        int index = indexes[step] < 0 ? size + indexes[step] : indexes[step];
+        if (type != TYPE_ARRAY || index < 0 || index >= size) {
+          return -1;
+        }
+        for (int i = 0; i < index; i++) {
+          cursor.skip();
+        }
+      }
+    }
+    cursor.followPointer();
+    return cursor.position;
+  }
+
+  /**
+   * Decodes the value at a position returned by {@link #seek(int, byte[][], int[])}.
+   */
+  public Object decodeAt(int position) {
+    return new Cursor(dataSectionStart, position).decode();
+  }
+
+  /**
+   * Returns the bytes of the UTF-8 string at a position returned by {@link #seek(int, byte[][], int[])}
+   * as a view of the database, or null if the value there is not a string.
+   */
+  public ByteBuffer getUtf8At(int position) {
+    int ctrl = buffer.get(position) & 0xFF;
+    if (ctrl >>> 5 != TYPE_UTF8_STRING) {
+      return null;
+    }
+    Cursor cursor = new Cursor(dataSectionStart, position + 1);
+    int size = cursor.readSize(ctrl);
+    ByteBuffer bytes = buffer.duplicate();
+    bytes.limit(cursor.position + size).position(cursor.position);
+    return bytes;
+  }
+
+  /**
+   * Walks the networks of the IPv4 part of the tree, addresses are 32 bit.
+   */
+  public void walkIpv4(NetworkVisitor visitor) {
+    walk(ipv4Start, 0, 0, 0, 32, -1, visitor);
+  }
+
+  /**
+   * Walks the networks of the IPv6 tree, skipping the subtrees that alias the IPv4 space.
+   */
+  public void walkIpv6(NetworkVisitor visitor) {
+    if (ipVersion == 6) {
+      walk(0, 0, 0, 0, 128, ipv4Start, visitor);
+    }
+  }
+
+  /**
+   * Walks the IPv4 part of the tree on a fork-join pool with one thread per core. The tree is split into
+   * subtrees that are each walked by a visitor of their own, which must be safe to use from any thread.
+   * The visitors are returned in address order, so handling their networks in list order gives the order
+   * of {@link #walkIpv4(NetworkVisitor)}. A factory may return the same visitor every time if that visitor
+   * is thread safe.
+   */
+  public <T extends NetworkVisitor> List<T> walkIpv4InParallel(Supplier<T> visitors) {
+    return walkInParallel(ipv4Start, 32, -1, IPV4_SPLIT_DEPTH, "IPv4", visitors);
+  }
+
+  public <T extends NetworkVisitor> List<T> walkIpv6InParallel(Supplier<T> visitors) {
+    if (ipVersion != 6) {
+      return Collections.emptyList();
+    }
+    return walkInParallel(0, 128, ipv4Start, IPV6_SPLIT_DEPTH, "IPv6", visitors);
+  }
+
+  private <T extends NetworkVisitor> List<T> walkInParallel(int root, int width, int aliasNode, int splitDepth,
+                                                           String family, Supplier<T> visitors) {
+    long start = System.nanoTime();
+    SubtreeWalk<T> walk = new SubtreeWalk<>(root, 0, 0, 0, width, aliasNode, splitDepth, visitors, new AtomicLong(),
+      family);
+    List<T> result = walkPool.invoke(walk);
+    logger.debug("Walked the {} tree of {} in {} subtrees in {} ms", family, databaseType, result.size(),
+      (System.nanoTime() - start) / 1_000_000);
+    return result;
+  }
+
+  private void walk(int node, long hi, long lo, int depth, int width, int aliasNode, NetworkVisitor visitor) {
+    if (node == aliasNode && depth > 0) {
+      visitor.ipv4Alias(hi, lo, depth);
+      return;
+    }
+    if (node > nodeCount) {
+      visitor.network(hi, lo, depth, toDataOffset(node));
+      return;
+    }
+    if (node == nodeCount || depth == width) {
+      return;
+    }
+
+    walk(readNode(node, 0), hi, lo, depth + 1, width, aliasNode, visitor);
+
+    int bitIndex = width - depth - 1;
+    if (bitIndex >= 64) {
+      walk(readNode(node, 1), hi | (1L << (bitIndex - 64)), lo, depth + 1, width, aliasNode, visitor);
+    } else {
+      walk(readNode(node, 1), hi, lo | (1L << bitIndex), depth + 1, width, aliasNode, visitor);
+    }
+  }
+
+  /**
+   * Forks the two children of a node until the split depth, below which the subtree is walked as one
+   * task. Progress is counted in units of the smallest subtree.
+   */
+  private final class SubtreeWalk<T extends NetworkVisitor> extends RecursiveTask<List<T>> {
+    private static final long serialVersionUID = 1L;
+
+    private final int node;
+    private final long hi;
+    private final long lo;
+    private final int depth;
+    private final int width;
+    private final int aliasNode;
+    private final int splitDepth;
+    private final Supplier<T> visitors;
+    private final AtomicLong walked;
+    private final String family;
+
+    SubtreeWalk(int node, long hi, long lo, int depth, int width, int aliasNode, int splitDepth,
+                Supplier<T> visitors, AtomicLong walked, String family) {
+      this.node = node;
+      this.hi = hi;
+      this.lo = lo;
+      this.depth = depth;
+      this.width = width;
+      this.aliasNode = aliasNode;
+      this.splitDepth = splitDepth;
+      this.visitors = visitors;
+      this.walked = walked;
+      this.family = family;
+    }
+
+    @Override
+    protected List<T> compute() {
+      boolean inner = node < nodeCount && !(node == aliasNode && depth > 0);
+      if (inner && depth < splitDepth && depth < width) {
+        int bitIndex = width - depth - 1;
+        long oneHi = bitIndex >= 64 ? hi | (1L << (bitIndex - 64)) : hi;
+        long oneLo = bitIndex >= 64 ? lo : lo | (1L << bitIndex);
+        SubtreeWalk<T> zero = child(readNode(node, 0), hi, lo);
+        SubtreeWalk<T> one = child(readNode(node, 1), oneHi, oneLo);
+        one.fork();
+        List<T> result = new ArrayList<>(zero.compute());
+        result.addAll(one.join());
+        return result;
+      }
+
+      T visitor = visitors.get();
+      walk(node, hi, lo, depth, width, aliasNode, visitor);
+      reportProgress(1L << (splitDepth - Math.min(depth, splitDepth)));
+      return Collections.singletonList(visitor);
+    }
+
+    private SubtreeWalk<T> child(int child, long childHi, long childLo) {
+      return new SubtreeWalk<>(child, childHi, childLo, depth + 1, width, aliasNode, splitDepth, visitors, walked,
+        family);
+    }
+
+    private void reportProgress(long units) {
+      long total = 1L << splitDepth;
+      long after = walked.addAndGet(units);
+      long before = after - units;
+      if (after * 10 / total > before * 10 / total) {
+        logger.debug("Walked {}% of the {} tree of {}", after * 100 / total, family, databaseType);
+      }
+    }
+  }
+
+  int readNode(int node, int bit) {
+    int base = node * nodeByteSize;
+    switch (recordSize) {
+      case 24:
+        return readUnsigned(base + bit * 3, 3);
+      case 28:
+        if (bit == 0) {
+          return ((buffer.get(base + 3) & 0xF0) << 20) | readUnsigned(base, 3);
+        }
+        return ((buffer.get(base + 3) & 0x0F) << 24) | readUnsigned(base + 4, 3);
+      default:
+        return buffer.getInt(base + bit * 4);
+    }
+  }
+
+  private int toDataOffset(int record) {
+    if (record <= nodeCount) {
+      return -1;
+    }
+    return record - nodeCount - DATA_SECTION_SEPARATOR_SIZE;
+  }
+
+  private int readUnsigned(int position, int size) {
+    int value = 0;
+    for (int i = 0; i < size; i++) {
+      value = (value << 8) | (buffer.get(position + i) & 0xFF);
+    }
+    return value;
+  }
+
+  private int metadataInt(String key) throws IOException {
+    Object value = metadata.get(key);
+    if (!(value instanceof Number)) {
+      throw new IOException("The MaxMind DB metadata is missing " + key);
+    }
+    return ((Number) value).intValue();
+  }
+
+  private static int findMetadataStart(ByteBuffer buffer) {
+    int limit = buffer.capacity();
+    int searchFloor = Math.max(0, limit - 128 * 1024);
+    for (int i = limit - METADATA_MARKER.length; i >= searchFloor; i--) {
+      boolean match = true;
+      for (int j = 0; j < METADATA_MARKER.length; j++) {
+        if (buffer.get(i + j) != METADATA_MARKER[j]) {
+          match = false;
+          break;
+        }
+      }
+      if (match) {
+        return i + METADATA_MARKER.length;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Position in the buffer along with the base that pointers are relative to.
+   */
+  final class Cursor {
+    private final int pointerBase;
+    int position;
+
+    Cursor(int pointerBase, int position) {
+      this.pointerBase = pointerBase;
+      this.position = position;
+    }
+
+    Object decode() {
+      int ctrl = buffer.get(position++) & 0xFF;
+      int type = ctrl >>> 5;
+
+      if (type == TYPE_POINTER) {
+        int target = readPointer(ctrl);
+        int resume = position;
+        position = target;
+        Object value = decode();
+        position = resume;
+        return value;
+      }
+
+      if (type == TYPE_EXTENDED) {
+        type = 7 + (buffer.get(position++) & 0xFF);
+      }
+      int size = readSize(ctrl);
+
+      switch (type) {
+        case TYPE_UTF8_STRING:
+          return readString(size);
+        case TYPE_DOUBLE:
+          double d = buffer.getDouble(position);
+          position += size;
+          return d;
+        case TYPE_FLOAT:
+          float f = buffer.getFloat(position);
+          position += size;
+          return f;
+        case TYPE_BYTES:
+          byte[] bytes = new byte[size];
+          for (int i = 0; i < size; i++) {
+            bytes[i] = buffer.get(position + i);
+          }
+          position += size;
+          return bytes;
+        case TYPE_UINT16:
+        case TYPE_UINT32:
+        case TYPE_INT32:
+          long small = readLong(size);
+          return type == TYPE_INT32 ? (long) (int) small : small;
+        case TYPE_UINT64:
+        case TYPE_UINT128:
+          return readBigInteger(size);
+        case TYPE_MAP:
+          Map<String, Object> map = new LinkedHashMap<>(size * 2);
+          for (int i = 0; i < size; i++) {
+            map.put(String.valueOf(decode()), decode());
+          }
+          return map;
+        case TYPE_ARRAY:
+          List<Object> list = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            list.add(decode());
+          }
+          return list;
+        case TYPE_BOOLEAN:
+          return size != 0;
+        default:
+          throw new IllegalStateException("Unexpected MaxMind DB data type " + type + " at offset " + (position - 1));
+      }
+    }
+
+    /**
+     * Moves to the target of the pointer at the cursor, if there is one.
+     */
+    void followPointer() {
+      int ctrl = buffer.get(position) & 0xFF;
+      if (ctrl >>> 5 == TYPE_POINTER) {
+        position++;
+        position = readPointer(ctrl);
+      }
+    }
+
+    /**
+     * Moves past the value at the cursor without decoding it. A pointer is skipped, not followed.
+     */
+    void skip() {
+      int ctrl = buffer.get(position++) & 0xFF;
+      int type = ctrl >>> 5;
+      if (type == TYPE_POINTER) {
+        position += ((ctrl >>> 3) & 0x3) + 1;
+        return;
+      }
+      if (type == TYPE_EXTENDED) {
+        type = 7 + (buffer.get(position++) & 0xFF);
+      }
+      int size = readSize(ctrl);
+      switch (type) {
+        case TYPE_MAP:
+          for (int i = 0; i < size * 2; i++) {
+            skip();
+          }
+          break;
+        case TYPE_ARRAY:
+          for (int i = 0; i < size; i++) {
+            skip();
+          }
+          break;
+        case TYPE_BOOLEAN:
+          break;
+        default:
+          position += size;
+          break;
+      }
+    }
+
+    /**
+     * Reads the keys of a map of the given size whose entries start at the cursor until one equals the
+     * given bytes, and leaves the cursor at its value. Returns false if the map has no such key.
+     */
+    boolean skipToKey(byte[] key, int size) {
+      for (int i = 0; i < size; i++) {
+        int resume = -1;
+        int ctrl = buffer.get(position) & 0xFF;
+        if (ctrl >>> 5 == TYPE_POINTER) {
+          position++;
+          int target = readPointer(ctrl);
+          resume = position;
+          position = target;
+          ctrl = buffer.get(position) & 0xFF;
+        }
+        position++;
+        int length = readSize(ctrl);
+        boolean match = length == key.length;
+        for (int j = 0; match && j < length; j++) {
+          match = buffer.get(position + j) == key[j];
+        }
+        position = resume >= 0 ? resume : position + length;
+        if (match) {
+          return true;
+        }
+        skip();
+      }
+      return false;
+    }
+
+    /**
+     * Reads the pointer following a control byte and returns the absolute position it refers to.
+     */
+    int readPointer(int ctrl) {
+      int pointerSize = ((ctrl >>> 3) & 0x3) + 1;
+      int base = pointerSize == 4 ? 0 : ctrl & 0x7;
+      int value = base;
+      for (int i = 0; i < pointerSize; i++) {
+        value = (value << 8) | (buffer.get(position++) & 0xFF);
+      }
+      switch (pointerSize) {
+        case 2:
+          value += 2048;
+          break;
+        case 3:
+          value += 526336;
+          break;
+        default:
+          break;
+      }
+      return pointerBase + value;
+    }
+
+    int readSize(int ctrl) {
+      int size = ctrl & 0x1F;
+      if (size < 29) {
+        return size;
+      }
+      int extra = size - 28;
+      int value = 0;
+      for (int i = 0; i < extra; i++) {
+        value = (value << 8) | (buffer.get(position++) & 0xFF);
+      }
+      switch (size) {
+        case 29:
+          return 29 + value;
+        case 30:
+          return 285 + value;
+        default:
+          return 65821 + value;
+      }
+    }
+
+    String readString(int size) {
+      byte[] bytes = new byte[size];
+      for (int i = 0; i < size; i++) {
+        bytes[i] = buffer.get(position + i);
+      }
+      position += size;
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    long readLong(int size) {
+      long value = 0;
+      for (int i = 0; i < size; i++) {
+        value = (value << 8) | (buffer.get(position++) & 0xFF);
+      }
+      return value;
+    }
+
+    Object readBigInteger(int size) {
+      byte[] bytes = new byte[size + 1];
+      for (int i = 0; i < size; i++) {
+        bytes[i + 1] = buffer.get(position++);
+      }
+      BigInteger value = new BigInteger(bytes);
+      return value.bitLength() < 64 ? (Object) value.longValue() : value;
+    }
+  }
+}
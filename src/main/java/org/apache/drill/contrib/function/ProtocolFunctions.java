@@ -23,8 +23,11 @@ import org.apache.drill.exec.expr.annotations.FunctionTemplate;
 import org.apache.drill.exec.expr.annotations.Output;
 import org.apache.drill.exec.expr.annotations.Param;
 import org.apache.drill.exec.expr.annotations.Workspace;
+import org.apache.drill.exec.expr.holders.BitHolder;
 import org.apache.drill.exec.expr.holders.IntHolder;
+import org.apache.drill.exec.expr.holders.NullableVarCharHolder;
 import org.apache.drill.exec.expr.holders.VarCharHolder;
+import org.apache.drill.exec.vector.complex.writer.BaseWriter;
 
 import javax.inject.Inject;
 
@@ -137,6 +140,39 @@ public class ProtocolFunctions {
     }
   }
 
+  /**
+   * This function takes a port number and the IANA number of the protocol, as flow records carry it, e.g.
+   * 6 for TCP and 17 for UDP, and returns the associated service name, or Unknown.
+   */
+  @FunctionTemplate(name = "get_service_name",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+
+  public static class ServiceNameLookupProtocolNumber implements DrillSimpleFunc {
+    @Param
+    IntHolder portNumber;
+
+    @Param
+    IntHolder protocol;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    @Workspace
+    org.apache.drill.contrib.function.ServicePortTable services;
+
+    public void setup() {
+      services = org.apache.drill.contrib.function.SecurityHelperFunctions.getServicePortTable();
+    }
+
+    public void eval() {
+      buffer = org.apache.drill.contrib.function.GeoIPLookup.write(services.getDescription(portNumber.value, protocol.value), out, buffer);
+    }
+  }
+
   /* This function takes a port number and protocol and returns the associated service name, and "Unknown if there is an error */
 
   @FunctionTemplate(name = "get_short_service_name",
@@ -233,4 +269,203 @@ public class ProtocolFunctions {
       buffer.setBytes(0, serviceName.getBytes());
     }
   }
+
+  /**
+   * This function takes a service name and protocol and returns the list of registered port numbers, an
+   * empty list if the service is unknown. The names are matched without regard to case.
+   */
+  @FunctionTemplate(name = "get_port_for_service",
+    scope = FunctionTemplate.FunctionScope.SIMPLE)
+
+  public static class PortForServiceLookup implements DrillSimpleFunc {
+    @Param
+    VarCharHolder serviceName;
+
+    @Param
+    VarCharHolder protocol;
+
+    @Output
+    BaseWriter.ComplexWriter out;
+
+    @Workspace
+    org.apache.drill.contrib.function.ServiceNameIndex services;
+
+    public void setup() {
+      services = org.apache.drill.contrib.function.SecurityHelperFunctions.getServiceNameIndex();
+    }
+
+    public void eval() {
+      int[] ports = services.getPorts(serviceName.buffer, serviceName.start, serviceName.end, protocol.buffer, protocol.start, protocol.end);
+      org.apache.drill.exec.vector.complex.writer.BaseWriter.ListWriter list = out.rootAsList();
+      list.startList();
+      for (int i = 0; i < ports.length; i++) {
+        list.integer().writeInt(ports[i]);
+      }
+      list.endList();
+    }
+  }
+
+  /**
+   * This function is the variant of get_port_for_service for nullable columns. It returns an empty list if
+   * the service name or the protocol is null.
+   */
+  @FunctionTemplate(name = "get_port_for_service",
+    scope = FunctionTemplate.FunctionScope.SIMPLE)
+
+  public static class PortForServiceNullableInputLookup implements DrillSimpleFunc {
+    @Param
+    NullableVarCharHolder serviceName;
+
+    @Param
+    NullableVarCharHolder protocol;
+
+    @Output
+    BaseWriter.ComplexWriter out;
+
+    @Workspace
+    org.apache.drill.contrib.function.ServiceNameIndex services;
+
+    public void setup() {
+      services = org.apache.drill.contrib.function.SecurityHelperFunctions.getServiceNameIndex();
+    }
+
+    public void eval() {
+      org.apache.drill.exec.vector.complex.writer.BaseWriter.ListWriter list = out.rootAsList();
+      list.startList();
+      if (serviceName.isSet != 0 && protocol.isSet != 0) {
+        int[] ports = services.getPorts(serviceName.buffer, serviceName.start, serviceName.end, protocol.buffer, protocol.start, protocol.end);
+        for (int i = 0; i < ports.length; i++) {
+          list.integer().writeInt(ports[i]);
+        }
+      }
+      list.endList();
+    }
+  }
+
+  /**
+   * This function returns true if the port is registered for the service and protocol, which must be
+   * constants. The ports are resolved once, so filtering on a service name costs a bit test per row.
+   */
+  @FunctionTemplate(name = "is_service_port",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+
+  public static class IsServicePort implements DrillSimpleFunc {
+    @Param
+    IntHolder portNumber;
+
+    @Param(constant = true)
+    VarCharHolder serviceName;
+
+    @Param(constant = true)
+    VarCharHolder protocol;
+
+    @Output
+    BitHolder out;
+
+    @Workspace
+    java.util.BitSet ports;
+
+    public void setup() {
+      ports = org.apache.drill.contrib.function.SecurityHelperFunctions.getServiceNameIndex().getPortSet(
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(serviceName.start, serviceName.end, serviceName.buffer),
+        org.apache.drill.exec.expr.fn.impl.StringFunctionHelpers.toStringFromUTF8(protocol.start, protocol.end, protocol.buffer));
+    }
+
+    public void eval() {
+      out.value = portNumber.value >= 0 && ports.get(portNumber.value) ? 1 : 0;
+    }
+  }
+
+  /**
+   * Returns true if the port is a well known (system) port, 0 to 1023.
+   */
+  @FunctionTemplate(name = "is_well_known_port",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+
+  public static class IsWellKnownPort implements DrillSimpleFunc {
+    @Param
+    IntHolder portNumber;
+
+    @Output
+    BitHolder out;
+
+    public void setup() {
+    }
+
+    public void eval() {
+      out.value = org.apache.drill.contrib.function.ServicePortTable.isWellKnownPort(portNumber.value) ? 1 : 0;
+    }
+  }
+
+  /**
+   * Returns true if the port is a registered (user) port, 1024 to 49151.
+   */
+  @FunctionTemplate(name = "is_registered_port",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+
+  public static class IsRegisteredPort implements DrillSimpleFunc {
+    @Param
+    IntHolder portNumber;
+
+    @Output
+    BitHolder out;
+
+    public void setup() {
+    }
+
+    public void eval() {
+      out.value = org.apache.drill.contrib.function.ServicePortTable.isRegisteredPort(portNumber.value) ? 1 : 0;
+    }
+  }
+
+  /**
+   * Returns true if the port is an ephemeral (dynamic or private) port, 49152 to 65535.
+   */
+  @FunctionTemplate(name = "is_ephemeral_port",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+
+  public static class IsEphemeralPort implements DrillSimpleFunc {
+    @Param
+    IntHolder portNumber;
+
+    @Output
+    BitHolder out;
+
+    public void setup() {
+    }
+
+    public void eval() {
+      out.value = org.apache.drill.contrib.function.ServicePortTable.isEphemeralPort(portNumber.value) ? 1 : 0;
+    }
+  }
+
+  /**
+   * Returns the range of a port: well-known, registered or ephemeral, and Unknown if the number is not a
+   * port.
+   */
+  @FunctionTemplate(name = "port_category",
+    scope = FunctionTemplate.FunctionScope.SIMPLE,
+    nulls = FunctionTemplate.NullHandling.NULL_IF_NULL)
+
+  public static class PortCategory implements DrillSimpleFunc {
+    @Param
+    IntHolder portNumber;
+
+    @Output
+    VarCharHolder out;
+
+    @Inject
+    DrillBuf buffer;
+
+    public void setup() {
+    }
+
+    public void eval() {
+      buffer = org.apache.drill.contrib.function.GeoIPLookup.write(org.apache.drill.contrib.function.ServicePortTable.getCategory(portNumber.value), out, buffer);
+    }
+  }
 }
@@ -19,16 +19,30 @@
 package org.apache.drill.contrib.function;
 
 import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
+import org.apache.drill.common.config.DrillConfig;
 import org.apache.drill.common.exceptions.UserException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,58 +50,370 @@ import java.util.regex.Pattern;
 public class SecurityHelperFunctions {
   private static final Logger logger = LoggerFactory.getLogger(SecurityHelperFunctions.class);
 
-  public static DatabaseReader getCountryDatabaseReader() throws UserException {
-    InputStream db = SecurityHelperFunctions.class.getClassLoader()
-      .getResourceAsStream("GeoLite2-Country.mmdb");
+  public static final String COUNTRY_DATABASE = "GeoLite2-Country";
+  public static final String CITY_DATABASE = "GeoLite2-City";
+  public static final String ASN_DATABASE = "GeoLite2-ASN";
+  public static final String ANONYMOUS_IP_DATABASE = "GeoIP2-Anonymous-IP";
+
+  // Directory holding snapshots built by GeoIPSnapshotCompiler, see drill-module.conf
+  public static final String SNAPSHOT_DIRECTORY = "drill.geoip.snapshot.directory";
+
+  // Databases that are flattened into a snapshot when they are loaded if none was compiled
+  public static final String FLATTEN_DATABASES = "drill.geoip.flatten.databases";
+
+  private static final Map<String, Optional<GeoIPSnapshot>> snapshots = new ConcurrentHashMap<>();
+
+  private static final Map<String, DatabaseReader> databaseReaders = new ConcurrentHashMap<>();
+
+  private static final Map<String, MaxMindDbFile> databaseFiles = new ConcurrentHashMap<>();
+
+  // Directory holding dated releases of the databases for the functions that take a timestamp
+  public static final String VERSIONS_DIRECTORY = "drill.geoip.versions.directory";
 
+  private static final Map<String, GeoIPDatabaseVersions> databaseVersions = new ConcurrentHashMap<>();
+
+  // Registry lines that start with a service name and port number
+  private static final String SERVICE_LINE_PATTERN = "^[a-zA-Z0-9_-]*,\\d+,";
+
+  private static volatile ServiceNameIndex serviceNameIndex;
+
+  private static volatile ServicePortTable servicePortTable;
+
+  private static DrillConfig config;
+
+  static synchronized DrillConfig getConfig() {
+    if (config == null) {
+      config = DrillConfig.create();
+    }
+    return config;
+  }
+
+  static String getConfigString(String path) {
+    DrillConfig drillConfig = getConfig();
+    return drillConfig.hasPath(path) ? drillConfig.getString(path) : "";
+  }
+
+  public static GeoIPSnapshot getCountrySnapshot() throws UserException {
+    return getSnapshot(COUNTRY_DATABASE);
+  }
+
+  public static GeoIPSnapshot getCitySnapshot() throws UserException {
+    return getSnapshot(CITY_DATABASE);
+  }
+
+  public static GeoIPSnapshot getASNSnapshot() throws UserException {
+    return getSnapshot(ASN_DATABASE);
+  }
+
+  /**
+   * Returns the compiled snapshot of a database, or null if there is none and the functions should use
+   * the MaxMind reader. Snapshots are loaded once and shared by all fragments.
+   */
+  public static GeoIPSnapshot getSnapshot(String databaseName) throws UserException {
+    return snapshots.computeIfAbsent(databaseName, SecurityHelperFunctions::loadSnapshot).orElse(null);
+  }
+
+  private static Optional<GeoIPSnapshot> loadSnapshot(String databaseName) {
+    String fileName = databaseName + GeoIPSnapshotCompiler.SNAPSHOT_EXTENSION;
+    long start = System.nanoTime();
+    GeoIPSnapshot snapshot = null;
     try {
-      return new DatabaseReader.Builder(db)
+      String directory = getConfigString(SNAPSHOT_DIRECTORY);
+      File file = new File(directory, fileName);
+      if (directory.isEmpty() || !file.isFile()) {
+        file = GeoIPDatabaseCache.fetch(fileName);
+      }
+      if (file != null) {
+        snapshot = GeoIPSnapshot.open(file);
+        GeoIPMemory.track(fileName, GeoIPMemory.Residence.MAPPED, snapshot.getSize());
+      } else {
+        ByteBuffer loaded = GeoIPMemory.load(fileName, fileName);
+        if (loaded != null) {
+          snapshot = new GeoIPSnapshot(loaded);
+        }
+      }
+    } catch (IOException e) {
+      throw UserException.dataReadError(e)
+        .message("Could not load GeoIP snapshot %s.", fileName)
+        .build(logger);
+    }
+
+    if (snapshot != null) {
+      logger.info("Loaded GeoIP snapshot {} with {} records in {} ms", fileName, snapshot.getRecordCount(),
+        (System.nanoTime() - start) / 1_000_000);
+    } else if (isFlattened(databaseName)) {
+      snapshot = flatten(databaseName);
+    }
+    return Optional.ofNullable(snapshot);
+  }
+
+  private static boolean isFlattened(String databaseName) {
+    DrillConfig drillConfig = getConfig();
+    return drillConfig.hasPath(FLATTEN_DATABASES) && drillConfig.getStringList(FLATTEN_DATABASES).contains(databaseName);
+  }
+
+  /**
+   * Compiles a snapshot of a database in memory, for databases that are small enough to flatten each
+   * time they are loaded, such as ASN.
+   */
+  private static GeoIPSnapshot flatten(String databaseName) {
+    long start = System.nanoTime();
+    try {
+      // The raw copy is not kept loaded next to the flattened one
+      ByteBuffer compiled = withDatabaseFile(databaseName, database -> new GeoIPSnapshotCompiler(database).compile());
+      GeoIPSnapshot snapshot = new GeoIPSnapshot(compiled);
+      GeoIPMemory.track(databaseName + " (flattened)", GeoIPMemory.Residence.HEAP, snapshot.getSize());
+      logger.info("Flattened GeoIP database {} into {} records and {} strings in {} ms", databaseName,
+        snapshot.getRecordCount(), snapshot.getStringCount(), (System.nanoTime() - start) / 1_000_000);
+      return snapshot;
+    } catch (IOException e) {
+      throw UserException.dataReadError(e)
+        .message("Could not flatten GeoIP database %s.", databaseName)
+        .build(logger);
+    }
+  }
+
+  public static DatabaseReader getCountryDatabaseReader() throws UserException {
+    return getDatabaseReader(COUNTRY_DATABASE);
+  }
+
+  public static DatabaseReader getCityDatabaseReader() throws UserException {
+    return getDatabaseReader(CITY_DATABASE);
+  }
+
+  public static DatabaseReader getASNDatabaseReader() throws UserException {
+    return getDatabaseReader(ASN_DATABASE);
+  }
+
+  /**
+   * Returns the reader of a database from the configured location or the classpath. Readers are thread
+   * safe, so each database is loaded once and shared by all fragments rather than copied onto the heap by
+   * every one of them.
+   */
+  public static DatabaseReader getDatabaseReader(String databaseName) throws UserException {
+    return databaseReaders.computeIfAbsent(databaseName, SecurityHelperFunctions::loadDatabaseReader);
+  }
+
+  private static DatabaseReader loadDatabaseReader(String databaseName) {
+    String fileName = databaseName + ".mmdb";
+    File cached = GeoIPDatabaseCache.fetch(fileName);
+    if (cached != null) {
+      try {
+        GeoIPMemory.track(fileName, GeoIPMemory.Residence.MAPPED, cached.length());
+        return new DatabaseReader.Builder(cached)
+          .fileMode(Reader.FileMode.MEMORY_MAPPED)
+          .withCache(new CHMCache())
+          .build();
+      } catch (IOException e) {
+        throw UserException.dataReadError(e)
+          .message("Could not open the cached copy %s of MaxMind database %s.", cached, fileName)
+          .build(logger);
+      }
+    }
+    try (InputStream db = SecurityHelperFunctions.class.getClassLoader().getResourceAsStream(fileName)) {
+      if (db == null) {
+        throw new IOException(fileName + " is not on the classpath");
+      }
+      if (GeoIPMemory.useDirectMemory()) {
+        // The MaxMind reader cannot use a buffer it did not allocate, so keep it off the heap by mapping a copy
+        File copy = File.createTempFile(databaseName, ".mmdb");
+        copy.deleteOnExit();
+        long size = Files.copy(db, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        GeoIPMemory.track(fileName, GeoIPMemory.Residence.MAPPED, size);
+        return new DatabaseReader.Builder(copy)
+          .fileMode(Reader.FileMode.MEMORY_MAPPED)
+          .withCache(new CHMCache())
+          .build();
+      }
+      byte[] bytes = db.readAllBytes();
+      GeoIPMemory.track(fileName, GeoIPMemory.Residence.HEAP, bytes.length);
+      return new DatabaseReader.Builder(new ByteArrayInputStream(bytes))
         .withCache(new CHMCache())
         .build();
     } catch (IOException e) {
       throw UserException.validationError(e)
-        .message("Could not locate MaxMind Country Database.  Please ensure that it is in your classpath.")
+        .message("Could not locate MaxMind database %s.  Please ensure that it is in your classpath.", fileName)
         .build(logger);
     }
   }
 
-  public static DatabaseReader getCityDatabaseReader() throws UserException {
-    java.io.InputStream db = SecurityHelperFunctions.class.getClassLoader().getResourceAsStream("GeoLite2-City.mmdb");
+  /**
+   * Returns the raw form of a database for code that works with record offsets rather than
+   * the model classes. Each database is loaded once and shared by all fragments.
+   */
+  public static MaxMindDbFile getDatabaseFile(String databaseName) throws UserException {
+    return databaseFiles.computeIfAbsent(databaseName, SecurityHelperFunctions::loadDatabaseFile);
+  }
+
+  /**
+   * Runs a task over the raw form of a database without keeping it loaded, for tables that are built once
+   * from its records. The loaded copy is used if there is one.
+   */
+  static <T> T withDatabaseFile(String databaseName, Function<MaxMindDbFile, T> task) throws UserException {
+    MaxMindDbFile database = databaseFiles.get(databaseName);
+    if (database != null) {
+      return task.apply(database);
+    }
     try {
-      return new DatabaseReader.Builder(db)
-        .withCache(new CHMCache()).build();
+      return task.apply(loadDatabaseFile(databaseName));
+    } finally {
+      GeoIPMemory.release(databaseName + " (raw)");
+    }
+  }
+
+  private static MaxMindDbFile loadDatabaseFile(String databaseName) {
+    String fileName = databaseName + ".mmdb";
+    File cached = GeoIPDatabaseCache.fetch(fileName);
+    if (cached != null) {
+      try {
+        GeoIPMemory.track(databaseName + " (raw)", GeoIPMemory.Residence.MAPPED, cached.length());
+        return MaxMindDbFile.open(cached);
+      } catch (IOException e) {
+        throw UserException.dataReadError(e)
+          .message("Could not open the cached copy %s of MaxMind database %s.", cached, fileName)
+          .build(logger);
+      }
+    }
+    try {
+      ByteBuffer db = GeoIPMemory.load(databaseName + " (raw)", fileName);
+      if (db == null) {
+        throw new IOException(fileName + " is not on the classpath");
+      }
+      return new MaxMindDbFile(db);
     } catch (IOException e) {
       throw UserException.validationError(e)
-        .message("Could not locate MaxMind City Database.  Please ensure that it is in your classpath.")
+        .message("Could not locate MaxMind database %s.  Please ensure that it is in your classpath.", fileName)
         .build(logger);
     }
   }
 
-  public static DatabaseReader getASNDatabaseReader() throws UserException {
-    java.io.InputStream db = SecurityHelperFunctions.class.getClassLoader().getResourceAsStream("GeoLite2-ASN.mmdb");
+  public static GeoIPDatabaseVersions getCountryDatabaseVersions() throws UserException {
+    return getDatabaseVersions(COUNTRY_DATABASE);
+  }
+
+  public static GeoIPDatabaseVersions getCityDatabaseVersions() throws UserException {
+    return getDatabaseVersions(CITY_DATABASE);
+  }
+
+  public static GeoIPDatabaseVersions getASNDatabaseVersions() throws UserException {
+    return getDatabaseVersions(ASN_DATABASE);
+  }
+
+  /**
+   * Returns the dated releases of a database from the versions directory. They are memory mapped
+   * once and shared by all fragments.
+   */
+  public static GeoIPDatabaseVersions getDatabaseVersions(String databaseName) throws UserException {
+    return databaseVersions.computeIfAbsent(databaseName, SecurityHelperFunctions::loadDatabaseVersions);
+  }
+
+  private static GeoIPDatabaseVersions loadDatabaseVersions(String databaseName) {
+    String directory = getConfigString(VERSIONS_DIRECTORY);
+    if (directory.isEmpty()) {
+      throw UserException.validationError()
+        .message("Looking up %s at a point in time requires %s to be set.", databaseName, VERSIONS_DIRECTORY)
+        .build(logger);
+    }
     try {
-      return new DatabaseReader.Builder(db).withCache(new CHMCache()).build();
+      GeoIPDatabaseVersions versions = GeoIPDatabaseVersions.load(new File(directory), databaseName);
+      GeoIPMemory.track(databaseName + " (versions)", GeoIPMemory.Residence.MAPPED, versions.getSize());
+      logger.info("Loaded {} versions of {} from {}", versions.getVersionCount(), databaseName, directory);
+      return versions;
     } catch (IOException e) {
       throw UserException.validationError(e)
-        .message("Could not locate MaxMind City Database.  Please ensure that it is in your classpath.")
+        .message("Could not load the versions of %s from %s.", databaseName, directory)
         .build(logger);
     }
   }
 
-  public static HashMap getPortHashMap() throws UserException {
-    InputStream serviceFile = SecurityHelperFunctions.class.getClassLoader().getResourceAsStream("service-names-port-numbers.csv");
+  /**
+   * Loads a database again, e.g. after a new release was installed, for the fragments set up from now on.
+   * Running fragments keep using the copy they were set up with. A copy held in direct memory is freed by
+   * the garbage collector once none of them uses it.
+   */
+  public static void reloadDatabase(String databaseName) {
+    long start = System.nanoTime();
+    snapshots.remove(databaseName);
+    databaseReaders.remove(databaseName);
+    databaseFiles.remove(databaseName);
+    databaseVersions.remove(databaseName);
+    GeoIPLookup.reload(databaseName);
+    GeoIPNameTable.evict(databaseName);
+    GeoIPFieldPath.evict(databaseName);
+    logger.info("Reloaded GeoIP database {} in {} ms", databaseName, (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * Returns the index from service names to ports over the same registry as {@link #getPortHashMap()}.
+   * It is built once and shared by all fragments.
+   */
+  public static ServiceNameIndex getServiceNameIndex() throws UserException {
+    ServiceNameIndex index = serviceNameIndex;
+    return index != null ? index : loadServiceNameIndex();
+  }
+
+  private static synchronized ServiceNameIndex loadServiceNameIndex() throws UserException {
+    if (serviceNameIndex == null) {
+      serviceNameIndex = ServiceNameIndex.build(readServiceEntries());
+      logger.info("Indexed {} service names", serviceNameIndex.size());
+    }
+    return serviceNameIndex;
+  }
+
+  /**
+   * Returns the service names of the registry by port for the functions that take the protocol as its
+   * IANA number. It is built once and shared by all fragments.
+   */
+  public static ServicePortTable getServicePortTable() throws UserException {
+    ServicePortTable table = servicePortTable;
+    return table != null ? table : loadServicePortTable();
+  }
+
+  private static synchronized ServicePortTable loadServicePortTable() throws UserException {
+    if (servicePortTable == null) {
+      servicePortTable = ServicePortTable.build(readServiceEntries());
+      logger.info("Loaded {} service ports", servicePortTable.size());
+    }
+    return servicePortTable;
+  }
 
+  // The registry lines as service name, port, protocol and the rest of the line
+  private static List<String[]> readServiceEntries() throws UserException {
+    List<String[]> entries = new ArrayList<>();
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(openServiceFile(), StandardCharsets.UTF_8))) {
+      Pattern linePattern = Pattern.compile(SERVICE_LINE_PATTERN);
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (linePattern.matcher(line).find()) {
+          entries.add(line.split(",", 4));
+        }
+      }
+    } catch (IOException e) {
+      throw UserException.dataReadError(e)
+        .message("Could not read port service names file. ")
+        .build(logger);
+    }
+    return entries;
+  }
+
+  private static InputStream openServiceFile() throws UserException {
+    InputStream serviceFile = SecurityHelperFunctions.class.getClassLoader().getResourceAsStream("service-names-port-numbers.csv");
     if (serviceFile == null) {
       throw UserException.dataReadError()
         .message("Could not read port service names file. ")
         .build(logger);
     }
+    return serviceFile;
+  }
+
+  public static HashMap getPortHashMap() throws UserException {
+    InputStream serviceFile = openServiceFile();
 
     HashMap serviceInfo = new HashMap<String, String>();
 
     String line = "";
     String key = "";
-    String linePattern = "^[a-zA-Z0-9_-]*,\\d+,";
+    String linePattern = SERVICE_LINE_PATTERN;
     try {
       BufferedReader br = new BufferedReader(new InputStreamReader(serviceFile));
       while ((line = br.readLine()) != null) {
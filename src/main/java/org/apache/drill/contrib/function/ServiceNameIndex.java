@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps IANA service names to their port numbers through a minimal perfect hash built when the registry is
+ * loaded. Names are matched case insensitively and hashed and compared straight from the input buffer, so
+ * a lookup allocates nothing and costs two hash evaluations and one comparison.
+ *
+ * <p>The hash uses the hash and displace scheme: keys are first spread over buckets, then each bucket,
+ * largest first, gets the smallest seed that moves all its keys to free slots of the final table.</p>
+ */
+public class ServiceNameIndex {
+
+  static final String[] PROTOCOLS = {"tcp", "udp", "sctp", "dccp"};
+
+  private static final int[] NO_PORTS = new int[0];
+  private static final int KEYS_PER_BUCKET = 4;
+
+  private final int[] seeds;
+  private final byte[][] names;
+  private final int[][][] ports;
+
+  private ServiceNameIndex(int[] seeds, byte[][] names, int[][][] ports) {
+    this.seeds = seeds;
+    this.names = names;
+    this.ports = ports;
+  }
+
+  /**
+   * Builds the index from the registry entries as service name, port and protocol triples.
+   */
+  public static ServiceNameIndex build(List<String[]> entries) {
+    Map<String, List<BitSet>> portsByName = new TreeMap<>();
+    for (String[] entry : entries) {
+      int protocol = protocolIndex(entry[2]);
+      if (entry[0].isEmpty() || protocol < 0) {
+        continue;
+      }
+      List<BitSet> byProtocol = portsByName.computeIfAbsent(entry[0].toLowerCase(Locale.ROOT), name -> {
+        List<BitSet> sets = new ArrayList<>();
+        for (int i = 0; i < PROTOCOLS.length; i++) {
+          sets.add(new BitSet());
+        }
+        return sets;
+      });
+      byProtocol.get(protocol).set(Integer.parseInt(entry[1]));
+    }
+
+    int size = Math.max(1, portsByName.size());
+    byte[][] keys = new byte[portsByName.size()][];
+    int[][][] values = new int[portsByName.size()][][];
+    int index = 0;
+    for (Map.Entry<String, List<BitSet>> entry : portsByName.entrySet()) {
+      keys[index] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      values[index] = new int[PROTOCOLS.length][];
+      for (int i = 0; i < PROTOCOLS.length; i++) {
+        values[index][i] = entry.getValue().get(i).stream().toArray();
+      }
+      index++;
+    }
+
+    int bucketCount = Math.max(1, size / KEYS_PER_BUCKET);
+    List<List<Integer>> buckets = new ArrayList<>();
+    for (int i = 0; i < bucketCount; i++) {
+      buckets.add(new ArrayList<>());
+    }
+    for (int i = 0; i < keys.length; i++) {
+      buckets.get(slot(hash(0, keys[i]), bucketCount)).add(i);
+    }
+    Integer[] order = new Integer[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(buckets.get(b).size(), buckets.get(a).size()));
+
+    int[] seeds = new int[bucketCount];
+    byte[][] names = new byte[size][];
+    int[][][] ports = new int[size][][];
+    boolean[] used = new boolean[size];
+    int[] candidate = new int[KEYS_PER_BUCKET * 8];
+    for (int bucket : order) {
+      List<Integer> members = buckets.get(bucket);
+      if (members.isEmpty()) {
+        continue;
+      }
+      if (candidate.length < members.size()) {
+        candidate = new int[members.size()];
+      }
+      for (int seed = 1; ; seed++) {
+        if (fits(members, keys, seed, size, used, candidate)) {
+          seeds[bucket] = seed;
+          for (int i = 0; i < members.size(); i++) {
+            used[candidate[i]] = true;
+            names[candidate[i]] = keys[members.get(i)];
+            ports[candidate[i]] = values[members.get(i)];
+          }
+          break;
+        }
+      }
+    }
+    return new ServiceNameIndex(seeds, names, ports);
+  }
+
+  private static boolean fits(List<Integer> members, byte[][] keys, int seed, int size, boolean[] used, int[] candidate) {
+    for (int i = 0; i < members.size(); i++) {
+      int slot = slot(hash(seed, keys[members.get(i)]), size);
+      if (used[slot]) {
+        return false;
+      }
+      for (int j = 0; j < i; j++) {
+        if (candidate[j] == slot) {
+          return false;
+        }
+      }
+      candidate[i] = slot;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the ports registered for a service and protocol, both read from their UTF-8 bytes, or an
+   * empty array if the service or protocol is unknown.
+   */
+  public int[] getPorts(DrillBuf name, int nameStart, int nameEnd, DrillBuf protocol, int protocolStart, int protocolEnd) {
+    int protocolIndex = protocolIndex(protocol, protocolStart, protocolEnd);
+    int slot = find(name, nameStart, nameEnd);
+    if (protocolIndex < 0 || slot < 0) {
+      return NO_PORTS;
+    }
+    return ports[slot][protocolIndex];
+  }
+
+  public int[] getPorts(String name, String protocol) {
+    int protocolIndex = protocolIndex(protocol);
+    byte[] key = name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    int slot = slot(hash(seeds[slot(hash(0, key), seeds.length)], key), names.length);
+    if (protocolIndex < 0 || !Arrays.equals(names[slot], key)) {
+      return NO_PORTS;
+    }
+    return ports[slot][protocolIndex];
+  }
+
+  /**
+   * Returns the set of ports registered for a service and protocol, for functions that test ports
+   * against a constant service name.
+   */
+  public BitSet getPortSet(String name, String protocol) {
+    BitSet set = new BitSet();
+    for (int port : getPorts(name, protocol)) {
+      set.set(port);
+    }
+    return set;
+  }
+
+  public int size() {
+    int count = 0;
+    for (byte[] name : names) {
+      if (name != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int find(DrillBuf buffer, int start, int end) {
+    int slot = slot(hash(seeds[slot(hash(0, buffer, start, end), seeds.length)], buffer, start, end), names.length);
+    byte[] name = names[slot];
+    if (name == null || name.length != end - start) {
+      return -1;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (name[i] != lowerCase(buffer.getByte(start + i))) {
+        return -1;
+      }
+    }
+    return slot;
+  }
+
+  static int protocolIndex(String protocol) {
+    for (int i = 0; i < PROTOCOLS.length; i++) {
+      if (PROTOCOLS[i].equalsIgnoreCase(protocol)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int protocolIndex(DrillBuf buffer, int start, int end) {
+    for (int i = 0; i < PROTOCOLS.length; i++) {
+      String protocol = PROTOCOLS[i];
+      if (protocol.length() != end - start) {
+        continue;
+      }
+      int j = 0;
+      while (j < protocol.length() && protocol.charAt(j) == lowerCase(buffer.getByte(start + j))) {
+        j++;
+      }
+      if (j == protocol.length()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // FNV-1a over the lower cased bytes, finished with the murmur3 mixer
+  private static int hash(int seed, byte[] key) {
+    int h = 0x811C9DC5 ^ seed * 0x9E3779B9;
+    for (byte b : key) {
+      h = (h ^ lowerCase(b)) * 0x01000193;
+    }
+    return mix(h);
+  }
+
+  private static int hash(int seed, DrillBuf buffer, int start, int end) {
+    int h = 0x811C9DC5 ^ seed * 0x9E3779B9;
+    for (int i = start; i < end; i++) {
+      h = (h ^ lowerCase(buffer.getByte(i))) * 0x01000193;
+    }
+    return mix(h);
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
+
+  private static int slot(int hash, int size) {
+    return (int) ((hash & 0xFFFFFFFFL) % size);
+  }
+
+  private static byte lowerCase(byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Service names of the port registry in arrays indexed by port, one per transport protocol, encoded as
+ * UTF-8 when the registry is loaded. Flow records carry the protocol as its IANA number, so with this
+ * table a flow is enriched by two array reads, without building a string key per row.
+ *
+ * <p>It also classifies ports into the IANA ranges with precomputed bitsets over the port space.</p>
+ */
+public class ServicePortTable {
+
+  public static final int PORT_COUNT = 65536;
+
+  // IANA protocol numbers of the protocols in ServiceNameIndex.PROTOCOLS, in the same order
+  private static final int[] PROTOCOL_NUMBERS = {6, 17, 132, 33};
+
+  private static final byte[] UNKNOWN = "Unknown".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] WELL_KNOWN = "well-known".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] REGISTERED = "registered".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] EPHEMERAL = "ephemeral".getBytes(StandardCharsets.UTF_8);
+
+  private static final long[] wellKnownPorts = portRange(0, 1023);
+  private static final long[] registeredPorts = portRange(1024, 49151);
+  private static final long[] ephemeralPorts = portRange(49152, 65535);
+
+  private final byte[][][] descriptions;
+
+  private ServicePortTable(byte[][][] descriptions) {
+    this.descriptions = descriptions;
+  }
+
+  /**
+   * Builds the table from the registry entries as service name, port, protocol and description. Later
+   * entries for a port replace earlier ones, as in {@link SecurityHelperFunctions#getPortHashMap()}.
+   */
+  public static ServicePortTable build(List<String[]> entries) {
+    byte[][][] descriptions = new byte[PROTOCOL_NUMBERS.length][PORT_COUNT][];
+    for (String[] entry : entries) {
+      int protocol = ServiceNameIndex.protocolIndex(entry[2]);
+      int port = Integer.parseInt(entry[1]);
+      if (protocol < 0 || port >= PORT_COUNT) {
+        continue;
+      }
+      // The map stops the description at the first comma, keep the same values
+      String description = entry.length < 4 ? "" : entry[3].split(",", -1)[0];
+      descriptions[protocol][port] = description.getBytes(StandardCharsets.UTF_8);
+    }
+    return new ServicePortTable(descriptions);
+  }
+
+  /**
+   * Returns the UTF-8 encoded description of the service on a port for a protocol given by its IANA
+   * number, e.g. 6 for TCP, or {@code Unknown}.
+   */
+  public byte[] getDescription(int port, int protocolNumber) {
+    int protocol = protocolIndex(protocolNumber);
+    if (protocol < 0 || port < 0 || port >= PORT_COUNT) {
+      return UNKNOWN;
+    }
+    byte[] description = descriptions[protocol][port];
+    return description == null ? UNKNOWN : description;
+  }
+
+  public int size() {
+    int count = 0;
+    for (byte[][] byPort : descriptions) {
+      for (byte[] description : byPort) {
+        if (description != null) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  static int protocolIndex(int protocolNumber) {
+    for (int i = 0; i < PROTOCOL_NUMBERS.length; i++) {
+      if (PROTOCOL_NUMBERS[i] == protocolNumber) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public static boolean isWellKnownPort(int port) {
+    return contains(wellKnownPorts, port);
+  }
+
+  public static boolean isRegisteredPort(int port) {
+    return contains(registeredPorts, port);
+  }
+
+  public static boolean isEphemeralPort(int port) {
+    return contains(ephemeralPorts, port);
+  }
+
+  /**
+   * Returns the UTF-8 encoded name of the range of a port: {@code well-known}, {@code registered},
+   * {@code ephemeral}, or {@code Unknown} for numbers outside the port space.
+   */
+  public static byte[] getCategory(int port) {
+    if (contains(wellKnownPorts, port)) {
+      return WELL_KNOWN;
+    } else if (contains(registeredPorts, port)) {
+      return REGISTERED;
+    } else if (contains(ephemeralPorts, port)) {
+      return EPHEMERAL;
+    }
+    return UNKNOWN;
+  }
+
+  private static boolean contains(long[] ports, int port) {
+    return port >= 0 && port < PORT_COUNT && (ports[port >>> 6] & (1L << port)) != 0;
+  }
+
+  private static long[] portRange(int first, int last) {
+    long[] ports = new long[PORT_COUNT / 64];
+    for (int port = first; port <= last; port++) {
+      ports[port >>> 6] |= 1L << port;
+    }
+    return ports;
+  }
+}
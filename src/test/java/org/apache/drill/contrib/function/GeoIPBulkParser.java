@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.exec.vector.NullableVarCharVector;
+import org.apache.drill.exec.vector.VarCharVector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Parses a whole VarChar vector of address text into primitive columns: the family of each row, and its
+ * address as an int for IPv4 or as two longs for IPv6. The text is copied out of the vector in one call
+ * and the dotted quads are found by a {@link GeoIPDottedQuadScanner}; the remaining rows, IPv6 and the
+ * short IPv4 forms, are parsed one by one with {@link GeoIPLookup#parse}, so every row gets the address
+ * the row at a time functions would find.
+ *
+ * <p>Drill calls the functions one row at a time, so nothing in the functions takes a whole vector yet; the
+ * parser lives with {@link GeoIPParseBenchmark} until a batch caller, such as a format plugin, exists.</p>
+ *
+ * <p>The arrays grow to the largest batch and are reused, so a parser belongs to one thread.</p>
+ */
+public class GeoIPBulkParser {
+
+  public static final byte INVALID = 0;
+  public static final byte IPV4 = 4;
+  public static final byte IPV6 = 6;
+
+  // Bytes after the text that a scanner may read, so a row can be loaded as one 16 byte vector
+  static final int PADDING = 16;
+
+  private final GeoIPDottedQuadScanner scanner;
+  private byte[] text = new byte[PADDING];
+  private int[] starts = new int[1];
+  private byte[] families = new byte[0];
+  private int[] ipv4 = new int[0];
+  private long[] ipv6High = new long[0];
+  private long[] ipv6Low = new long[0];
+  private int count;
+
+  public GeoIPBulkParser() {
+    this(GeoIPScanners.create());
+  }
+
+  public GeoIPBulkParser(GeoIPDottedQuadScanner scanner) {
+    this.scanner = scanner;
+  }
+
+  public int parse(VarCharVector vector) {
+    return parse(vector.getBuffer(), vector.getOffsetVector().getBuffer(), vector.getAccessor().getValueCount());
+  }
+
+  /**
+   * Parses a nullable vector, where null rows are {@link #INVALID}.
+   */
+  public int parse(NullableVarCharVector vector) {
+    NullableVarCharVector.Accessor accessor = vector.getAccessor();
+    int rows = parse(vector.getValuesVector().getBuffer(), vector.getOffsetVector().getBuffer(),
+      accessor.getValueCount());
+    for (int i = 0; i < rows; i++) {
+      if (accessor.isNull(i)) {
+        families[i] = INVALID;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Parses the rows of a variable width vector given by its data and offset buffers, and returns their
+   * number.
+   */
+  public int parse(DrillBuf data, DrillBuf offsets, int count) {
+    ensureCapacity(count);
+    int base = count == 0 ? 0 : offsets.getInt(0);
+    int length = count == 0 ? 0 : offsets.getInt(count * 4) - base;
+    if (text.length < length + PADDING) {
+      text = new byte[Integer.highestOneBit(length + PADDING) << 1];
+    }
+    data.getBytes(base, text, 0, length);
+    offsets.nioBuffer(0, (count + 1) * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(starts, 0, count + 1);
+    if (base != 0) {
+      for (int i = 0; i <= count; i++) {
+        starts[i] -= base;
+      }
+    }
+    this.count = count;
+
+    int found = scanner.scan(text, starts, count, families, ipv4);
+    if (found == count) {
+      return count;
+    }
+    for (int i = 0; i < count; i++) {
+      if (families[i] == INVALID && starts[i + 1] > starts[i]) {
+        byte[] address = GeoIPLookup.parse(data, base + starts[i], base + starts[i + 1]);
+        if (address == null) {
+          continue;
+        }
+        if (address.length == 4) {
+          families[i] = IPV4;
+          ipv4[i] = GeoIPSnapshot.toInt(address, 0);
+        } else {
+          families[i] = IPV6;
+          ipv6High[i] = GeoIPSnapshot.toLong(address, 0);
+          ipv6Low[i] = GeoIPSnapshot.toLong(address, 8);
+        }
+      }
+    }
+    return count;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public byte getFamily(int row) {
+    return families[row];
+  }
+
+  public int getIpv4(int row) {
+    return ipv4[row];
+  }
+
+  public long getIpv6High(int row) {
+    return ipv6High[row];
+  }
+
+  public long getIpv6Low(int row) {
+    return ipv6Low[row];
+  }
+
+  /**
+   * Returns the address of a row as {@link GeoIPLookup#parse} does, or null if the row is not one.
+   */
+  public byte[] getAddress(int row) {
+    switch (families[row]) {
+      case IPV4:
+        return ByteBuffer.allocate(4).putInt(ipv4[row]).array();
+      case IPV6:
+        return ByteBuffer.allocate(16).putLong(ipv6High[row]).putLong(ipv6Low[row]).array();
+      default:
+        return null;
+    }
+  }
+
+  public String getScannerName() {
+    return scanner.getName();
+  }
+
+  private void ensureCapacity(int rows) {
+    if (families.length >= rows) {
+      return;
+    }
+    starts = new int[rows + 1];
+    families = new byte[rows];
+    ipv4 = new int[rows];
+    ipv6High = new long[rows];
+    ipv6Low = new long[rows];
+  }
+}
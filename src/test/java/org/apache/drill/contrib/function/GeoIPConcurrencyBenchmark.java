@@ -0,0 +1,588 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import io.netty.buffer.DrillBuf;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.drill.common.exceptions.UserException;
+import org.apache.drill.contrib.function.GeoIPSnapshot.Column;
+import org.apache.drill.exec.expr.holders.VarCharHolder;
+import org.apache.drill.exec.memory.BufferAllocator;
+import org.apache.drill.exec.memory.RootAllocatorFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Stress and scaling harness for the lookup paths shared by the GeoIP and protocol functions. It makes the
+ * calls of the functions' {@code setup()} and {@code eval()} bodies from 1..N threads over a mix of hot,
+ * Zipf distributed addresses and cold, random ones, while another thread keeps reloading the databases,
+ * and checks every result against a reference computed by a single thread beforehand.
+ *
+ * <p>For each thread count it reports throughput and its scaling over one thread, sampled latencies, and
+ * the lock contention of the worker threads, read from a JFR recording of monitor enter and thread park
+ * events. It exits with status 1 if any result differs from the reference.</p>
+ *
+ * <pre>
+ *   java -cp drill-geoip-functions.jar:$DRILL_HOME/conf:$DRILL_HOME/jars/*:$DRILL_HOME/jars/3rdparty/* \
+ *     org.apache.drill.contrib.function.GeoIPConcurrencyBenchmark --threads 1,2,4,8 --seconds 10 --reload-ms 500
+ * </pre>
+ */
+public class GeoIPConcurrencyBenchmark {
+
+  private static final String WORKER_PREFIX = "geoip-worker-";
+
+  private static final String[] SERVICE_NAMES = {"http", "https", "ssh", "domain", "smtp", "ntp", "ms-wbt-server",
+    "mysql", "microsoft-ds", "http-alt", "imaps", "snmp", "ftp", "postgresql", "openvpn", "no-such-service"};
+
+  private static final String[] PROTOCOLS = {"tcp", "udp"};
+
+  // One row in this many is timed, which keeps the clock reads out of the throughput
+  private static final int LATENCY_SAMPLING = 16;
+
+  private static final long WARMUP_NANOS = 2_000_000_000L;
+
+  private final String[] databases;
+  private final int fragmentRows;
+  private final DrillBuf keys;
+  private final int[] addressStarts;
+  private final int[] addressEnds;
+  private final int[] nameStarts;
+  private final int[] nameEnds;
+  private final int[] protocolStarts;
+  private final int[] protocolEnds;
+  private final int[] ports;
+  private final int[] protocols;
+  private long[] expected;
+
+  private GeoIPConcurrencyBenchmark(String[] databases, int fragmentRows, DrillBuf keys, int[] addressStarts,
+                                    int[] addressEnds, int[] nameStarts, int[] nameEnds, int[] protocolStarts,
+                                    int[] protocolEnds, int[] ports, int[] protocols) {
+    this.databases = databases;
+    this.fragmentRows = fragmentRows;
+    this.keys = keys;
+    this.addressStarts = addressStarts;
+    this.addressEnds = addressEnds;
+    this.nameStarts = nameStarts;
+    this.nameEnds = nameEnds;
+    this.protocolStarts = protocolStarts;
+    this.protocolEnds = protocolEnds;
+    this.ports = ports;
+    this.protocols = protocols;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int available = Runtime.getRuntime().availableProcessors();
+    List<Integer> threadCounts = new ArrayList<>();
+    for (int threads = 1; threads < available; threads *= 2) {
+      threadCounts.add(threads);
+    }
+    threadCounts.add(available);
+    int seconds = 5;
+    int keyCount = 200_000;
+    double hotShare = 0.8;
+    long reloadMillis = 500;
+    int fragmentRows = 4096;
+    long seed = 42;
+    long lockThresholdMicros = 10;
+    boolean recordContention = true;
+    String[] databases = {SecurityHelperFunctions.COUNTRY_DATABASE, SecurityHelperFunctions.CITY_DATABASE,
+      SecurityHelperFunctions.ASN_DATABASE};
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--threads":
+          threadCounts.clear();
+          Arrays.stream(args[++i].split(",")).map(Integer::parseInt).forEach(threadCounts::add);
+          break;
+        case "--seconds":
+          seconds = Integer.parseInt(args[++i]);
+          break;
+        case "--keys":
+          keyCount = Integer.parseInt(args[++i]);
+          break;
+        case "--hot-share":
+          hotShare = Double.parseDouble(args[++i]);
+          break;
+        case "--reload-ms":
+          reloadMillis = Long.parseLong(args[++i]);
+          break;
+        case "--fragment-rows":
+          fragmentRows = Integer.parseInt(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        case "--databases":
+          databases = args[++i].split(",");
+          break;
+        case "--lock-threshold-us":
+          lockThresholdMicros = Long.parseLong(args[++i]);
+          break;
+        case "--no-jfr":
+          recordContention = false;
+          break;
+        default:
+          System.err.println("Usage: GeoIPConcurrencyBenchmark [--threads 1,2,4] [--seconds n] [--keys n] [--hot-share 0.8] "
+            + "[--reload-ms n, 0 for none] [--fragment-rows n] [--seed n] [--databases name,...] "
+            + "[--lock-threshold-us n] [--no-jfr]");
+          System.exit(1);
+      }
+    }
+
+    List<String> loadedDatabases = new ArrayList<>();
+    for (String database : databases) {
+      try {
+        long start = System.nanoTime();
+        lookup(database);
+        System.out.printf("Loaded %s in %d ms%n", database, (System.nanoTime() - start) / 1_000_000);
+        loadedDatabases.add(database);
+      } catch (UserException e) {
+        System.out.printf("Skipping %s: %s%n", database, e.getOriginalMessage());
+      }
+    }
+
+    try (BufferAllocator allocator = RootAllocatorFactory.newRoot(Long.MAX_VALUE)) {
+      GeoIPConcurrencyBenchmark benchmark = create(allocator, loadedDatabases.toArray(new String[0]),
+        fragmentRows, keyCount, hotShare, seed);
+      try {
+        benchmark.computeReference(allocator);
+        boolean consistent = benchmark.run(allocator, threadCounts, seconds, reloadMillis,
+          recordContention ? lockThresholdMicros : -1);
+        if (!consistent) {
+          System.exit(1);
+        }
+      } finally {
+        benchmark.keys.release();
+      }
+    }
+  }
+
+  /**
+   * Generates the keys and writes them to one buffer, the way a batch holds a VarChar column.
+   */
+  private static GeoIPConcurrencyBenchmark create(BufferAllocator allocator, String[] databases, int fragmentRows,
+                                                  int keyCount, double hotShare, long seed) {
+    SyntheticLogGenerator generator = new SyntheticLogGenerator(seed, 10_000, 0.2, 0.01);
+    Random random = new Random(seed);
+    byte[][] addresses = new byte[keyCount][];
+    byte[][] names = new byte[keyCount][];
+    int[] ports = new int[keyCount];
+    int[] protocols = new int[keyCount];
+    int size = 0;
+    for (String protocol : PROTOCOLS) {
+      size += protocol.length();
+    }
+    for (int i = 0; i < keyCount; i++) {
+      String address;
+      if (random.nextDouble() < hotShare) {
+        address = generator.nextSource();
+      } else {
+        address = random.nextDouble() < 0.2 ? generator.randomIpv6() : generator.randomIpv4();
+      }
+      addresses[i] = address.getBytes(StandardCharsets.UTF_8);
+      names[i] = SERVICE_NAMES[random.nextInt(SERVICE_NAMES.length)].getBytes(StandardCharsets.UTF_8);
+      ports[i] = generator.nextPort();
+      protocols[i] = random.nextInt(PROTOCOLS.length);
+      size += addresses[i].length + names[i].length;
+    }
+
+    DrillBuf keys = allocator.buffer(size);
+    int offset = 0;
+    int[] protocolStarts = new int[PROTOCOLS.length];
+    int[] protocolEnds = new int[PROTOCOLS.length];
+    for (int i = 0; i < PROTOCOLS.length; i++) {
+      protocolStarts[i] = offset;
+      offset = write(keys, offset, PROTOCOLS[i].getBytes(StandardCharsets.UTF_8));
+      protocolEnds[i] = offset;
+    }
+    int[] addressStarts = new int[keyCount];
+    int[] addressEnds = new int[keyCount];
+    int[] nameStarts = new int[keyCount];
+    int[] nameEnds = new int[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      addressStarts[i] = offset;
+      offset = write(keys, offset, addresses[i]);
+      addressEnds[i] = offset;
+      nameStarts[i] = offset;
+      offset = write(keys, offset, names[i]);
+      nameEnds[i] = offset;
+    }
+    return new GeoIPConcurrencyBenchmark(databases, fragmentRows, keys, addressStarts, addressEnds, nameStarts,
+      nameEnds, protocolStarts, protocolEnds, ports, protocols);
+  }
+
+  private static int write(DrillBuf buffer, int offset, byte[] bytes) {
+    buffer.setBytes(offset, bytes);
+    return offset + bytes.length;
+  }
+
+  private static GeoIPLookup lookup(String database) {
+    return SecurityHelperFunctions.ANONYMOUS_IP_DATABASE.equals(database)
+      ? GeoIPLookup.anonymousIp()
+      : GeoIPLookup.forDatabase(database);
+  }
+
+  private void computeReference(BufferAllocator allocator) {
+    long start = System.nanoTime();
+    Worker reference = new Worker(0, allocator, 0);
+    try {
+      reference.setup();
+      expected = new long[addressStarts.length];
+      for (int key = 0; key < expected.length; key++) {
+        expected[key] = reference.fingerprint(key);
+      }
+    } finally {
+      reference.close();
+    }
+    System.out.printf("Computed the reference of %,d keys over %s in %d ms%n%n", expected.length,
+      Arrays.toString(databases), (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private boolean run(BufferAllocator allocator, List<Integer> threadCounts, int seconds, long reloadMillis,
+                      long lockThresholdMicros) throws Exception {
+    System.out.printf("%7s %14s %8s %10s %9s %9s %9s %9s %8s %10s %9s %9s%n", "threads", "rows/s", "speedup",
+      "efficiency", "p50 us", "p99 us", "p99.9 us", "max us", "reloads", "mismatches", "lock ms", "park ms");
+    // Let the JIT compile the lookup paths before the first measurement
+    Worker warmup = new Worker(0, allocator, System.nanoTime() + WARMUP_NANOS);
+    warmup.run();
+    warmup.close();
+    double baseline = 0;
+    long totalMismatches = warmup.mismatches;
+    Map<Integer, Contention> contentionByThreads = new HashMap<>();
+    for (int threads : threadCounts) {
+      Recording recording = lockThresholdMicros < 0 ? null : startRecording(lockThresholdMicros);
+      Reloader reloader = reloadMillis > 0 ? new Reloader(reloadMillis) : null;
+      List<Worker> workers = new ArrayList<>();
+      List<Thread> running = new ArrayList<>();
+      long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+      for (int i = 0; i < threads; i++) {
+        Worker worker = new Worker(i, allocator, deadline);
+        workers.add(worker);
+        running.add(new Thread(worker, WORKER_PREFIX + i));
+      }
+      long start = System.nanoTime();
+      if (reloader != null) {
+        reloader.start();
+      }
+      running.forEach(Thread::start);
+      for (Thread thread : running) {
+        thread.join();
+      }
+      long elapsed = System.nanoTime() - start;
+      if (reloader != null) {
+        reloader.finish();
+      }
+      Contention contention = recording == null ? null : stopRecording(recording);
+
+      long operations = 0;
+      long mismatches = 0;
+      List<long[]> samples = new ArrayList<>();
+      for (Worker worker : workers) {
+        operations += worker.operations;
+        mismatches += worker.mismatches;
+        samples.add(Arrays.copyOf(worker.latencies, worker.latencyCount));
+        if (worker.mismatches > 0) {
+          int key = worker.firstMismatch;
+          System.out.printf("  %s: %,d results differ from the reference, the first for '%s'%n", WORKER_PREFIX + worker.id,
+            worker.mismatches, keys.toString(addressStarts[key], addressEnds[key] - addressStarts[key], StandardCharsets.UTF_8));
+        }
+        worker.close();
+      }
+      long[] latencies = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+      double rate = operations * 1e9 / elapsed;
+      if (baseline == 0) {
+        baseline = rate / threads;
+      }
+      totalMismatches += mismatches;
+      System.out.printf("%7d %,14.0f %8.2f %10.2f %9.2f %9.2f %9.2f %9.2f %8d %10d %9s %9s%n", threads, rate,
+        rate / baseline, rate / baseline / threads, percentile(latencies, 0.5), percentile(latencies, 0.99),
+        percentile(latencies, 0.999), percentile(latencies, 1.0), reloader == null ? 0 : reloader.reloads, mismatches,
+        contention == null ? "-" : String.format("%.1f", contention.monitorNanos / 1e6),
+        contention == null ? "-" : String.format("%.1f", contention.parkNanos / 1e6));
+      if (contention != null) {
+        contentionByThreads.put(threads, contention);
+      }
+    }
+
+    for (int threads : threadCounts) {
+      Contention contention = contentionByThreads.get(threads);
+      if (contention != null && !contention.sites.isEmpty()) {
+        System.out.printf("%nContention at %d threads (%d monitor enters, %d parks):%n", threads,
+          contention.monitorEvents, contention.parkEvents);
+        contention.sites.entrySet().stream()
+          .sorted((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]))
+          .limit(5)
+          .forEach(site -> System.out.printf("  %,8d events %10.1f ms  %s%n", site.getValue()[0],
+            site.getValue()[1] / 1e6, site.getKey()));
+      }
+    }
+    System.out.printf("%n%s%n", totalMismatches == 0
+      ? "All results match the single threaded reference."
+      : String.format("%,d results differ from the single threaded reference.", totalMismatches));
+    return totalMismatches == 0;
+  }
+
+  private static double percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+    return sorted[Math.max(0, index)] / 1000.0;
+  }
+
+  private static Recording startRecording(long lockThresholdMicros) {
+    Recording recording = new Recording();
+    recording.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ofNanos(lockThresholdMicros * 1000)).withStackTrace();
+    recording.enable("jdk.ThreadPark").withThreshold(Duration.ofNanos(lockThresholdMicros * 1000)).withStackTrace();
+    recording.start();
+    return recording;
+  }
+
+  private static Contention stopRecording(Recording recording) throws IOException {
+    Path file = Files.createTempFile("geoip-contention", ".jfr");
+    try {
+      recording.stop();
+      recording.dump(file);
+      Contention contention = new Contention();
+      for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        RecordedThread thread = event.getThread();
+        if (thread != null && thread.getJavaName() != null && thread.getJavaName().startsWith(WORKER_PREFIX)) {
+          contention.add(event);
+        }
+      }
+      return contention;
+    } finally {
+      recording.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Lock contention of the worker threads, with the time spent blocked by the code that blocked.
+   */
+  private static class Contention {
+    private long monitorEvents;
+    private long monitorNanos;
+    private long parkEvents;
+    private long parkNanos;
+    private final Map<String, long[]> sites = new HashMap<>();
+
+    void add(RecordedEvent event) {
+      long nanos = event.getDuration().toNanos();
+      String site;
+      if ("jdk.JavaMonitorEnter".equals(event.getEventType().getName())) {
+        monitorEvents++;
+        monitorNanos += nanos;
+        site = "monitor " + event.getClass("monitorClass").getName() + " in " + caller(event);
+      } else {
+        parkEvents++;
+        parkNanos += nanos;
+        site = "park in " + caller(event);
+      }
+      long[] total = sites.computeIfAbsent(site, key -> new long[2]);
+      total[0]++;
+      total[1] += nanos;
+    }
+
+    // The first frame outside of the JDK's lock implementations
+    private static String caller(RecordedEvent event) {
+      if (event.getStackTrace() == null) {
+        return "unknown";
+      }
+      for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+        String type = frame.getMethod().getType().getName();
+        if (!type.startsWith("java.util.concurrent.locks.") && !type.startsWith("jdk.internal.misc.")) {
+          return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+        }
+      }
+      return "unknown";
+    }
+  }
+
+  /**
+   * Reloads the databases one after the other, as when new releases are installed on a running drillbit.
+   */
+  private class Reloader extends Thread {
+    private final long intervalMillis;
+    private volatile boolean finished;
+    private int reloads;
+
+    Reloader(long intervalMillis) {
+      super("geoip-reloader");
+      this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void run() {
+      while (!finished) {
+        try {
+          Thread.sleep(intervalMillis);
+        } catch (InterruptedException e) {
+          return;
+        }
+        String database = databases[reloads % databases.length];
+        SecurityHelperFunctions.reloadDatabase(database);
+        reloads++;
+      }
+    }
+
+    void finish() throws InterruptedException {
+      finished = true;
+      interrupt();
+      join();
+    }
+  }
+
+  /**
+   * Runs the work of one fragment after another: the shared lookups are taken again every
+   * {@code fragmentRows} rows, as {@code setup()} would, and every row calls the lookup paths of the
+   * functions and folds their results into a fingerprint.
+   */
+  private class Worker implements Runnable {
+    private final int id;
+    private final long deadline;
+    private final VarCharHolder out = new VarCharHolder();
+    private final long[] latencies = new long[1 << 20];
+    private DrillBuf buffer;
+    private GeoIPLookup[] lookups;
+    private Column[][] columns;
+    private ServiceNameIndex services;
+    private Map<?, ?> serviceInfo;
+    private int latencyCount;
+    private long operations;
+    private long mismatches;
+    private int firstMismatch = -1;
+
+    Worker(int id, BufferAllocator allocator, long deadline) {
+      this.id = id;
+      this.deadline = deadline;
+      this.buffer = allocator.buffer(4096);
+      // The protocol functions build their own map in setup(), which is too slow to repeat per fragment here
+      this.serviceInfo = SecurityHelperFunctions.getPortHashMap();
+    }
+
+    void setup() {
+      lookups = new GeoIPLookup[databases.length];
+      columns = new Column[databases.length][];
+      for (int i = 0; i < databases.length; i++) {
+        lookups[i] = lookup(databases[i]);
+        columns[i] = columns(databases[i]);
+      }
+      services = SecurityHelperFunctions.getServiceNameIndex();
+    }
+
+    @Override
+    public void run() {
+      int keyCount = expected.length;
+      int key = (int) ((long) id * keyCount / 64 % keyCount);
+      while (true) {
+        if (operations % fragmentRows == 0) {
+          if (System.nanoTime() >= deadline) {
+            return;
+          }
+          setup();
+        }
+        boolean timed = operations % LATENCY_SAMPLING == 0 && latencyCount < latencies.length;
+        long start = timed ? System.nanoTime() : 0;
+        long result = fingerprint(key);
+        if (timed) {
+          latencies[latencyCount++] = System.nanoTime() - start;
+        }
+        if (result != expected[key]) {
+          if (mismatches++ == 0) {
+            firstMismatch = key;
+          }
+        }
+        operations++;
+        if (++key == keyCount) {
+          key = 0;
+        }
+      }
+    }
+
+    long fingerprint(int key) {
+      long hash = 1;
+      for (int i = 0; i < lookups.length; i++) {
+        GeoIPLookup lookup = lookups[i];
+        int record = lookup.find(keys, addressStarts[key], addressEnds[key]);
+        for (Column column : columns[i]) {
+          hash = hash * 31 + value(lookup, column, record);
+        }
+      }
+      int protocol = protocols[key];
+      Object service = serviceInfo.get(ports[key] + ":" + PROTOCOLS[protocol]);
+      hash = hash * 31 + (service == null ? 0 : service.hashCode());
+      int[] servicePorts = services.getPorts(keys, nameStarts[key], nameEnds[key],
+        keys, protocolStarts[protocol], protocolEnds[protocol]);
+      return hash * 31 + Arrays.hashCode(servicePorts);
+    }
+
+    private long value(GeoIPLookup lookup, Column column, int record) {
+      if (column.isString()) {
+        buffer = lookup.writeString(column, record, "Unknown", out, buffer);
+        long hash = 0;
+        for (int i = out.start; i < out.end; i++) {
+          hash = hash * 31 + out.buffer.getByte(i);
+        }
+        return hash;
+      }
+      switch (column) {
+        case LATITUDE:
+        case LONGITUDE:
+          return Double.doubleToLongBits(lookup.getDouble(column, record));
+        case ASN:
+          return lookup.getLong(column, record);
+        default:
+          return lookup.getInt(column, record);
+      }
+    }
+
+    void close() {
+      buffer.release();
+    }
+  }
+
+  private static Column[] columns(String database) {
+    switch (database) {
+      case SecurityHelperFunctions.CITY_DATABASE:
+        return new Column[] {Column.CITY_NAME, Column.POSTAL_CODE, Column.TIME_ZONE, Column.LATITUDE,
+          Column.LONGITUDE, Column.ACCURACY_RADIUS};
+      case SecurityHelperFunctions.ASN_DATABASE:
+        return new Column[] {Column.ASN, Column.ASN_ORGANIZATION};
+      case SecurityHelperFunctions.ANONYMOUS_IP_DATABASE:
+        return new Column[] {Column.IS_ANONYMOUS, Column.IS_ANONYMOUS_VPN, Column.IS_TOR_EXIT_NODE};
+      default:
+        return new Column[] {Column.COUNTRY_ISO_CODE, Column.COUNTRY_NAME, Column.IS_IN_EUROPEAN_UNION};
+    }
+  }
+}
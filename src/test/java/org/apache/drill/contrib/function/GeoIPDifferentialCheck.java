@@ -0,0 +1,1678 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.geometry.ogc.OGCPoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.model.AbstractCityResponse;
+import com.maxmind.geoip2.model.AbstractCountryResponse;
+import com.maxmind.geoip2.model.AnonymousIpResponse;
+import com.maxmind.geoip2.model.AsnResponse;
+import io.netty.buffer.DrillBuf;
+import org.apache.drill.contrib.function.GeoIPSnapshot.Column;
+import org.apache.drill.exec.expr.DrillSimpleFunc;
+import org.apache.drill.exec.expr.annotations.Output;
+import org.apache.drill.exec.expr.annotations.Param;
+import org.apache.drill.exec.expr.holders.BigIntHolder;
+import org.apache.drill.exec.expr.holders.BitHolder;
+import org.apache.drill.exec.expr.holders.Float8Holder;
+import org.apache.drill.exec.expr.holders.IntHolder;
+import org.apache.drill.exec.expr.holders.NullableBigIntHolder;
+import org.apache.drill.exec.expr.holders.NullableBitHolder;
+import org.apache.drill.exec.expr.holders.NullableFloat8Holder;
+import org.apache.drill.exec.expr.holders.NullableVarCharHolder;
+import org.apache.drill.exec.expr.holders.TimeStampHolder;
+import org.apache.drill.exec.expr.holders.VarBinaryHolder;
+import org.apache.drill.exec.expr.holders.VarCharHolder;
+import org.apache.drill.exec.memory.BufferAllocator;
+import org.apache.drill.exec.memory.RootAllocatorFactory;
+import org.apache.drill.exec.util.Text;
+import org.apache.drill.exec.vector.complex.MapVector;
+import org.apache.drill.exec.vector.complex.impl.ComplexWriterImpl;
+import org.apache.drill.exec.vector.complex.writer.BaseWriter.ComplexWriter;
+import org.apache.drill.shaded.guava.com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Randomized differential check of the GeoIP and protocol functions against the code paths they replaced:
+ * the MaxMind {@link DatabaseReader} over {@link InetAddress#getByName(String)}, with the defaults the
+ * functions always had, and the registry map of {@link SecurityHelperFunctions#getPortHashMap()}. It runs
+ * offline, on City, Country, ASN and Anonymous-IP databases and dated releases generated with
+ * {@link MaxMindDbWriter} from a seed.
+ *
+ * <p>Addresses are drawn uniformly from both families, from the first and last addresses of the generated
+ * networks and their neighbours, as IPv4-mapped, IPv4-compatible and 6to4 IPv6 addresses in several
+ * notations, and from malformed text. Every function of {@link GeoIPFunctions} and {@link ProtocolFunctions}
+ * is set up and evaluated the way Drill's generated code calls it, with each set of constant arguments in
+ * turn, and a function without a reference here fails the check. The lookup engines are also compared
+ * column by column: raw databases, compiled snapshots, the Anonymous-IP prefilter and the batch memo.</p>
+ *
+ * <p>The functions read the databases generated in the directory given with {@code --dir} through
+ * {@code drill.geoip.database.location}, before those on the classpath. Host names are not resolved by the
+ * reference either, as the functions never resolved them: {@code jdk.net.hosts.file} points to an empty file.
+ * {@code TestGeoIPDifferentialRaw} and {@code TestGeoIPDifferentialSnapshot} run it as part of the tests; from
+ * the command line it exits with status 1 if any result differs and prints the first differences of each
+ * check.</p>
+ *
+ * <pre>
+ *   java -cp target/test-classes:target/classes:$DRILL_HOME/conf:$DRILL_HOME/jars/*:$DRILL_HOME/jars/3rdparty/* \
+ *     org.apache.drill.contrib.function.GeoIPDifferentialCheck --dir /tmp/geoip-check --addresses 5000000 --engine snapshot
+ * </pre>
+ */
+public class GeoIPDifferentialCheck {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPDifferentialCheck.class);
+
+  private static final String[] LANGUAGES = {"en", "de", "es", "fr", "ja", "pt-BR", "ru", "zh-CN"};
+
+  private static final String[] DATABASES = {SecurityHelperFunctions.COUNTRY_DATABASE,
+    SecurityHelperFunctions.CITY_DATABASE, SecurityHelperFunctions.ASN_DATABASE,
+    SecurityHelperFunctions.ANONYMOUS_IP_DATABASE};
+
+  // Databases with dated releases for the functions that take a timestamp
+  private static final String[] VERSIONED_DATABASES = {SecurityHelperFunctions.COUNTRY_DATABASE,
+    SecurityHelperFunctions.CITY_DATABASE, SecurityHelperFunctions.ASN_DATABASE};
+
+  // 2023-01-03 and 2023-06-06, the current release is the one on the classpath
+  private static final long PREVIOUS_RELEASE = 1_672_704_000L;
+  private static final long CURRENT_RELEASE = 1_686_009_600L;
+
+  // Event times span both releases and the time before the first one
+  private static final long FIRST_EVENT = 1_656_633_600_000L;
+  private static final long LAST_EVENT = 1_704_067_200_000L;
+
+  // Country code, English name, local name, continent, time zones. The local names go into some languages.
+  private static final String[][] COUNTRIES = {
+    {"DE", "Germany", "Deutschland", "EU", "Europe/Berlin"},
+    {"FR", "France", "R\u00e9publique fran\u00e7aise", "EU", "Europe/Paris"},
+    {"ES", "Spain", "Espa\u00f1a", "EU", "Europe/Madrid"},
+    {"PT", "Portugal", "Portugal", "EU", "Europe/Lisbon"},
+    {"RU", "Russia", "\u0420\u043e\u0441\u0441\u0438\u044f", "EU", "Europe/Moscow", "Asia/Vladivostok"},
+    {"JP", "Japan", "\u65e5\u672c", "AS", "Asia/Tokyo"},
+    {"CN", "China", "\u4e2d\u56fd", "AS", "Asia/Shanghai"},
+    {"IN", "India", "\u092d\u093e\u0930\u0924", "AS", "Asia/Kolkata"},
+    {"BR", "Brazil", "Brasil", "SA", "America/Sao_Paulo", "America/Manaus"},
+    {"US", "United States", "United States", "NA", "America/New_York", "America/Chicago", "America/Los_Angeles"},
+    {"CA", "Canada", "Canada", "NA", "America/Toronto", "America/St_Johns"},
+    {"MX", "Mexico", "M\u00e9xico", "NA", "America/Mexico_City"},
+    {"CI", "C\u00f4te d'Ivoire", "C\u00f4te d'Ivoire", "AF", "Africa/Abidjan"},
+    {"ZA", "South Africa", "Suid-Afrika", "AF", "Africa/Johannesburg"},
+    {"AU", "Australia", "Australia", "OC", "Australia/Sydney", "Australia/Lord_Howe"},
+    {"NP", "Nepal", "\u0928\u0947\u092a\u093e\u0932", "AS", "Asia/Kathmandu"}
+  };
+
+  private static final Set<String> EU_COUNTRIES = new TreeSet<>(Arrays.asList("DE", "FR", "ES", "PT"));
+
+  private static final String[] CITY_STEMS = {"Springfield", "N\u00f8rrebro", "S\u00e3o Louren\u00e7o", "\u0141\u00f3d\u017a", "Z\u00fcrich",
+    "Ky\u014dto", "\u041c\u043e\u0441\u043a\u0432\u0430", "\u5317\u4eac", "Saint-\u00c9tienne", "\u014csaka", "\u00c5rhus", "Cluj-Napoca", "M\u0169i N\u00e9", "Reykjav\u00edk"};
+
+  private static final String[] ORGANIZATIONS = {"Example Networks", "T\u00e9l\u00e9phonie Nationale", "\u0413\u043b\u043e\u0431\u0430\u043b \u0422\u0435\u043b\u0435\u043a\u043e\u043c",
+    "\u6771\u4eac\u30a4\u30f3\u30bf\u30fc\u30cd\u30c3\u30c8", "Backbone & Transit", "Universidad Aut\u00f3noma", "Cloud \"Edge\" Services"};
+
+  // Invalid and unusual zone ids, which resolve to UTC
+  private static final String[] ODD_TIME_ZONES = {"Mars/Olympus_Mons", "UTC", "Etc/GMT+5", ""};
+
+  private static final String[] JUNK = {"", "-", " ", "unknown", "localhost", "example.com", "not an ip", "0x7f.0.0.1",
+    "1.2.3.4.5", "1.2.3.", ".1.2.3", "1..2.3", "256.1.1.1", "1.2.3.256", "999.12.1.1", "+1.2.3.4", "1.2.3.-4",
+    "1.2.3.4/24", "01.02.03.004", "001.2.3.4", "1.2.3", "1.2", "16909060", "4294967295", "4294967296", "\u0661.\u0662.\u0663.\u0664",
+    "1.2.3.4 ", " 1.2.3.4", "\t1.2.3.4", "1,2,3,4", "::", ":::", "1::2::3", "1:2:3:4:5:6:7:8:9", "fe80::zz",
+    "2001:db8::g", "[2001:db8::1]", "[::ffff:1.2.3.4]", "fe80::1%1", "::1%lo", "2001:db8::1/64", "::ffff:1.2.3",
+    "::ffff:256.1.1.1", "::ffff:1.2.3.4.5", "12345::", "2001:0db8:0000:0000:0000:0000:0000:00001",
+    "1234567890123456789012345678901234567890123456789", "1.2.3.4\u0000", "\uff11.\uff12.\uff13.\uff14"};
+
+  private static final Pattern SERVICE_LINE = Pattern.compile("^[a-zA-Z0-9_-]*,\\d+,");
+
+  private static final String[] PROTOCOL_NAMES = {"tcp", "udp", "TCP", "Udp", "sctp", "dccp", "icmp", ""};
+
+  // IANA numbers of the protocols in the registry, and a few others
+  private static final int[] PROTOCOL_NUMBERS = {6, 17, 132, 33, 1, 0, 255, -1};
+
+  private static final String[][] SERVICE_PORT_CONSTANTS = {{"http", "tcp"}, {"domain", "udp"}, {"SSH", "TCP"},
+    {"ms-wbt-server", "tcp"}, {"no-such-service", "tcp"}, {"http", "icmp"}};
+
+  private static final int BATCH_SIZE = 4096;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final Random random;
+  private final File directory;
+  private final int maxExamples;
+  private final String engine;
+  private final Map<String, Check> checks = new LinkedHashMap<>();
+
+  // The generated networks, for the addresses around their boundaries
+  private final List<long[]> ipv4Networks = new ArrayList<>();
+  private final List<long[]> ipv6Networks = new ArrayList<>();
+
+  // Reference readers by database, and by database and locale for the localized names
+  private final Map<String, DatabaseReader> readers = new HashMap<>();
+  private final Map<String, DatabaseReader> localizedReaders = new HashMap<>();
+  private final Map<String, Reader> recordReaders = new HashMap<>();
+  private final Map<String, List<DatabaseReader>> releaseReaders = new HashMap<>();
+  private final Map<String, long[]> releaseTimes = new HashMap<>();
+  private final Map<String, File> databaseFiles = new HashMap<>();
+
+  private Map<String, String> portMap;
+  private Map<String, TreeSet<Integer>> registryPorts;
+
+  private GeoIPDifferentialCheck(long seed, File directory, int maxExamples, String engine) {
+    this.random = new Random(seed);
+    this.directory = directory;
+    this.maxExamples = maxExamples;
+    this.engine = engine;
+  }
+
+  public static void main(String[] args) throws Exception {
+    File directory = null;
+    long addresses = 1_000_000;
+    long seed = 42;
+    String engine = "raw";
+    int maxExamples = 10;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--dir":
+          directory = new File(args[++i]);
+          break;
+        case "--addresses":
+          addresses = Long.parseLong(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        case "--engine":
+          engine = args[++i];
+          break;
+        case "--examples":
+          maxExamples = Integer.parseInt(args[++i]);
+          break;
+        default:
+          directory = null;
+          i = args.length;
+          break;
+      }
+    }
+    if (directory == null || !(engine.equals("raw") || engine.equals("snapshot"))) {
+      System.err.println("Usage: GeoIPDifferentialCheck --dir <directory> [--addresses n] "
+        + "[--seed n] [--engine raw|snapshot] [--examples n]");
+      System.exit(1);
+    }
+
+    GeoIPDifferentialCheck check = generate(directory, seed, engine, maxExamples);
+    boolean consistent;
+    try (BufferAllocator allocator = RootAllocatorFactory.newRoot(Long.MAX_VALUE)) {
+      consistent = check.run(allocator, addresses);
+    }
+    System.out.println(consistent ? "All results match the reference." : "Results differ from the reference:"
+      + check.differences());
+    System.exit(consistent ? 0 : 1);
+  }
+
+  /**
+   * Generates the databases in a directory and points the functions at them, which must happen before
+   * the functions read their config, so once per JVM.
+   */
+  static GeoIPDifferentialCheck generate(File directory, long seed, String engine, int maxExamples) throws IOException {
+    // The reference resolves no host names, like the functions
+    File hosts = new File(directory, "hosts");
+    directory.mkdirs();
+    Files.write(hosts.toPath(), new byte[0]);
+    System.setProperty("jdk.net.hosts.file", hosts.getAbsolutePath());
+
+    GeoIPDifferentialCheck check = new GeoIPDifferentialCheck(seed, directory, maxExamples, engine);
+    check.generate();
+    // The generated databases are read before those on the classpath
+    System.setProperty(GeoIPDatabaseCache.LOCATION, directory.toURI().toString());
+    System.setProperty(GeoIPDatabaseCache.CACHE_DIRECTORY, new File(directory, "cache").getAbsolutePath());
+    System.setProperty(SecurityHelperFunctions.VERSIONS_DIRECTORY, new File(directory, "versions").getAbsolutePath());
+    if (engine.equals("snapshot")) {
+      System.setProperty(SecurityHelperFunctions.SNAPSHOT_DIRECTORY, new File(directory, "snapshots").getAbsolutePath());
+    }
+    for (String database : DATABASES) {
+      MaxMindDbFile loaded = SecurityHelperFunctions.getDatabaseFile(database);
+      if (loaded.getBuildEpoch() != CURRENT_RELEASE) {
+        throw new IllegalStateException(String.format(
+          "The functions loaded another %s than the one generated in %s.", database, directory));
+      }
+    }
+    return check;
+  }
+
+  // Databases
+
+  private void generate() throws IOException {
+    long start = System.nanoTime();
+    File versions = new File(directory, "versions");
+    File snapshots = new File(directory, "snapshots");
+    versions.mkdirs();
+    snapshots.mkdirs();
+
+    List<Object> countries = countryRecords();
+    List<Object> cities = cityRecords(countries);
+    List<Object> systems = asnRecords();
+    List<Object> anonymous = anonymousRecords();
+
+    writeDatabase(SecurityHelperFunctions.COUNTRY_DATABASE, "GeoLite2-Country", 24, countries, 0.1, true);
+    writeDatabase(SecurityHelperFunctions.CITY_DATABASE, "GeoLite2-City", 28, cities, 0.1, true);
+    writeDatabase(SecurityHelperFunctions.ASN_DATABASE, "GeoLite2-ASN", 32, systems, 0.2, true);
+    writeDatabase(SecurityHelperFunctions.ANONYMOUS_IP_DATABASE, "GeoIP2-Anonymous-IP", 24, anonymous, 0.9, true);
+
+    // An earlier release of each versioned database with other networks and record sizes
+    writeDatabase(SecurityHelperFunctions.COUNTRY_DATABASE, "GeoLite2-Country", 32, countries, 0.3, false);
+    writeDatabase(SecurityHelperFunctions.CITY_DATABASE, "GeoLite2-City", 24, cities, 0.3, false);
+    writeDatabase(SecurityHelperFunctions.ASN_DATABASE, "GeoLite2-ASN", 28, systems, 0.3, false);
+
+    for (String database : VERSIONED_DATABASES) {
+      MaxMindDbFile file = MaxMindDbFile.open(databaseFiles.get(database));
+      ByteBuffer snapshot = new GeoIPSnapshotCompiler(file).compile();
+      byte[] bytes = new byte[snapshot.remaining()];
+      snapshot.get(bytes);
+      Files.write(new File(snapshots, database + GeoIPSnapshotCompiler.SNAPSHOT_EXTENSION).toPath(), bytes);
+    }
+    logger.info("Generated {} IPv4 and {} IPv6 networks in {} in {} ms", ipv4Networks.size(),
+      ipv6Networks.size(), directory, (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private void writeDatabase(String database, String databaseType, int recordSize, List<Object> records,
+                             double emptyShare, boolean current) throws IOException {
+    long buildEpoch = current ? CURRENT_RELEASE : PREVIOUS_RELEASE;
+    MaxMindDbWriter writer = new MaxMindDbWriter(databaseType, recordSize, buildEpoch, LANGUAGES);
+    Supplier<Object> pick = () -> records.get(random.nextInt(records.size()));
+    for (int first = 1; first < 224; first++) {
+      if (random.nextInt(10) < 3) {
+        continue;
+      }
+      partitionIpv4(writer, (long) first << 24, 8, pick, emptyShare);
+    }
+    long[] ipv6Prefixes = {0x20010DB8L << 32, 0x2400L << 48, 0x2A00L << 48, 0x2600L << 48, 0x2C0FL << 48};
+    int[] ipv6Lengths = {32, 12, 12, 12, 16};
+    for (int i = 0; i < ipv6Prefixes.length; i++) {
+      partitionIpv6(writer, ipv6Prefixes[i], ipv6Lengths[i], pick, emptyShare);
+    }
+    // Small networks and hosts that split the larger ones around them
+    for (int i = 0; i < 500; i++) {
+      long address = (1L + random.nextInt(223)) << 24 | random.nextInt(1 << 24);
+      insertIpv4(writer, address, 29 + random.nextInt(4), pick.get());
+    }
+    for (int i = 0; i < 100; i++) {
+      long hi = ipv6Prefixes[random.nextInt(ipv6Prefixes.length)] | (random.nextLong() >>> 32);
+      insertIpv6(writer, hi, random.nextLong(), 124 + random.nextInt(5), pick.get());
+    }
+
+    File file;
+    if (current) {
+      file = new File(directory, database + ".mmdb");
+      databaseFiles.put(database, file);
+    } else {
+      file = new File(new File(directory, "versions"), database + "_20230103.mmdb");
+    }
+    writer.write(file);
+    if (current && Arrays.asList(VERSIONED_DATABASES).contains(database)) {
+      Files.copy(file.toPath(), new File(new File(directory, "versions"), database + "_20230606.mmdb").toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private void partitionIpv4(MaxMindDbWriter writer, long start, int prefixLength, Supplier<Object> records,
+                             double emptyShare) {
+    if (prefixLength == 32 || (prefixLength > 8 && random.nextDouble() < 0.45)) {
+      if (random.nextDouble() >= emptyShare) {
+        insertIpv4(writer, start, prefixLength, records.get());
+      }
+      return;
+    }
+    partitionIpv4(writer, start, prefixLength + 1, records, emptyShare);
+    partitionIpv4(writer, start | 1L << (31 - prefixLength), prefixLength + 1, records, emptyShare);
+  }
+
+  private void partitionIpv6(MaxMindDbWriter writer, long hi, int prefixLength, Supplier<Object> records,
+                             double emptyShare) {
+    if (prefixLength == 64 || (prefixLength > 16 && random.nextDouble() < 0.5)) {
+      if (random.nextDouble() >= emptyShare) {
+        insertIpv6(writer, hi, 0, prefixLength, records.get());
+      }
+      return;
+    }
+    partitionIpv6(writer, hi, prefixLength + 1, records, emptyShare);
+    partitionIpv6(writer, hi | 1L << (63 - prefixLength), prefixLength + 1, records, emptyShare);
+  }
+
+  private void insertIpv4(MaxMindDbWriter writer, long address, int prefixLength, Object record) {
+    long size = 1L << (32 - prefixLength);
+    long first = address & ~(size - 1) & 0xFFFFFFFFL;
+    writer.insert(ipv4Bytes(first), prefixLength, record);
+    ipv4Networks.add(new long[] {first, first + size - 1});
+  }
+
+  private void insertIpv6(MaxMindDbWriter writer, long hi, long lo, int prefixLength, Object record) {
+    long hiMask = prefixLength >= 64 ? -1L : prefixLength == 0 ? 0 : -1L << (64 - prefixLength);
+    long loMask = prefixLength <= 64 ? 0 : prefixLength == 128 ? -1L : -1L << (128 - prefixLength);
+    long firstHi = hi & hiMask;
+    long firstLo = lo & loMask;
+    writer.insert(ipv6Bytes(firstHi, firstLo), prefixLength, record);
+    ipv6Networks.add(new long[] {firstHi, firstLo, firstHi | ~hiMask, firstLo | ~loMask});
+  }
+
+  private Map<String, Object> names(String english, String local) {
+    Map<String, Object> names = new LinkedHashMap<>();
+    names.put("en", english);
+    for (String language : LANGUAGES) {
+      // Leave some languages out, so that the localized names fall back to English
+      if (!language.equals("en") && random.nextInt(3) > 0) {
+        names.put(language, random.nextBoolean() ? local : local + " (" + language + ")");
+      }
+    }
+    return names;
+  }
+
+  private List<Object> countryRecords() {
+    Map<String, Object> continents = new HashMap<>();
+    List<Object> records = new ArrayList<>();
+    for (String[] country : COUNTRIES) {
+      Object continent = continents.computeIfAbsent(country[3], code -> {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("code", code);
+        map.put("geoname_id", 6_255_000L + code.hashCode() % 1000);
+        map.put("names", names("Continent " + code, "Kontinent " + code));
+        return map;
+      });
+      Map<String, Object> countryMap = new LinkedHashMap<>();
+      countryMap.put("geoname_id", 2_000_000L + random.nextInt(1_000_000));
+      if (EU_COUNTRIES.contains(country[0])) {
+        countryMap.put("is_in_european_union", true);
+      }
+      countryMap.put("iso_code", country[0]);
+      countryMap.put("names", names(country[1], country[2]));
+
+      Map<String, Object> record = new LinkedHashMap<>();
+      record.put("continent", continent);
+      record.put("country", countryMap);
+      record.put("registered_country", countryMap);
+      records.add(record);
+
+      // The same country with a confidence, and registered elsewhere
+      Map<String, Object> other = new LinkedHashMap<>(record);
+      Map<String, Object> confident = new LinkedHashMap<>(countryMap);
+      confident.put("confidence", 1 + random.nextInt(99));
+      other.put("country", confident);
+      other.put("registered_country", records.get(0) instanceof Map ? ((Map<?, ?>) records.get(0)).get("country") : countryMap);
+      records.add(other);
+    }
+    // A record without a country, as for anycast networks
+    Map<String, Object> continentOnly = new LinkedHashMap<>();
+    continentOnly.put("continent", continents.get("EU"));
+    records.add(continentOnly);
+    return records;
+  }
+
+  private List<Object> cityRecords(List<Object> countries) {
+    List<Object> records = new ArrayList<>();
+    for (int i = 0; i < 400; i++) {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> countryRecord = (Map<String, Object>) countries.get(random.nextInt(countries.size() - 1));
+      Map<String, Object> record = new LinkedHashMap<>(countryRecord);
+      String[] country = null;
+      Object iso = ((Map<?, ?>) countryRecord.get("country")).get("iso_code");
+      for (String[] candidate : COUNTRIES) {
+        if (candidate[0].equals(iso)) {
+          country = candidate;
+        }
+      }
+
+      if (random.nextInt(10) > 0) {
+        Map<String, Object> city = new LinkedHashMap<>();
+        if (random.nextInt(4) == 0) {
+          city.put("confidence", random.nextInt(100));
+        }
+        city.put("geoname_id", 100_000L + random.nextInt(10_000_000));
+        String stem = CITY_STEMS[random.nextInt(CITY_STEMS.length)];
+        city.put("names", names(stem + " " + i, stem + "-" + i));
+        record.put("city", city);
+      }
+
+      Map<String, Object> location = new LinkedHashMap<>();
+      location.put("accuracy_radius", 1 + random.nextInt(1000));
+      if (random.nextInt(5) == 0) {
+        location.put("average_income", random.nextInt(65_536));
+        location.put("population_density", random.nextInt(30_000));
+      }
+      // Coordinates have the four decimals MaxMind publishes
+      location.put("latitude", (random.nextInt(1_800_001) - 900_000) / 10_000.0);
+      location.put("longitude", (random.nextInt(3_600_001) - 1_800_000) / 10_000.0);
+      if ("US".equals(iso) && random.nextBoolean()) {
+        location.put("metro_code", 500 + random.nextInt(382));
+      }
+      if (random.nextInt(20) == 0) {
+        String zone = ODD_TIME_ZONES[random.nextInt(ODD_TIME_ZONES.length)];
+        if (!zone.isEmpty()) {
+          location.put("time_zone", zone);
+        }
+      } else {
+        location.put("time_zone", country[4 + random.nextInt(country.length - 4)]);
+      }
+      record.put("location", location);
+
+      if (random.nextInt(3) > 0) {
+        Map<String, Object> postal = new LinkedHashMap<>();
+        postal.put("code", String.format("%05d", random.nextInt(100_000)));
+        record.put("postal", postal);
+      }
+
+      int subdivisionCount = random.nextInt(3);
+      if (subdivisionCount > 0) {
+        List<Object> subdivisions = new ArrayList<>();
+        for (int j = 0; j < subdivisionCount; j++) {
+          Map<String, Object> subdivision = new LinkedHashMap<>();
+          subdivision.put("geoname_id", 3_000_000L + random.nextInt(1_000_000));
+          subdivision.put("iso_code", String.valueOf((char) ('A' + random.nextInt(26))) + (char) ('A' + random.nextInt(26)));
+          subdivision.put("names", names("Region " + i + "." + j, "R\u00e9gion " + i + "." + j));
+          subdivisions.add(subdivision);
+        }
+        record.put("subdivisions", subdivisions);
+      }
+      records.add(record);
+    }
+    records.addAll(countries);
+    return records;
+  }
+
+  private List<Object> asnRecords() {
+    List<Object> records = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      Map<String, Object> record = new LinkedHashMap<>();
+      // Numbers above 2^31 check that they are read as unsigned
+      long number = random.nextInt(4) == 0 ? 4_200_000_000L + random.nextInt(94_967_295) : 1 + random.nextInt(400_000);
+      record.put("autonomous_system_number", number);
+      if (random.nextInt(50) > 0) {
+        record.put("autonomous_system_organization", ORGANIZATIONS[random.nextInt(ORGANIZATIONS.length)] + " " + i);
+      }
+      records.add(record);
+    }
+    return records;
+  }
+
+  private List<Object> anonymousRecords() {
+    String[] flags = {"is_anonymous_vpn", "is_hosting_provider", "is_public_proxy", "is_tor_exit_node"};
+    List<Object> records = new ArrayList<>();
+    for (int combination = 1; combination < 1 << flags.length; combination++) {
+      Map<String, Object> record = new LinkedHashMap<>();
+      record.put("is_anonymous", true);
+      for (int i = 0; i < flags.length; i++) {
+        // Like MaxMind's database, flags are only present when they are set
+        if ((combination & 1 << i) != 0) {
+          record.put(flags[i], true);
+        }
+      }
+      records.add(record);
+    }
+    return records;
+  }
+
+  // Addresses
+
+  private String nextAddress(String[] category) {
+    int kind = random.nextInt(100);
+    if (kind < 25) {
+      category[0] = "uniform IPv4";
+      return formatIpv4(random.nextInt() & 0xFFFFFFFFL);
+    } else if (kind < 35) {
+      category[0] = "uniform IPv6";
+      long[] network = ipv6Networks.get(random.nextInt(ipv6Networks.size()));
+      // Random addresses under the populated /12s, most of which are outside the networks
+      return formatIpv6(network[0] & 0xFFF0000000000000L | random.nextLong() >>> 12, random.nextLong());
+    } else if (kind < 40) {
+      category[0] = "uniform IPv6";
+      return formatIpv6(random.nextLong(), random.nextLong());
+    } else if (kind < 60) {
+      category[0] = "IPv4 boundary";
+      return formatIpv4(ipv4Boundary());
+    } else if (kind < 70) {
+      category[0] = "IPv6 boundary";
+      long[] network = ipv6Networks.get(random.nextInt(ipv6Networks.size()));
+      switch (random.nextInt(4)) {
+        case 0:
+          return formatIpv6(network[0], network[1]);
+        case 1:
+          return formatIpv6(network[2], network[3]);
+        case 2:
+          return network[1] == 0 ? formatIpv6(network[0] - 1, -1L) : formatIpv6(network[0], network[1] - 1);
+        default:
+          return network[3] == -1L ? formatIpv6(network[2] + 1, 0) : formatIpv6(network[2], network[3] + 1);
+      }
+    } else if (kind < 85) {
+      category[0] = "IPv4 in IPv6";
+      return embedIpv4(random.nextBoolean() ? ipv4Boundary() : random.nextInt() & 0xFFFFFFFFL);
+    }
+    category[0] = "malformed";
+    return malformed();
+  }
+
+  private long ipv4Boundary() {
+    long[] network = ipv4Networks.get(random.nextInt(ipv4Networks.size()));
+    switch (random.nextInt(4)) {
+      case 0:
+        return network[0];
+      case 1:
+        return network[1];
+      case 2:
+        return Math.max(0, network[0] - 1);
+      default:
+        return Math.min(0xFFFFFFFFL, network[1] + 1);
+    }
+  }
+
+  private String embedIpv4(long ipv4) {
+    String dotted = formatIpv4(ipv4);
+    String hex = Long.toHexString(ipv4 >>> 16) + ":" + Long.toHexString(ipv4 & 0xFFFF);
+    switch (random.nextInt(7)) {
+      case 0:
+        return "::ffff:" + dotted;
+      case 1:
+        return "::FFFF:" + hex.toUpperCase(Locale.ROOT);
+      case 2:
+        return "0:0:0:0:0:ffff:" + dotted;
+      case 3:
+        return "::" + dotted;
+      case 4:
+        return "::" + hex;
+      case 5:
+        // 6to4, the IPv4 address in bits 16 to 48
+        return formatIpv6(0x2002L << 48 | ipv4 << 16 | random.nextInt(1 << 16), random.nextLong());
+      default:
+        return "0000:0000:0000:0000:0000:ffff:" + hex;
+    }
+  }
+
+  private String malformed() {
+    if (random.nextInt(4) > 0) {
+      return JUNK[random.nextInt(JUNK.length)];
+    }
+    // Random characters of addresses, mostly not an address
+    String alphabet = "0123456789abcdefABCDEF.:%[]/ x";
+    char[] text = new char[1 + random.nextInt(20)];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+    }
+    return new String(text);
+  }
+
+  private String formatIpv4(long address) {
+    return (address >>> 24 & 0xFF) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "." + (address & 0xFF);
+  }
+
+  private String formatIpv6(long hi, long lo) {
+    try {
+      InetAddress address = InetAddress.getByAddress(ipv6Bytes(hi, lo));
+      switch (random.nextInt(4)) {
+        case 0:
+          // Uncompressed, as Java prints it
+          return address.getHostAddress();
+        case 1:
+          return InetAddresses.toAddrString(address).toUpperCase(Locale.ROOT);
+        default:
+          return InetAddresses.toAddrString(address);
+      }
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] ipv4Bytes(long address) {
+    return new byte[] {(byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address};
+  }
+
+  private static byte[] ipv6Bytes(long hi, long lo) {
+    return ByteBuffer.allocate(16).putLong(hi).putLong(lo).array();
+  }
+
+  // The run
+
+  boolean run(BufferAllocator allocator, long addressCount) throws Exception {
+    openReferences();
+    List<FunctionUnderTest> functions = new ArrayList<>();
+    Map<String, Reference> references = references();
+    for (Class<?> container : Arrays.asList(GeoIPFunctions.class, ProtocolFunctions.class)) {
+      for (Class<?> type : container.getDeclaredClasses()) {
+        if (!DrillSimpleFunc.class.isAssignableFrom(type)) {
+          continue;
+        }
+        String name = container.getSimpleName() + "." + type.getSimpleName();
+        Reference reference = references.get(type.getSimpleName());
+        if (reference == null) {
+          check(name).fail("no reference for this function");
+          continue;
+        }
+        FunctionUnderTest function = new FunctionUnderTest(name, type, reference);
+        function.setUp(allocator);
+        functions.add(function);
+      }
+    }
+    List<Engine> engines = engines();
+    logger.info("Checking {} functions and {} lookup engines with the {} engine of the functions on {} addresses",
+      functions.size(), engines.size(), engine, addressCount);
+
+    DrillBuf input = allocator.buffer(4096);
+    try {
+      String[] category = new String[1];
+      long start = System.nanoTime();
+      for (long i = 0; i < addressCount; i++) {
+        Row row = new Row(i, nextAddress(category), category[0]);
+        row.write(input);
+        for (Engine lookupEngine : engines) {
+          lookupEngine.verify(row, input);
+        }
+        for (FunctionUnderTest function : functions) {
+          function.evaluate(row, input);
+        }
+        if ((i + 1) % Math.max(1, addressCount / 10) == 0) {
+          logger.info("{} addresses checked, {} per second", i + 1, (long) ((i + 1) * 1e9 / (System.nanoTime() - start)));
+        }
+      }
+    } finally {
+      input.release();
+      for (FunctionUnderTest function : functions) {
+        function.close();
+      }
+    }
+    return report();
+  }
+
+  private boolean report() {
+    long mismatches = 0;
+    for (Check check : checks.values()) {
+      logger.debug("{}: {} results, {} different", check.name, check.results, check.mismatches);
+      mismatches += check.mismatches;
+    }
+    if (mismatches == 0) {
+      logger.info("All results match the reference");
+    } else {
+      logger.warn("{} results differ from the reference:{}", mismatches, differences());
+    }
+    return mismatches == 0;
+  }
+
+  /**
+   * Returns the first differences of each check that found any.
+   */
+  String differences() {
+    StringBuilder differences = new StringBuilder();
+    for (Check check : checks.values()) {
+      if (!check.examples.isEmpty()) {
+        differences.append(String.format("%n%s:%n", check.name));
+        for (String example : check.examples) {
+          differences.append("  ").append(example).append(System.lineSeparator());
+        }
+      }
+    }
+    return differences.toString();
+  }
+
+  private Check check(String name) {
+    return checks.computeIfAbsent(name, Check::new);
+  }
+
+  private void openReferences() throws IOException {
+    for (String database : DATABASES) {
+      File file = databaseFiles.get(database);
+      readers.put(database, new DatabaseReader.Builder(file).build());
+      recordReaders.put(database, new Reader(file));
+      for (String language : LANGUAGES) {
+        localizedReaders.put(database + "/" + language,
+          new DatabaseReader.Builder(file).locales(Arrays.asList(language, "en")).build());
+      }
+    }
+    for (String database : VERSIONED_DATABASES) {
+      File versions = new File(directory, "versions");
+      List<DatabaseReader> releases = new ArrayList<>();
+      releases.add(new DatabaseReader.Builder(new File(versions, database + "_20230103.mmdb")).build());
+      releases.add(new DatabaseReader.Builder(new File(versions, database + "_20230606.mmdb")).build());
+      releaseReaders.put(database, releases);
+      releaseTimes.put(database, new long[] {PREVIOUS_RELEASE * 1000, CURRENT_RELEASE * 1000});
+    }
+
+    portMap = new HashMap<>();
+    for (Object entry : SecurityHelperFunctions.getPortHashMap().entrySet()) {
+      Map.Entry<?, ?> mapEntry = (Map.Entry<?, ?>) entry;
+      portMap.put(mapEntry.getKey().toString(), mapEntry.getValue().toString());
+    }
+    registryPorts = new HashMap<>();
+    try (InputStream in = GeoIPDifferentialCheck.class.getClassLoader().getResourceAsStream("service-names-port-numbers.csv");
+         BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = lines.readLine()) != null) {
+        String[] values = line.split(",");
+        // Only the transport protocols are indexed, registry lines without one are reserved ports
+        if (SERVICE_LINE.matcher(line).find() && !values[0].isEmpty() && values.length > 2
+          && Arrays.asList(ServiceNameIndex.PROTOCOLS).contains(values[2].toLowerCase(Locale.ROOT))) {
+          registryPorts.computeIfAbsent(values[0].toLowerCase(Locale.ROOT) + "/" + values[2].toLowerCase(Locale.ROOT),
+            key -> new TreeSet<>()).add(Integer.parseInt(values[1]));
+        }
+      }
+    }
+  }
+
+  private List<Engine> engines() throws IOException {
+    List<Engine> engines = new ArrayList<>();
+    for (String database : DATABASES) {
+      MaxMindDbFile file = MaxMindDbFile.open(databaseFiles.get(database));
+      Set<Column> columns = GeoIPSnapshotCompiler.columnsOf(file.getDatabaseType());
+      GeoIPLookup raw = new GeoIPLookup(file);
+      engines.add(new Engine("engine raw " + database, database, raw, columns, null));
+      if (database.equals(SecurityHelperFunctions.ANONYMOUS_IP_DATABASE)) {
+        engines.add(new Engine("engine prefiltered " + database, database,
+          new GeoIPLookup(file, GeoIPNetworkFilter.build(file)), columns, null));
+      } else {
+        engines.add(new Engine("engine snapshot " + database, database,
+          new GeoIPLookup(new GeoIPSnapshot(new GeoIPSnapshotCompiler(file).compile())), columns, null));
+      }
+      engines.add(new Engine("engine batch memo " + database, database, raw, columns, new GeoIPBatchMemo(raw)));
+    }
+    return engines;
+  }
+
+  // References
+
+  private Optional<?> response(Row row, String database) {
+    return response(readers.get(database), database, row.inet());
+  }
+
+  private static Optional<?> response(DatabaseReader reader, String database, InetAddress address) {
+    if (address == null) {
+      return Optional.empty();
+    }
+    try {
+      switch (database) {
+        case SecurityHelperFunctions.CITY_DATABASE:
+          return reader.tryCity(address);
+        case SecurityHelperFunctions.ASN_DATABASE:
+          return reader.tryAsn(address);
+        case SecurityHelperFunctions.ANONYMOUS_IP_DATABASE:
+          return reader.tryAnonymousIp(address);
+        default:
+          return reader.tryCountry(address);
+      }
+    } catch (Exception e) {
+      return Optional.empty();
+    }
+  }
+
+  private Optional<?> responseAt(Row row, String database) {
+    long[] times = releaseTimes.get(database);
+    int release = 0;
+    for (int i = 0; i < times.length; i++) {
+      if (times[i] <= row.eventTime) {
+        release = i;
+      }
+    }
+    return response(releaseReaders.get(database).get(release), database, row.inet());
+  }
+
+  private Optional<?> localizedResponse(Row row, String database, String language) {
+    return response(localizedReaders.get(database + "/" + language), database, row.inet());
+  }
+
+  /**
+   * Returns the value of a column in a response of the MaxMind reader, null if it is missing.
+   */
+  private static Object value(Optional<?> response, Column column) {
+    if (!response.isPresent()) {
+      return null;
+    }
+    Object value = response.get();
+    switch (column) {
+      case COUNTRY_ISO_CODE:
+        return ((AbstractCountryResponse) value).getCountry().getIsoCode();
+      case COUNTRY_NAME:
+        return ((AbstractCountryResponse) value).getCountry().getName();
+      case COUNTRY_CONFIDENCE:
+        return ((AbstractCountryResponse) value).getCountry().getConfidence();
+      case IS_IN_EUROPEAN_UNION:
+        return ((AbstractCountryResponse) value).getCountry().isInEuropeanUnion();
+      case CITY_NAME:
+        return ((AbstractCityResponse) value).getCity().getName();
+      case CITY_CONFIDENCE:
+        return ((AbstractCityResponse) value).getCity().getConfidence();
+      case LATITUDE:
+        return ((AbstractCityResponse) value).getLocation().getLatitude();
+      case LONGITUDE:
+        return ((AbstractCityResponse) value).getLocation().getLongitude();
+      case ACCURACY_RADIUS:
+        return ((AbstractCityResponse) value).getLocation().getAccuracyRadius();
+      case TIME_ZONE:
+        return ((AbstractCityResponse) value).getLocation().getTimeZone();
+      case METRO_CODE:
+        return ((AbstractCityResponse) value).getLocation().getMetroCode();
+      case AVERAGE_INCOME:
+        return ((AbstractCityResponse) value).getLocation().getAverageIncome();
+      case POPULATION_DENSITY:
+        return ((AbstractCityResponse) value).getLocation().getPopulationDensity();
+      case POSTAL_CODE:
+        return ((AbstractCityResponse) value).getPostal().getCode();
+      case ASN:
+        return ((AsnResponse) value).getAutonomousSystemNumber();
+      case ASN_ORGANIZATION:
+        return ((AsnResponse) value).getAutonomousSystemOrganization();
+      case IS_ANONYMOUS:
+        return ((AnonymousIpResponse) value).isAnonymous();
+      case IS_ANONYMOUS_VPN:
+        return ((AnonymousIpResponse) value).isAnonymousVpn();
+      case IS_HOSTING_PROVIDER:
+        return ((AnonymousIpResponse) value).isHostingProvider();
+      case IS_PUBLIC_PROXY:
+        return ((AnonymousIpResponse) value).isPublicProxy();
+      case IS_TOR_EXIT_NODE:
+        return ((AnonymousIpResponse) value).isTorExitNode();
+      default:
+        throw new IllegalArgumentException(column.name());
+    }
+  }
+
+  private static String string(Object value, String missing) {
+    return value == null ? missing : value.toString();
+  }
+
+  private static int integer(Object value) {
+    if (value instanceof Boolean) {
+      return (Boolean) value ? 1 : 0;
+    }
+    return value == null ? 0 : ((Number) value).intValue();
+  }
+
+  private static double number(Object value) {
+    return value == null ? 0.0 : ((Number) value).doubleValue();
+  }
+
+  private static int utcOffset(Object zone, long epochMillis) {
+    if (zone == null) {
+      return 0;
+    }
+    try {
+      return ZoneId.of(zone.toString()).getRules().getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds();
+    } catch (DateTimeException e) {
+      return 0;
+    }
+  }
+
+  private static String point(Optional<?> city) {
+    double longitude = number(value(city, Column.LONGITUDE));
+    double latitude = number(value(city, Column.LATITUDE));
+    ByteBuffer wkb = new OGCPoint(new Point(longitude, latitude), SpatialReference.create(4326)).asBinary();
+    byte[] bytes = new byte[wkb.remaining()];
+    wkb.get(bytes);
+    return hex(bytes);
+  }
+
+  /**
+   * Returns the map {@code geoip_enrich} writes for a response: every column of the database, strings only
+   * when the record has them.
+   */
+  private Map<String, Object> enrichment(Optional<?> response, String database) {
+    Map<String, Object> expected = new TreeMap<>();
+    if (!response.isPresent()) {
+      return expected;
+    }
+    for (Column column : GeoIPSnapshotCompiler.columnsOf(readers.get(database).getMetadata().getDatabaseType())) {
+      Object value = value(response, column);
+      String field = column.name().toLowerCase(Locale.ROOT);
+      switch (column) {
+        case LATITUDE:
+        case LONGITUDE:
+          expected.put(field, number(value));
+          break;
+        case ASN:
+          expected.put(field, value == null ? 0L : ((Number) value).longValue());
+          break;
+        case IS_IN_EUROPEAN_UNION:
+        case IS_ANONYMOUS:
+        case IS_ANONYMOUS_VPN:
+        case IS_HOSTING_PROVIDER:
+        case IS_PUBLIC_PROXY:
+        case IS_TOR_EXIT_NODE:
+          expected.put(field, integer(value) == 1);
+          break;
+        default:
+          if (column.isString()) {
+            if (value != null) {
+              expected.put(field, value.toString());
+            }
+          } else {
+            expected.put(field, integer(value));
+          }
+          break;
+      }
+    }
+    return expected;
+  }
+
+  /**
+   * Follows a field path through a record decoded by the MaxMind reader, numeric steps indexing arrays.
+   */
+  private Object pathValue(Row row, String database, String path) {
+    if (row.inet() == null) {
+      return null;
+    }
+    Object value;
+    try {
+      value = recordReaders.get(database).get(row.inet(), Map.class);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    for (String step : path.split("\\.")) {
+      if (step.matches("-?[0-9]+")) {
+        if (!(value instanceof List)) {
+          return null;
+        }
+        List<?> list = (List<?>) value;
+        int index = Integer.parseInt(step);
+        index = index < 0 ? index + list.size() : index;
+        value = index >= 0 && index < list.size() ? list.get(index) : null;
+      } else {
+        value = value instanceof Map ? ((Map<?, ?>) value).get(step) : null;
+      }
+    }
+    return value;
+  }
+
+  private Object pathText(Row row, String database, String path) {
+    Object value = pathValue(row, database, path);
+    if (value == null || value instanceof String) {
+      return value;
+    }
+    try {
+      return value instanceof Map || value instanceof List
+        ? MAPPER.readTree(MAPPER.writeValueAsString(value))
+        : String.valueOf(value);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static List<Map<String, String>> variants(String name, String... values) {
+    List<Map<String, String>> variants = new ArrayList<>();
+    for (String value : values) {
+      variants.add(Collections.singletonMap(name, value));
+    }
+    return variants;
+  }
+
+  private static List<Map<String, String>> databaseVariants(Map<String, String[]> fieldsByDatabase, String fieldName) {
+    List<Map<String, String>> variants = new ArrayList<>();
+    for (Map.Entry<String, String[]> entry : fieldsByDatabase.entrySet()) {
+      for (String field : entry.getValue()) {
+        Map<String, String> variant = new HashMap<>();
+        variant.put("database", entry.getKey());
+        variant.put(fieldName, field);
+        variants.add(variant);
+      }
+    }
+    return variants;
+  }
+
+  private static Map<String, String[]> recordFields(boolean strings) {
+    Map<String, String[]> fields = new LinkedHashMap<>();
+    for (String database : DATABASES) {
+      List<String> names = new ArrayList<>();
+      for (Column column : GeoIPSnapshotCompiler.columnsOf(database.contains("Anonymous") ? "GeoIP2-Anonymous-IP" : database)) {
+        if (column.isString() == strings) {
+          names.add(column.name().toLowerCase(Locale.ROOT));
+        }
+      }
+      if (!names.isEmpty()) {
+        fields.put(database, names.toArray(new String[0]));
+      }
+    }
+    return fields;
+  }
+
+  private Map<String, Reference> references() {
+    Map<String, Reference> references = new HashMap<>();
+    String country = SecurityHelperFunctions.COUNTRY_DATABASE;
+    String city = SecurityHelperFunctions.CITY_DATABASE;
+    String asn = SecurityHelperFunctions.ASN_DATABASE;
+    String anonymous = SecurityHelperFunctions.ANONYMOUS_IP_DATABASE;
+    List<Map<String, String>> none = Collections.singletonList(Collections.emptyMap());
+
+    references.put("getCountryNameFunction", new Reference(none,
+      (row, variant, actual) -> string(value(response(row, country), Column.COUNTRY_NAME), "Unknown")));
+    references.put("getLocalizedCountryNameFunction", new Reference(variants("locale", LANGUAGES),
+      (row, variant, actual) -> string(value(localizedResponse(row, country, variant.get("locale")), Column.COUNTRY_NAME), "Unknown")));
+    references.put("getCountryISOFunction", new Reference(none,
+      (row, variant, actual) -> string(value(response(row, country), Column.COUNTRY_ISO_CODE), "UNK")));
+    references.put("getCountryConfidenceFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, country), Column.COUNTRY_CONFIDENCE))));
+    references.put("getCityNameFunction", new Reference(none,
+      (row, variant, actual) -> string(value(response(row, city), Column.CITY_NAME), "Unknown")));
+    references.put("getLocalizedCityNameFunction", new Reference(variants("locale", LANGUAGES),
+      (row, variant, actual) -> string(value(localizedResponse(row, city, variant.get("locale")), Column.CITY_NAME), "Unknown")));
+    references.put("getCityConfidenceFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, city), Column.CITY_CONFIDENCE))));
+    references.put("getLatitudeFunction", new Reference(none,
+      (row, variant, actual) -> number(value(response(row, city), Column.LATITUDE))));
+    references.put("getLongitudeFunction", new Reference(none,
+      (row, variant, actual) -> number(value(response(row, city), Column.LONGITUDE))));
+    references.put("getTimezoneFunction", new Reference(none,
+      (row, variant, actual) -> string(value(response(row, city), Column.TIME_ZONE), "Unknown")));
+    references.put("getUTCOffsetFunction", new Reference(none,
+      (row, variant, actual) -> utcOffset(value(response(row, city), Column.TIME_ZONE), row.eventTime)));
+    references.put("getLocalTimeFunction", new Reference(none,
+      (row, variant, actual) -> row.eventTime + utcOffset(value(response(row, city), Column.TIME_ZONE), row.eventTime) * 1000L));
+    references.put("getAccuracyRadiusFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, city), Column.ACCURACY_RADIUS))));
+    references.put("getAverageIncomeFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, city), Column.AVERAGE_INCOME))));
+    references.put("getMetroCodeFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, city), Column.METRO_CODE))));
+    references.put("getPopulationDensityFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, city), Column.POPULATION_DENSITY))));
+    references.put("isEUFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, country), Column.IS_IN_EUROPEAN_UNION))));
+    references.put("getPostalCodeFunction", new Reference(none,
+      (row, variant, actual) -> string(value(response(row, city), Column.POSTAL_CODE), "Unknown")));
+    references.put("getCoordPointFunction", new Reference(none, (row, variant, actual) -> point(response(row, city))));
+    references.put("getASNFunction", new Reference(none, (row, variant, actual) -> {
+      Object number = value(response(row, asn), Column.ASN);
+      return number == null ? 0L : ((Number) number).longValue();
+    }));
+    references.put("getASNOrgFunction", new Reference(none,
+      (row, variant, actual) -> string(value(response(row, asn), Column.ASN_ORGANIZATION), "Unknown")));
+    references.put("isAnonymousFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, anonymous), Column.IS_ANONYMOUS))));
+    references.put("isAnonymousVPNFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, anonymous), Column.IS_ANONYMOUS_VPN))));
+    references.put("isHostingProviderFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, anonymous), Column.IS_HOSTING_PROVIDER))));
+    references.put("isPublicProxyFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, anonymous), Column.IS_PUBLIC_PROXY))));
+    references.put("isTORFunction", new Reference(none,
+      (row, variant, actual) -> integer(value(response(row, anonymous), Column.IS_TOR_EXIT_NODE))));
+    references.put("getCountryNameAtTimeFunction", new Reference(none,
+      (row, variant, actual) -> string(value(responseAt(row, country), Column.COUNTRY_NAME), "Unknown")));
+    references.put("getCountryISOAtTimeFunction", new Reference(none,
+      (row, variant, actual) -> string(value(responseAt(row, country), Column.COUNTRY_ISO_CODE), "UNK")));
+    references.put("getCityNameAtTimeFunction", new Reference(none,
+      (row, variant, actual) -> string(value(responseAt(row, city), Column.CITY_NAME), "Unknown")));
+    references.put("getASNAtTimeFunction", new Reference(none, (row, variant, actual) -> {
+      Object number = value(responseAt(row, asn), Column.ASN);
+      return number == null ? 0L : ((Number) number).longValue();
+    }));
+    references.put("getASNOrgAtTimeFunction", new Reference(none,
+      (row, variant, actual) -> string(value(responseAt(row, asn), Column.ASN_ORGANIZATION), "Unknown")));
+
+    Map<String, String[]> paths = new LinkedHashMap<>();
+    paths.put(country, new String[] {"country.names.ja", "country.iso_code", "continent", "country.confidence",
+      "registered_country.geoname_id", "country.is_in_european_union", "country.names.-1"});
+    paths.put(city, new String[] {"city.names.en", "subdivisions.0.iso_code", "subdivisions.-1.names.de",
+      "subdivisions.1", "subdivisions", "location.latitude", "location.metro_code", "city.geoname_id",
+      "subdivisions.-3.iso_code", "postal.code.x", "missing"});
+    paths.put(asn, new String[] {"autonomous_system_number", "autonomous_system_organization"});
+    paths.put(anonymous, new String[] {"is_anonymous", "is_tor_exit_node", "is_public_proxy"});
+    List<Map<String, String>> pathVariants = databaseVariants(paths, "fieldPath");
+
+    references.put("MmdbGetFunction", new Reference(pathVariants,
+      (row, variant, actual) -> row.nullInput ? null : pathText(row, variant.get("database"), variant.get("fieldPath"))));
+    references.put("MmdbGetBigIntFunction", new Reference(pathVariants, (row, variant, actual) -> {
+      Object value = row.nullInput ? null : pathValue(row, variant.get("database"), variant.get("fieldPath"));
+      return value instanceof Number ? (Object) ((Number) value).longValue() : null;
+    }));
+    references.put("MmdbGetDoubleFunction", new Reference(pathVariants, (row, variant, actual) -> {
+      Object value = row.nullInput ? null : pathValue(row, variant.get("database"), variant.get("fieldPath"));
+      return value instanceof Number ? (Object) ((Number) value).doubleValue() : null;
+    }));
+    references.put("MmdbGetBooleanFunction", new Reference(pathVariants, (row, variant, actual) -> {
+      Object value = row.nullInput ? null : pathValue(row, variant.get("database"), variant.get("fieldPath"));
+      return value instanceof Boolean ? (Object) ((Boolean) value ? 1 : 0) : null;
+    }));
+
+    List<Map<String, String>> databaseVariants = variants("database", DATABASES);
+    references.put("GeoIPEnrichFunction", new Reference(databaseVariants,
+      (row, variant, actual) -> enrichment(response(row, variant.get("database")), variant.get("database"))));
+    // A null address or id gives an empty map
+    Reference nullableEnrichment = new Reference(databaseVariants, (row, variant, actual) -> row.nullInput
+      ? Collections.emptyMap() : enrichment(response(row, variant.get("database")), variant.get("database")));
+    references.put("GeoIPEnrichNullableInputFunction", nullableEnrichment);
+    Map<String, Map<Long, Object>> recordsById = new HashMap<>();
+    references.put("GeoRecordIdFunction", new Reference(databaseVariants, (row, variant, actual) -> {
+      String database = variant.get("database");
+      Object record = row.inet() == null ? null : recordReaders.get(database).get(row.inet(), Map.class);
+      if (record == null) {
+        return -1L;
+      } else if (!(actual instanceof Long)) {
+        return "the id of " + record;
+      }
+      // Ids are opaque: they must be set, and an id must always stand for the same record
+      Object previous = recordsById.computeIfAbsent(database, key -> new HashMap<>()).putIfAbsent((Long) actual, record);
+      return (Long) actual >= 0 && (previous == null || previous.equals(record)) ? actual : "the id of " + record;
+    }));
+    references.put("GeoRecordDecodeFunction", new Reference(databaseVariants,
+      (row, variant, actual) -> enrichment(response(row, variant.get("database")), variant.get("database"))));
+    references.put("GeoRecordDecodeNullableInputFunction", nullableEnrichment);
+    references.put("GeoRecordStringFunction", new Reference(databaseVariants(recordFields(true), "field"),
+      (row, variant, actual) -> string(value(response(row, variant.get("database")),
+        Column.valueOf(variant.get("field").toUpperCase(Locale.ROOT))), "Unknown")));
+    references.put("GeoRecordNumberFunction", new Reference(databaseVariants(recordFields(false), "field"),
+      (row, variant, actual) -> {
+        Object value = value(response(row, variant.get("database")), Column.valueOf(variant.get("field").toUpperCase(Locale.ROOT)));
+        return value instanceof Boolean ? (double) integer(value) : number(value);
+      }));
+
+    Reference serviceName = new Reference(none,
+      (row, variant, actual) -> portMap.getOrDefault(row.port + ":" + row.protocol.toLowerCase(), "Unknown"));
+    references.put("ServiceNameLookup", serviceName);
+    references.put("ServiceNameLookupString", serviceName);
+    references.put("ShortServiceNameLookup", serviceName);
+    references.put("ShortStringServiceNameLookup", serviceName);
+    references.put("ServiceNameLookupProtocolNumber", new Reference(none, (row, variant, actual) -> {
+      String protocol = row.protocolNumber == 6 ? "tcp" : row.protocolNumber == 17 ? "udp"
+        : row.protocolNumber == 132 ? "sctp" : row.protocolNumber == 33 ? "dccp" : "none";
+      return portMap.getOrDefault(row.port + ":" + protocol, "Unknown");
+    }));
+    Reference portsForService = new Reference(none, (row, variant, actual) -> new ArrayList<>(
+      registryPorts.getOrDefault(row.service.toLowerCase(Locale.ROOT) + "/" + row.protocol.toLowerCase(Locale.ROOT),
+        new TreeSet<>())));
+    references.put("PortForServiceLookup", portsForService);
+    // A null service or protocol gives an empty list
+    references.put("PortForServiceNullableInputLookup", new Reference(none, (row, variant, actual) -> row.nullInput
+      ? Collections.emptyList() : portsForService.expectation.expected(row, variant, actual)));
+    List<Map<String, String>> serviceVariants = new ArrayList<>();
+    for (String[] constants : SERVICE_PORT_CONSTANTS) {
+      Map<String, String> variant = new HashMap<>();
+      variant.put("serviceName", constants[0]);
+      variant.put("protocol", constants[1]);
+      serviceVariants.add(variant);
+    }
+    references.put("IsServicePort", new Reference(serviceVariants, (row, variant, actual) -> registryPorts.getOrDefault(
+      variant.get("serviceName").toLowerCase(Locale.ROOT) + "/" + variant.get("protocol").toLowerCase(Locale.ROOT),
+      new TreeSet<>()).contains(row.port) ? 1 : 0));
+    references.put("IsWellKnownPort", new Reference(none,
+      (row, variant, actual) -> row.port >= 0 && row.port <= 1023 ? 1 : 0));
+    references.put("IsRegisteredPort", new Reference(none,
+      (row, variant, actual) -> row.port >= 1024 && row.port <= 49151 ? 1 : 0));
+    references.put("IsEphemeralPort", new Reference(none,
+      (row, variant, actual) -> row.port >= 49152 && row.port <= 65535 ? 1 : 0));
+    references.put("PortCategory", new Reference(none, (row, variant, actual) -> row.port < 0 || row.port > 65535
+      ? "Unknown" : row.port <= 1023 ? "well-known" : row.port <= 49151 ? "registered" : "ephemeral"));
+    return references;
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder text = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      text.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return text.toString();
+  }
+
+  private static String text(DrillBuf buffer, int start, int end) {
+    return buffer.toString(start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Normalizes the value of a function's output holder or complex writer for comparison with a reference.
+   */
+  private static Object read(Object output, MapVector vector, int position) throws IOException {
+    if (output instanceof VarCharHolder) {
+      VarCharHolder holder = (VarCharHolder) output;
+      return text(holder.buffer, holder.start, holder.end);
+    } else if (output instanceof NullableVarCharHolder) {
+      NullableVarCharHolder holder = (NullableVarCharHolder) output;
+      if (holder.isSet == 0) {
+        return null;
+      }
+      String text = text(holder.buffer, holder.start, holder.end);
+      return text.startsWith("{") || text.startsWith("[") ? MAPPER.readTree(text) : text;
+    } else if (output instanceof VarBinaryHolder) {
+      VarBinaryHolder holder = (VarBinaryHolder) output;
+      byte[] bytes = new byte[holder.end - holder.start];
+      holder.buffer.getBytes(holder.start, bytes);
+      return hex(bytes);
+    } else if (output instanceof IntHolder) {
+      return ((IntHolder) output).value;
+    } else if (output instanceof BigIntHolder) {
+      return ((BigIntHolder) output).value;
+    } else if (output instanceof Float8Holder) {
+      return ((Float8Holder) output).value;
+    } else if (output instanceof BitHolder) {
+      return ((BitHolder) output).value;
+    } else if (output instanceof TimeStampHolder) {
+      return ((TimeStampHolder) output).value;
+    } else if (output instanceof NullableBigIntHolder) {
+      NullableBigIntHolder holder = (NullableBigIntHolder) output;
+      return holder.isSet == 0 ? null : (Object) holder.value;
+    } else if (output instanceof NullableFloat8Holder) {
+      NullableFloat8Holder holder = (NullableFloat8Holder) output;
+      return holder.isSet == 0 ? null : (Object) holder.value;
+    } else if (output instanceof NullableBitHolder) {
+      NullableBitHolder holder = (NullableBitHolder) output;
+      return holder.isSet == 0 ? null : (Object) holder.value;
+    } else if (output instanceof ComplexWriter) {
+      // A list without elements creates no vector
+      return vector.getChild("out") == null ? Collections.emptyList()
+        : normalize(vector.getChild("out").getAccessor().getObject(position));
+    }
+    throw new IllegalArgumentException("Cannot read " + output.getClass().getName());
+  }
+
+  private static Object normalize(Object value) {
+    if (value instanceof Map) {
+      Map<String, Object> map = new TreeMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(entry.getKey().toString(), normalize(entry.getValue()));
+      }
+      return map;
+    } else if (value instanceof List) {
+      List<Object> list = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        list.add(normalize(element));
+      }
+      return list;
+    }
+    return value instanceof Text ? value.toString() : value;
+  }
+
+  private interface Expectation {
+    Object expected(Row row, Map<String, String> variant, Object actual) throws IOException;
+  }
+
+  private static class Reference {
+    private final List<Map<String, String>> variants;
+    private final Expectation expectation;
+
+    private Reference(List<Map<String, String>> variants, Expectation expectation) {
+      this.variants = variants;
+      this.expectation = expectation;
+    }
+  }
+
+  private static class Check {
+    private final String name;
+    private final List<String> examples = new ArrayList<>();
+    private long results;
+    private long mismatches;
+
+    private Check(String name) {
+      this.name = name;
+    }
+
+    private void fail(String message) {
+      mismatches++;
+      examples.add(message);
+    }
+  }
+
+  private void compare(Check check, Row row, String detail, Object expected, Object actual) {
+    check.results++;
+    if (!Objects.equals(expected, actual)) {
+      check.mismatches++;
+      if (check.examples.size() < maxExamples) {
+        check.examples.add(String.format("'%s' (%s)%s: expected %s, got %s", row.address, row.category, detail,
+          expected, actual));
+      }
+    }
+  }
+
+  /**
+   * One generated input row. The address is parsed for the reference the way the functions did before,
+   * with {@link InetAddress#getByName(String)}, but text that is resolved as a host name, such as the empty
+   * string or {@code localhost}, is not an address.
+   */
+  private class Row {
+    private final long index;
+    private final String address;
+    private final String category;
+    private final byte[] text;
+    private final long eventTime;
+    private final boolean nullInput;
+    private final int port;
+    private final String protocol;
+    private final int protocolNumber;
+    private final String service;
+    private InetAddress inet;
+    private boolean parsed;
+
+    private Row(long index, String address, String category) {
+      this.index = index;
+      this.address = address;
+      this.category = category;
+      this.text = address.getBytes(StandardCharsets.UTF_8);
+      this.eventTime = FIRST_EVENT + (long) (random.nextDouble() * (LAST_EVENT - FIRST_EVENT));
+      this.nullInput = random.nextInt(50) == 0;
+      int portKind = random.nextInt(20);
+      this.port = portKind == 0 ? -1 - random.nextInt(10) : portKind == 1 ? 65536 + random.nextInt(10_000)
+        : portKind < 10 ? random.nextInt(1024) : random.nextInt(65536);
+      this.protocol = PROTOCOL_NAMES[random.nextInt(PROTOCOL_NAMES.length)];
+      this.protocolNumber = PROTOCOL_NUMBERS[random.nextInt(PROTOCOL_NUMBERS.length)];
+      if (random.nextInt(10) == 0) {
+        this.service = "no-such-service-" + random.nextInt(10);
+      } else {
+        String[] names = registryPorts.keySet().toArray(new String[0]);
+        String name = names[random.nextInt(names.length)];
+        name = name.substring(0, name.indexOf('/'));
+        this.service = random.nextBoolean() ? name.toUpperCase(Locale.ROOT) : name;
+      }
+    }
+
+    private InetAddress inet() {
+      if (!parsed) {
+        parsed = true;
+        try {
+          InetAddress resolved = InetAddress.getByName(address);
+          // Literals have no host name, names resolved by the JVM itself do
+          inet = resolved.toString().startsWith("/") ? resolved : null;
+        } catch (UnknownHostException e) {
+          inet = null;
+        }
+      }
+      return inet;
+    }
+
+    private void write(DrillBuf input) {
+      input.setBytes(0, text);
+    }
+  }
+
+  /**
+   * A lookup engine checked column by column against the MaxMind reader.
+   */
+  private class Engine {
+    private final Check check;
+    private final String database;
+    private final GeoIPLookup lookup;
+    private final Column[] columns;
+    private final GeoIPBatchMemo memo;
+
+    private Engine(String name, String database, GeoIPLookup lookup, Set<Column> columns, GeoIPBatchMemo memo) {
+      this.check = check(name);
+      this.database = database;
+      this.lookup = lookup;
+      this.columns = columns.toArray(new Column[0]);
+      this.memo = memo;
+    }
+
+    private void verify(Row row, DrillBuf input) {
+      int record = lookup.find(input, 0, row.text.length);
+      if (memo != null) {
+        compare(check, row, "", record, memo.find(input, 0, row.text.length));
+        return;
+      }
+      Optional<?> response = response(row, database);
+      for (Column column : columns) {
+        Object expected = value(response, column);
+        Object actual;
+        if (column.isString()) {
+          byte[] bytes = lookup.getUtf8(column, record);
+          actual = bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+        } else if (column == Column.LATITUDE || column == Column.LONGITUDE) {
+          expected = number(expected);
+          actual = lookup.getDouble(column, record);
+        } else if (column == Column.ASN) {
+          expected = expected == null ? 0L : ((Number) expected).longValue();
+          actual = lookup.getLong(column, record);
+        } else {
+          expected = integer(expected);
+          actual = lookup.getInt(column, record);
+        }
+        compare(check, row, " " + column.name().toLowerCase(Locale.ROOT), expected, actual);
+      }
+    }
+  }
+
+  /**
+   * A function class set up once per set of constant arguments, with the holders Drill's generated code
+   * would pass. Each row is evaluated by one of the setups in turn.
+   */
+  private class FunctionUnderTest {
+    private final String name;
+    private final Class<?> type;
+    private final Reference reference;
+    private final List<Object> instances = new ArrayList<>();
+    private final List<Object> outputs = new ArrayList<>();
+    private final List<MapVector> vectors = new ArrayList<>();
+    private final List<ComplexWriterImpl> writers = new ArrayList<>();
+    private final List<Field> rowParams = new ArrayList<>();
+    private Field[] fields;
+    private Field output;
+    private BufferAllocator allocator;
+
+    private FunctionUnderTest(String name, Class<?> type, Reference reference) {
+      this.name = name;
+      this.type = type;
+      this.reference = reference;
+    }
+
+    private void setUp(BufferAllocator allocator) throws Exception {
+      this.allocator = allocator;
+      fields = type.getDeclaredFields();
+      for (Field field : fields) {
+        field.setAccessible(true);
+        Param param = field.getAnnotation(Param.class);
+        if (param != null && !param.constant()) {
+          rowParams.add(field);
+        } else if (field.getAnnotation(Output.class) != null) {
+          output = field;
+        }
+      }
+      for (Map<String, String> variant : reference.variants) {
+        Object instance = type.getDeclaredConstructor().newInstance();
+        MapVector vector = null;
+        ComplexWriterImpl writer = null;
+        for (Field field : fields) {
+          Param param = field.getAnnotation(Param.class);
+          if (param != null && param.constant()) {
+            byte[] value = variant.get(field.getName()).getBytes(StandardCharsets.UTF_8);
+            VarCharHolder holder = new VarCharHolder();
+            holder.buffer = allocator.buffer(Math.max(1, value.length));
+            holder.buffer.setBytes(0, value);
+            holder.start = 0;
+            holder.end = value.length;
+            field.set(instance, holder);
+          } else if (param != null) {
+            field.set(instance, field.getType().getDeclaredConstructor().newInstance());
+          } else if (field == output && ComplexWriter.class.isAssignableFrom(field.getType())) {
+            vector = new MapVector("batch", allocator, null);
+            writer = new ComplexWriterImpl("out", vector);
+            writer.allocate();
+            field.set(instance, writer);
+          } else if (field == output) {
+            field.set(instance, field.getType().getDeclaredConstructor().newInstance());
+          } else if (field.getAnnotation(Inject.class) != null) {
+            field.set(instance, allocator.buffer(1 << 16));
+          }
+        }
+        try {
+          type.getMethod("setup").invoke(instance);
+        } catch (InvocationTargetException e) {
+          check(name).fail("setup with " + variant + " failed: " + e.getCause());
+          release(instance, vector);
+          continue;
+        }
+        instances.add(instance);
+        outputs.add(output.get(instance));
+        vectors.add(vector);
+        writers.add(writer);
+      }
+    }
+
+    /**
+     * Releases the buffers and vectors of every instance, so that the allocator finds any the function leaked.
+     */
+    private void close() throws IllegalAccessException {
+      for (int i = 0; i < instances.size(); i++) {
+        release(instances.get(i), vectors.get(i));
+      }
+    }
+
+    private void release(Object instance, MapVector vector) throws IllegalAccessException {
+      for (Field field : fields) {
+        Param param = field.getAnnotation(Param.class);
+        if (param != null && param.constant()) {
+          ((VarCharHolder) field.get(instance)).buffer.release();
+        } else if (field.getAnnotation(Inject.class) != null) {
+          ((DrillBuf) field.get(instance)).release();
+        }
+      }
+      if (vector != null) {
+        vector.close();
+      }
+    }
+
+    private void evaluate(Row row, DrillBuf input) throws Exception {
+      if (instances.isEmpty()) {
+        return;
+      }
+      int index = (int) (row.index % instances.size());
+      Object instance = instances.get(index);
+      Map<String, String> variant = reference.variants.get(index);
+      for (Field field : rowParams) {
+        bind(field, field.get(instance), row, input, variant);
+      }
+      int position = (int) (row.index / instances.size() % BATCH_SIZE);
+      if (writers.get(index) != null) {
+        if (position == 0 && row.index >= instances.size()) {
+          // A new batch, written by a new writer as in Drill
+          vectors.get(index).close();
+          MapVector vector = new MapVector("batch", allocator, null);
+          ComplexWriterImpl writer = new ComplexWriterImpl("out", vector);
+          writer.allocate();
+          output.set(instance, writer);
+          vectors.set(index, vector);
+          writers.set(index, writer);
+          outputs.set(index, writer);
+        }
+        writers.get(index).setPosition(position);
+      }
+
+      Object actual;
+      try {
+        ((DrillSimpleFunc) instance).eval();
+        actual = read(outputs.get(index), vectors.get(index), position);
+      } catch (RuntimeException e) {
+        actual = e.toString();
+      }
+      Object expected = reference.expectation.expected(row, variant, actual);
+      compare(check(name), row, variant.isEmpty() ? "" : " " + variant, expected, actual);
+    }
+
+    private void bind(Field field, Object holder, Row row, DrillBuf input, Map<String, String> variant) {
+      switch (field.getName()) {
+        case "inputTextA":
+          if (holder instanceof NullableVarCharHolder) {
+            NullableVarCharHolder text = (NullableVarCharHolder) holder;
+            text.isSet = row.nullInput ? 0 : 1;
+            text.buffer = input;
+            text.start = 0;
+            text.end = row.text.length;
+          } else {
+            setText((VarCharHolder) holder, input, 0, row.text);
+          }
+          break;
+        case "eventTime":
+          ((TimeStampHolder) holder).value = row.eventTime;
+          break;
+        case "portNumber":
+          if (holder instanceof IntHolder) {
+            ((IntHolder) holder).value = row.port;
+          } else {
+            setText((VarCharHolder) holder, input, 1024, Integer.toString(row.port).getBytes(StandardCharsets.UTF_8));
+          }
+          break;
+        case "protocol":
+          if (holder instanceof IntHolder) {
+            ((IntHolder) holder).value = row.protocolNumber;
+          } else if (holder instanceof NullableVarCharHolder) {
+            setNullableText((NullableVarCharHolder) holder, input, 1536, row.protocol.getBytes(StandardCharsets.UTF_8), row.nullInput);
+          } else {
+            setText((VarCharHolder) holder, input, 1536, row.protocol.getBytes(StandardCharsets.UTF_8));
+          }
+          break;
+        case "serviceName":
+          if (holder instanceof NullableVarCharHolder) {
+            setNullableText((NullableVarCharHolder) holder, input, 2048, row.service.getBytes(StandardCharsets.UTF_8), row.nullInput);
+          } else {
+            setText((VarCharHolder) holder, input, 2048, row.service.getBytes(StandardCharsets.UTF_8));
+          }
+          break;
+        case "recordId":
+          GeoIPLookup lookup = GeoIPLookup.forDatabase(variant.get("database"));
+          long id = lookup.getRecordId(lookup.find(input, 0, row.text.length));
+          if (holder instanceof NullableBigIntHolder) {
+            ((NullableBigIntHolder) holder).isSet = row.nullInput ? 0 : 1;
+            ((NullableBigIntHolder) holder).value = id;
+          } else {
+            ((BigIntHolder) holder).value = id;
+          }
+          break;
+        default:
+          throw new IllegalStateException("No input for parameter " + field.getName() + " of " + name);
+      }
+    }
+
+    private void setText(VarCharHolder holder, DrillBuf input, int offset, byte[] bytes) {
+      input.setBytes(offset, bytes);
+      holder.buffer = input;
+      holder.start = offset;
+      holder.end = offset + bytes.length;
+    }
+
+    private void setNullableText(NullableVarCharHolder holder, DrillBuf input, int offset, byte[] bytes, boolean isNull) {
+      input.setBytes(offset, bytes);
+      holder.isSet = isNull ? 0 : 1;
+      holder.buffer = input;
+      holder.start = offset;
+      holder.end = offset + bytes.length;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.apache.drill.exec.memory.BufferAllocator;
+import org.apache.drill.exec.memory.RootAllocatorFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link GeoIPDifferentialCheck} with one engine of the functions. The functions read their config once, so
+ * every engine has a test class, and a JVM, of its own. The number of addresses comes from the
+ * {@value #ADDRESSES_PROPERTY} system property, which the nightly profile raises.
+ */
+public abstract class GeoIPDifferentialTest {
+  static final String ADDRESSES_PROPERTY = "geoip.differential.addresses";
+
+  @ClassRule
+  public static final TemporaryFolder folder = new TemporaryFolder();
+
+  private final String engine;
+
+  protected GeoIPDifferentialTest(String engine) {
+    this.engine = engine;
+  }
+
+  @Test
+  public void testFunctionsMatchReference() throws Exception {
+    GeoIPDifferentialCheck check = GeoIPDifferentialCheck.generate(folder.getRoot(), 42, engine, 10);
+    long addresses = Long.getLong(ADDRESSES_PROPERTY, 50_000);
+    try (BufferAllocator allocator = RootAllocatorFactory.newRoot(Long.MAX_VALUE)) {
+      assertTrue("Results differ from the reference:" + check.differences(), check.run(allocator, addresses));
+    }
+  }
+}
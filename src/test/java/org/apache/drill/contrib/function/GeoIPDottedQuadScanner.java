@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+/**
+ * Finds the rows of a batch of address text that are plain dotted quads, such as {@code 192.0.2.1}: four
+ * parts of one to three digits each, none above 255. These are nearly all the addresses in logs, so
+ * {@link GeoIPBulkParser} resolves them here and parses only the other rows with
+ * {@link GeoIPLookup#parse}. This implementation reads one byte at a time; on Java 19 and later a
+ * {@link GeoIPScanners#create() vectorized one} is used if the Vector API is available.
+ */
+public class GeoIPDottedQuadScanner {
+
+  /**
+   * Scans the rows of a batch, whose text is in {@code text} between {@code starts[i]} and
+   * {@code starts[i + 1]}. Sets {@code families[i]} to {@link GeoIPBulkParser#IPV4} and
+   * {@code addresses[i]} to the address for each dotted quad, and {@code families[i]} to
+   * {@link GeoIPBulkParser#INVALID} for the other rows. The text must be followed by at least
+   * {@link GeoIPBulkParser#PADDING} bytes. Returns the number of dotted quads.
+   */
+  public int scan(byte[] text, int[] starts, int count, byte[] families, int[] addresses) {
+    int found = 0;
+    for (int i = 0; i < count; i++) {
+      long address = parseDottedQuad(text, starts[i], starts[i + 1]);
+      if (address < 0) {
+        families[i] = GeoIPBulkParser.INVALID;
+      } else {
+        families[i] = GeoIPBulkParser.IPV4;
+        addresses[i] = (int) address;
+        found++;
+      }
+    }
+    return found;
+  }
+
+  public String getName() {
+    return "scalar";
+  }
+
+  /**
+   * Returns the address of a dotted quad as an unsigned int, or -1 if the text is not one.
+   */
+  static long parseDottedQuad(byte[] text, int start, int end) {
+    if (end - start < 7 || end - start > 15) {
+      return -1;
+    }
+    long address = 0;
+    int part = 0;
+    int digits = 0;
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      int b = text[i] - '0';
+      if (b >= 0 && b <= 9 && digits < 3) {
+        value = value * 10 + b;
+        digits++;
+      } else if (text[i] == '.' && digits > 0 && part < 3 && value <= 255) {
+        address = address << 8 | value;
+        part++;
+        digits = 0;
+        value = 0;
+      } else {
+        return -1;
+      }
+    }
+    if (part != 3 || digits == 0 || value > 255) {
+      return -1;
+    }
+    return address << 8 | value;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.apache.drill.common.types.TypeProtos.MinorType;
+import org.apache.drill.common.types.Types;
+import org.apache.drill.exec.memory.BufferAllocator;
+import org.apache.drill.exec.memory.RootAllocatorFactory;
+import org.apache.drill.exec.record.MaterializedField;
+import org.apache.drill.exec.vector.VarCharVector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark of {@link GeoIPBulkParser} against parsing each row with {@link GeoIPLookup#parse}. It fills
+ * VarChar vectors with addresses from {@link SyntheticLogGenerator}, IPv4 with a share of IPv6 and junk,
+ * and times per row parsing, bulk parsing with the scalar scanner and bulk parsing with the scanner
+ * {@link GeoIPScanners} picks for this JVM, or the vectorized one with {@code --vector}. Every bulk result is compared with the per row one first, and
+ * the benchmark exits with 1 if any row differs.
+ *
+ * <p>The vectorized scanner is only built by the {@code java19} profile, so build on Java 19 or later and
+ * run it with the Vector API module:</p>
+ *
+ * <pre>
+ *   java --add-modules jdk.incubator.vector \
+ *     -cp target/test-classes:target/classes:$DRILL_HOME/jars/*:$DRILL_HOME/jars/3rdparty/* \
+ *     org.apache.drill.contrib.function.GeoIPParseBenchmark --batches 256 --batch-size 4096
+ * </pre>
+ */
+public class GeoIPParseBenchmark {
+
+  private interface Parser {
+    void parse(VarCharVector vector);
+  }
+
+  public static void main(String[] args) {
+    int batches = 128;
+    int batchSize = 4096;
+    long seed = 42;
+    int runs = 5;
+    double ipv6Share = 0.2;
+    double junkShare = 0.01;
+    boolean vectorized = false;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--batches":
+          batches = Integer.parseInt(args[++i]);
+          break;
+        case "--batch-size":
+          batchSize = Integer.parseInt(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        case "--runs":
+          runs = Integer.parseInt(args[++i]);
+          break;
+        case "--ipv6-share":
+          ipv6Share = Double.parseDouble(args[++i]);
+          break;
+        case "--junk-share":
+          junkShare = Double.parseDouble(args[++i]);
+          break;
+        case "--vector":
+          vectorized = true;
+          break;
+        default:
+          System.err.println("Usage: GeoIPParseBenchmark [--batches n] [--batch-size n] [--seed n] [--runs n] "
+            + "[--ipv6-share 0.2] [--junk-share 0.01] [--vector]");
+          System.exit(1);
+      }
+    }
+
+    BufferAllocator allocator = RootAllocatorFactory.newRoot(Long.MAX_VALUE);
+    SyntheticLogGenerator generator = new SyntheticLogGenerator(seed, 100_000, ipv6Share, junkShare);
+    List<VarCharVector> vectors = new ArrayList<>();
+    for (int i = 0; i < batches; i++) {
+      vectors.add(fill(allocator, generator, batchSize));
+    }
+
+    GeoIPBulkParser scalar = new GeoIPBulkParser(new GeoIPDottedQuadScanner());
+    GeoIPBulkParser selected = vectorized ? new GeoIPBulkParser(vectorScanner()) : new GeoIPBulkParser();
+    System.out.printf("Java %s, scanner for this JVM: %s%n", Runtime.version(), selected.getScannerName());
+
+    long mismatches = verify(vectors, scalar) + verify(vectors, selected);
+    if (mismatches > 0) {
+      System.err.printf("%,d rows differ from GeoIPLookup.parse%n", mismatches);
+      System.exit(1);
+    }
+
+    long rows = (long) batches * batchSize;
+    Parser perRow = vector -> {
+      for (int i = 0; i < vector.getAccessor().getValueCount(); i++) {
+        GeoIPLookup.parse(vector.getBuffer(), vector.getOffsetVector().getAccessor().get(i),
+          vector.getOffsetVector().getAccessor().get(i + 1));
+      }
+    };
+    for (int run = 1; run <= runs; run++) {
+      System.out.printf("Run %d: per row %.1f ns/row, bulk scalar %.1f ns/row, bulk %s %.1f ns/row%n", run,
+        time(vectors, perRow, rows), time(vectors, scalar::parse, rows), selected.getScannerName(),
+        time(vectors, selected::parse, rows));
+    }
+
+    vectors.forEach(VarCharVector::close);
+    allocator.close();
+  }
+
+  // Only in the Java 19 part of the jar
+  private static GeoIPDottedQuadScanner vectorScanner() {
+    try {
+      return GeoIPScanners.createVector();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      System.err.println("The vectorized scanner needs a build on Java 19 or later and --add-modules jdk.incubator.vector: " + e);
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static VarCharVector fill(BufferAllocator allocator, SyntheticLogGenerator generator, int rows) {
+    VarCharVector vector = new VarCharVector(MaterializedField.create("ip", Types.required(MinorType.VARCHAR)),
+      allocator);
+    vector.allocateNew(rows * 16, rows);
+    for (int i = 0; i < rows; i++) {
+      byte[] text = generator.nextSource().getBytes(StandardCharsets.UTF_8);
+      vector.getMutator().setSafe(i, text, 0, text.length);
+    }
+    vector.getMutator().setValueCount(rows);
+    return vector;
+  }
+
+  private static long verify(List<VarCharVector> vectors, GeoIPBulkParser parser) {
+    long mismatches = 0;
+    for (VarCharVector vector : vectors) {
+      int rows = parser.parse(vector);
+      for (int i = 0; i < rows; i++) {
+        int start = vector.getOffsetVector().getAccessor().get(i);
+        int end = vector.getOffsetVector().getAccessor().get(i + 1);
+        byte[] expected = GeoIPLookup.parse(vector.getBuffer(), start, end);
+        byte[] actual = parser.getAddress(i);
+        if (!Arrays.equals(expected, actual)) {
+          if (mismatches++ < 10) {
+            System.err.printf("%s: '%s' is %s, expected %s%n", parser.getScannerName(),
+              vector.getBuffer().toString(start, end - start, StandardCharsets.UTF_8),
+              Arrays.toString(actual), Arrays.toString(expected));
+          }
+        }
+      }
+    }
+    return mismatches;
+  }
+
+  private static double time(List<VarCharVector> vectors, Parser parser, long rows) {
+    long start = System.nanoTime();
+    for (VarCharVector vector : vectors) {
+      parser.parse(vector);
+    }
+    return (double) (System.nanoTime() - start) / rows;
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.apache.drill.common.config.DrillConfig;
+import org.apache.drill.common.exceptions.UserException;
+import org.apache.drill.exec.ExecConstants;
+import org.apache.drill.exec.client.DrillClient;
+import org.apache.drill.exec.proto.UserBitShared.MajorFragmentProfile;
+import org.apache.drill.exec.proto.UserBitShared.MinorFragmentProfile;
+import org.apache.drill.exec.proto.UserBitShared.OperatorProfile;
+import org.apache.drill.exec.proto.UserBitShared.QueryId;
+import org.apache.drill.exec.proto.UserBitShared.QueryProfile;
+import org.apache.drill.exec.proto.UserBitShared.QueryResult.QueryState;
+import org.apache.drill.exec.proto.UserBitShared.QueryType;
+import org.apache.drill.exec.proto.helper.QueryIdHelper;
+import org.apache.drill.exec.rpc.ConnectionThrottle;
+import org.apache.drill.exec.rpc.user.AwaitableUserResultsListener;
+import org.apache.drill.exec.rpc.user.QueryDataBatch;
+import org.apache.drill.exec.rpc.user.UserResultsListener;
+import org.apache.drill.exec.server.Drillbit;
+import org.apache.drill.exec.server.RemoteServiceSet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * End to end benchmark of the GeoIP and protocol functions. It generates synthetic firewall logs with
+ * {@link SyntheticLogGenerator}, starts an embedded drillbit with a local service set (the same setup
+ * Drill's {@code ClusterFixture} uses, without the test jar) and times a few representative queries over
+ * the CSV logs and a Parquet copy at several widths. For every query it reports rows per second along
+ * with the operator setup time and peak fragment memory taken from the query profile, which is where
+ * the database loading in the functions' {@code setup()} shows up.
+ *
+ * <pre>
+ *   java -cp drill-geoip-functions.jar:$DRILL_HOME/jars/*:$DRILL_HOME/jars/3rdparty/* \
+ *     org.apache.drill.contrib.function.GeoIPQueryBenchmark --rows 5000000 --widths 1,4,8 \
+ *     --query "asn=SELECT get_asn(src_ip) AS asn, count(*) FROM ${table} GROUP BY 1"
+ * </pre>
+ */
+public class GeoIPQueryBenchmark {
+
+  private static final String TABLE = "${table}";
+
+  private static final Map<String, String> DEFAULT_QUERIES = new LinkedHashMap<>();
+
+  static {
+    DEFAULT_QUERIES.put("country_enrich",
+      "SELECT max(getCountryName(src_ip)), max(getCountryISOCode(src_ip)), count(CASE WHEN is_eu(src_ip) THEN 1 END) FROM " + TABLE);
+    DEFAULT_QUERIES.put("country_histogram",
+      "SELECT getCountryName(src_ip) AS country, count(*) AS hits FROM " + TABLE + " GROUP BY getCountryName(src_ip)");
+    DEFAULT_QUERIES.put("service_histogram",
+      "SELECT get_service_name(CAST(dst_port AS INT), protocol) AS service, sum(CAST(bytes AS BIGINT)) AS total FROM "
+        + TABLE + " GROUP BY get_service_name(CAST(dst_port AS INT), protocol)");
+    DEFAULT_QUERIES.put("service_filter",
+      "SELECT count(*) FROM " + TABLE + " WHERE get_short_service_name(CAST(dst_port AS INT), protocol) = 'ssh'");
+  }
+
+  private final Drillbit drillbit;
+  private final DrillClient client;
+
+  private GeoIPQueryBenchmark(Drillbit drillbit, DrillClient client) {
+    this.drillbit = drillbit;
+    this.client = client;
+  }
+
+  public static void main(String[] args) throws Exception {
+    long rows = 1_000_000;
+    long seed = 42;
+    int runs = 3;
+    int[] widths = {1, 2, 4};
+    File directory = null;
+    Map<String, String> queries = new LinkedHashMap<>(DEFAULT_QUERIES);
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--rows":
+          rows = Long.parseLong(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        case "--runs":
+          runs = Integer.parseInt(args[++i]);
+          break;
+        case "--widths":
+          widths = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+          break;
+        case "--dir":
+          directory = new File(args[++i]);
+          break;
+        case "--query":
+          String[] query = args[++i].split("=", 2);
+          queries.put(query[0], query[1]);
+          break;
+        default:
+          System.err.println("Usage: GeoIPQueryBenchmark [--rows n] [--seed n] [--runs n] [--widths 1,2,4] [--dir path] "
+            + "[--query name=SQL with " + TABLE + "]");
+          System.exit(1);
+      }
+    }
+
+    if (directory == null) {
+      directory = Files.createTempDirectory("geoip-benchmark").toFile();
+    }
+    File logs = new File(directory, "logs-" + seed + "-" + rows + ".csvh");
+    if (!logs.isFile()) {
+      long start = System.nanoTime();
+      new SyntheticLogGenerator(seed, 100_000, 0.2, 0.01).write(logs, rows);
+      System.out.printf("Generated %,d rows in %s (%d ms)%n", rows, logs, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    Properties properties = new Properties();
+    properties.put(ExecConstants.HTTP_ENABLE, "false");
+    properties.put(ExecConstants.SYS_STORE_PROVIDER_LOCAL_PATH, new File(directory, "store").getAbsolutePath());
+    properties.put(ExecConstants.DRILL_TMP_DIR, new File(directory, "tmp").getAbsolutePath());
+    properties.put(ExecConstants.UDF_DIRECTORY_ROOT, new File(directory, "udf").getAbsolutePath());
+    properties.put(ExecConstants.UDF_DIRECTORY_FS, "file:///");
+    DrillConfig config = DrillConfig.create(properties);
+
+    RemoteServiceSet serviceSet = RemoteServiceSet.getLocalServiceSet();
+    try {
+      long start = System.nanoTime();
+      Drillbit drillbit = Drillbit.start(config, serviceSet);
+      System.out.printf("Drillbit started in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+      try (DrillClient client = new DrillClient(config, serviceSet.getCoordinator())) {
+        client.connect();
+        new GeoIPQueryBenchmark(drillbit, client).run(logs, rows, widths, runs, queries);
+      } finally {
+        drillbit.close();
+      }
+    } finally {
+      serviceSet.close();
+    }
+  }
+
+  private void run(File logs, long rows, int[] widths, int runs, Map<String, String> queries) throws Exception {
+    String csv = "dfs.`" + logs.getAbsolutePath() + "`";
+    String parquet = "dfs.tmp.`geoip_benchmark_" + logs.getName().replaceAll("\\W", "_") + "`";
+    execute("DROP TABLE IF EXISTS " + parquet);
+    QueryRun conversion = execute("CREATE TABLE " + parquet + " AS SELECT CAST(ts AS BIGINT) AS ts, src_ip, dst_ip, "
+      + "CAST(src_port AS INT) AS src_port, CAST(dst_port AS INT) AS dst_port, protocol, CAST(bytes AS BIGINT) AS bytes, "
+      + "action FROM " + csv);
+    System.out.printf("Converted logs to Parquet in %d ms%n%n", conversion.elapsedMillis);
+
+    System.out.printf("%-8s %-20s %5s %14s %10s %10s %12s%n",
+      "source", "query", "width", "rows/s", "total ms", "setup ms", "peak MB");
+    try {
+      Map<String, String> sources = new LinkedHashMap<>();
+      sources.put("csv", csv);
+      sources.put("parquet", parquet);
+      for (Map.Entry<String, String> source : sources.entrySet()) {
+        for (int width : widths) {
+          execute("ALTER SESSION SET `planner.width.max_per_node` = " + width);
+          execute("ALTER SESSION SET `planner.slice_target` = 1");
+          for (Map.Entry<String, String> query : queries.entrySet()) {
+            String sql = query.getValue().replace(TABLE, source.getValue());
+            execute(sql);
+
+            List<QueryRun> timed = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+              timed.add(execute(sql));
+            }
+            timed.sort((a, b) -> Long.compare(a.elapsedMillis, b.elapsedMillis));
+            QueryRun median = timed.get(timed.size() / 2);
+
+            System.out.printf("%-8s %-20s %5d %,14.0f %10d %10.1f %12.1f%n", source.getKey(), query.getKey(), width,
+              rows * 1000.0 / Math.max(1, median.elapsedMillis), median.elapsedMillis,
+              median.setupNanos / 1e6, median.peakMemory / (1024.0 * 1024.0));
+          }
+        }
+      }
+    } finally {
+      execute("DROP TABLE IF EXISTS " + parquet);
+    }
+    System.out.printf("%nDrillbit allocator peak: %.1f MB%n",
+      drillbit.getContext().getAllocator().getPeakMemoryAllocation() / (1024.0 * 1024.0));
+  }
+
+  private QueryRun execute(String sql) throws Exception {
+    QueryIdListener results = new QueryIdListener();
+    AwaitableUserResultsListener listener = new AwaitableUserResultsListener(results);
+    long start = System.nanoTime();
+    client.runQuery(QueryType.SQL, sql, listener);
+    listener.await();
+    QueryRun run = new QueryRun((System.nanoTime() - start) / 1_000_000);
+    run.readProfile(completedProfile(results.queryId));
+    return run;
+  }
+
+  private QueryProfile completedProfile(QueryId queryId) throws InterruptedException {
+    if (queryId == null) {
+      return null;
+    }
+    // The profile is written when the query is cleaned up, which may trail the final result slightly
+    for (int attempt = 0; attempt < 50; attempt++) {
+      QueryProfile profile = drillbit.getContext().getProfileStoreContext()
+        .getCompletedProfileStore().get(QueryIdHelper.getQueryId(queryId));
+      if (profile != null) {
+        return profile;
+      }
+      Thread.sleep(20);
+    }
+    return null;
+  }
+
+  private static class QueryRun {
+    private final long elapsedMillis;
+    private long setupNanos;
+    private long peakMemory;
+
+    QueryRun(long elapsedMillis) {
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    void readProfile(QueryProfile profile) {
+      if (profile == null) {
+        return;
+      }
+      for (MajorFragmentProfile major : profile.getFragmentProfileList()) {
+        for (MinorFragmentProfile minor : major.getMinorFragmentProfileList()) {
+          peakMemory += minor.getMaxMemoryUsed();
+          for (OperatorProfile operator : minor.getOperatorProfileList()) {
+            setupNanos += operator.getSetupNanos();
+          }
+        }
+      }
+    }
+  }
+
+  private static class QueryIdListener implements UserResultsListener {
+    private volatile QueryId queryId;
+
+    @Override
+    public void queryIdArrived(QueryId queryId) {
+      this.queryId = queryId;
+    }
+
+    @Override
+    public void submissionFailed(UserException ex) {
+    }
+
+    @Override
+    public void dataArrived(QueryDataBatch result, ConnectionThrottle throttle) {
+      result.release();
+    }
+
+    @Override
+    public void queryCompleted(QueryState state) {
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the {@link GeoIPDottedQuadScanner} for this JVM. {@code GeoIPVectorDottedQuadScanner} is only
+ * built by the {@code java19} profile, as Java 19's C2 is the first to compile {@code VectorMask.toLong()}
+ * to a single instruction; earlier releases copy every mask to a boolean array, which makes it slower than
+ * the scalar scanner. The Vector API is an incubator module, so it is only resolved when the JVM is started
+ * with {@code --add-modules jdk.incubator.vector}; without it, or without the class, the scalar scanner is
+ * used.
+ */
+public class GeoIPScanners {
+  private static final Logger logger = LoggerFactory.getLogger(GeoIPScanners.class);
+
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+  private GeoIPScanners() {
+  }
+
+  public static GeoIPDottedQuadScanner create() {
+    if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+      try {
+        return createVector();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        logger.debug("Could not use the Vector API to parse addresses", e);
+      }
+    }
+    return new GeoIPDottedQuadScanner();
+  }
+
+  /**
+   * Returns the vectorized scanner, failing if it was not built or the Vector API is not available.
+   */
+  public static GeoIPDottedQuadScanner createVector() throws ReflectiveOperationException {
+    return (GeoIPDottedQuadScanner) Class.forName(GeoIPDottedQuadScanner.class.getPackage().getName()
+      + ".GeoIPVectorDottedQuadScanner").getDeclaredConstructor().newInstance();
+  }
+}
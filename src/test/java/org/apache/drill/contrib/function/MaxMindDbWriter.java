@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes databases in the MaxMind DB format, so that the lookup paths can be checked against
+ * {@link com.maxmind.db.Reader} on generated databases without downloading any. It produces the layout of
+ * MaxMind's own writer: an IPv6 tree with the IPv4 networks under {@code ::/96}, aliased from
+ * {@code ::ffff:0:0/96} and {@code 2002::/16}, and a data section in which repeated strings, maps and
+ * arrays, including map keys, are written once and referenced by pointers.
+ *
+ * <p>Values are typed by their Java class: strings, doubles, floats and booleans as such, integers as
+ * uint16 when they fit and int32 otherwise, longs as uint32 when they fit and uint64 otherwise, big
+ * integers as uint128, byte arrays as bytes, maps and lists as maps and arrays.</p>
+ */
+public class MaxMindDbWriter {
+
+  private static final byte[] METADATA_MARKER = {(byte) 0xAB, (byte) 0xCD, (byte) 0xEF,
+    'M', 'a', 'x', 'M', 'i', 'n', 'd', '.', 'c', 'o', 'm'};
+
+  private static final int DATA_SECTION_SEPARATOR_SIZE = 16;
+
+  private final String databaseType;
+  private final int recordSize;
+  private final long buildEpoch;
+  private final String[] languages;
+  private final Node root = new Node();
+  private final Node ipv4Root;
+
+  public MaxMindDbWriter(String databaseType, int recordSize, long buildEpoch, String... languages) {
+    if (recordSize != 24 && recordSize != 28 && recordSize != 32) {
+      throw new IllegalArgumentException("Record size must be 24, 28 or 32 bits, not " + recordSize);
+    }
+    this.databaseType = databaseType;
+    this.recordSize = recordSize;
+    this.buildEpoch = buildEpoch;
+    this.languages = languages;
+
+    Node node = root;
+    for (int depth = 0; depth < 95; depth++) {
+      node = node.child(0);
+    }
+    ipv4Root = new Node();
+    node.children[0] = ipv4Root;
+    alias(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF, 0, 0, 0, 0}, 96);
+    alias(new byte[] {0x20, 0x02, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, 16);
+  }
+
+  private void alias(byte[] address, int prefixLength) {
+    Node node = root;
+    for (int depth = 0; depth < prefixLength - 1; depth++) {
+      node = node.child(bit(address, depth));
+    }
+    node.children[bit(address, prefixLength - 1)] = ipv4Root;
+  }
+
+  /**
+   * Sets the record of a network, given by a 4 byte IPv4 or a 16 byte IPv6 address and a prefix length.
+   * A record set later replaces the earlier ones for the addresses it covers. IPv6 networks may not lie in
+   * {@code ::/96} or the aliases of the IPv4 networks.
+   */
+  public void insert(byte[] address, int prefixLength, Object record) {
+    int bits = address.length * 8;
+    if (prefixLength < 1 || prefixLength > bits) {
+      throw new IllegalArgumentException("Invalid prefix length " + prefixLength);
+    }
+    Node node = address.length == 4 ? ipv4Root : root;
+    for (int depth = 0; depth < prefixLength - 1; depth++) {
+      int bit = bit(address, depth);
+      Object child = node.children[bit];
+      if (child == ipv4Root) {
+        throw new IllegalArgumentException("IPv6 networks within the IPv4 subtree or its aliases must be inserted as IPv4");
+      }
+      if (!(child instanceof Node)) {
+        // Split the record of a larger network between both halves
+        Node split = new Node();
+        split.children[0] = child;
+        split.children[1] = child;
+        node.children[bit] = split;
+        child = split;
+      }
+      node = (Node) child;
+    }
+    node.children[bit(address, prefixLength - 1)] = new Data(record);
+  }
+
+  public void write(File file) throws IOException {
+    Files.write(file.toPath(), toByteArray());
+  }
+
+  public byte[] toByteArray() {
+    // Number the nodes breadth first, the way MaxMind's writer does
+    Map<Node, Integer> numbers = new IdentityHashMap<>();
+    ArrayDeque<Node> queue = new ArrayDeque<>();
+    List<Node> nodes = new ArrayList<>();
+    numbers.put(root, 0);
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      Node node = queue.poll();
+      nodes.add(node);
+      for (Object child : node.children) {
+        if (child instanceof Node && !numbers.containsKey(child)) {
+          numbers.put((Node) child, numbers.size());
+          queue.add((Node) child);
+        }
+      }
+    }
+
+    int nodeCount = nodes.size();
+    Encoder data = new Encoder(true);
+    Map<Object, Integer> recordOffsets = new HashMap<>();
+    byte[] tree = new byte[nodeCount * recordSize / 4];
+    for (int i = 0; i < nodeCount; i++) {
+      long[] pointers = new long[2];
+      for (int side = 0; side < 2; side++) {
+        Object child = nodes.get(i).children[side];
+        if (child instanceof Node) {
+          pointers[side] = numbers.get(child);
+        } else if (child instanceof Data) {
+          Object record = ((Data) child).record;
+          Integer offset = recordOffsets.get(record);
+          if (offset == null) {
+            offset = data.size();
+            data.encode(record);
+            recordOffsets.put(record, offset);
+          }
+          pointers[side] = (long) nodeCount + DATA_SECTION_SEPARATOR_SIZE + offset;
+        } else {
+          pointers[side] = nodeCount;
+        }
+      }
+      writeNode(tree, i, pointers[0], pointers[1]);
+    }
+
+    Map<String, Object> metadata = new LinkedHashMap<>();
+    metadata.put("binary_format_major_version", 2);
+    metadata.put("binary_format_minor_version", 0);
+    metadata.put("build_epoch", BigInteger.valueOf(buildEpoch));
+    metadata.put("database_type", databaseType);
+    Map<String, Object> description = new LinkedHashMap<>();
+    description.put("en", "Generated " + databaseType + " database");
+    metadata.put("description", description);
+    metadata.put("ip_version", 6);
+    metadata.put("languages", Arrays.asList(languages));
+    metadata.put("node_count", (long) nodeCount);
+    metadata.put("record_size", recordSize);
+    Encoder metadataEncoder = new Encoder(false);
+    metadataEncoder.encode(metadata);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(tree.length + data.size() + 512);
+    out.write(tree, 0, tree.length);
+    out.write(new byte[DATA_SECTION_SEPARATOR_SIZE], 0, DATA_SECTION_SEPARATOR_SIZE);
+    data.writeTo(out);
+    out.write(METADATA_MARKER, 0, METADATA_MARKER.length);
+    metadataEncoder.writeTo(out);
+    return out.toByteArray();
+  }
+
+  private void writeNode(byte[] tree, int node, long left, long right) {
+    int offset = node * recordSize / 4;
+    switch (recordSize) {
+      case 24:
+        putBytes(tree, offset, left, 3);
+        putBytes(tree, offset + 3, right, 3);
+        break;
+      case 28:
+        putBytes(tree, offset, left & 0xFFFFFF, 3);
+        tree[offset + 3] = (byte) (((left >>> 24) & 0x0F) << 4 | ((right >>> 24) & 0x0F));
+        putBytes(tree, offset + 4, right & 0xFFFFFF, 3);
+        break;
+      default:
+        putBytes(tree, offset, left, 4);
+        putBytes(tree, offset + 4, right, 4);
+        break;
+    }
+  }
+
+  private static void putBytes(byte[] bytes, int offset, long value, int length) {
+    for (int i = 0; i < length; i++) {
+      bytes[offset + i] = (byte) (value >>> (8 * (length - 1 - i)));
+    }
+  }
+
+  private static int bit(byte[] address, int index) {
+    return (address[index >>> 3] >>> (7 - (index & 7))) & 1;
+  }
+
+  private static class Node {
+    // A child is a Node, a Data or null for addresses without a record
+    private final Object[] children = new Object[2];
+
+    private Node child(int bit) {
+      if (children[bit] == null) {
+        children[bit] = new Node();
+      }
+      return (Node) children[bit];
+    }
+  }
+
+  private static class Data {
+    private final Object record;
+
+    private Data(Object record) {
+      this.record = record;
+    }
+  }
+
+  /**
+   * Encodes values into a data section, optionally writing repeated ones as pointers to their first copy.
+   */
+  private static class Encoder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final Map<Object, Integer> offsets;
+
+    private Encoder(boolean deduplicate) {
+      this.offsets = deduplicate ? new HashMap<>() : null;
+    }
+
+    private int size() {
+      return out.size();
+    }
+
+    private void writeTo(ByteArrayOutputStream target) {
+      byte[] bytes = out.toByteArray();
+      target.write(bytes, 0, bytes.length);
+    }
+
+    private void encode(Object value) {
+      boolean shared = offsets != null && (value instanceof String || value instanceof Map || value instanceof List);
+      if (shared) {
+        Integer offset = offsets.get(value);
+        if (offset != null) {
+          pointer(offset);
+          return;
+        }
+      }
+      int start = out.size();
+      if (value instanceof String) {
+        byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+        control(MaxMindDbFile.TYPE_UTF8_STRING, bytes.length);
+        out.write(bytes, 0, bytes.length);
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        control(MaxMindDbFile.TYPE_MAP, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          encode(entry.getKey().toString());
+          encode(entry.getValue());
+        }
+      } else if (value instanceof List) {
+        List<?> list = (List<?>) value;
+        control(MaxMindDbFile.TYPE_ARRAY, list.size());
+        for (Object element : list) {
+          encode(element);
+        }
+      } else if (value instanceof Double) {
+        control(MaxMindDbFile.TYPE_DOUBLE, 8);
+        unsigned(Double.doubleToLongBits((Double) value), 8);
+      } else if (value instanceof Float) {
+        control(MaxMindDbFile.TYPE_FLOAT, 4);
+        unsigned(Float.floatToIntBits((Float) value) & 0xFFFFFFFFL, 4);
+      } else if (value instanceof Boolean) {
+        control(MaxMindDbFile.TYPE_BOOLEAN, (Boolean) value ? 1 : 0);
+      } else if (value instanceof Integer) {
+        int number = (Integer) value;
+        if (number >= 0 && number <= 0xFFFF) {
+          integer(MaxMindDbFile.TYPE_UINT16, number);
+        } else {
+          control(MaxMindDbFile.TYPE_INT32, 4);
+          unsigned(number & 0xFFFFFFFFL, 4);
+        }
+      } else if (value instanceof Long) {
+        long number = (Long) value;
+        integer(number >= 0 && number <= 0xFFFFFFFFL ? MaxMindDbFile.TYPE_UINT32 : MaxMindDbFile.TYPE_UINT64, number);
+      } else if (value instanceof BigInteger) {
+        byte[] bytes = ((BigInteger) value).toByteArray();
+        int skip = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+        int type = bytes.length - skip > 8 ? MaxMindDbFile.TYPE_UINT128 : MaxMindDbFile.TYPE_UINT64;
+        control(type, bytes.length - skip);
+        out.write(bytes, skip, bytes.length - skip);
+      } else if (value instanceof byte[]) {
+        byte[] bytes = (byte[]) value;
+        control(MaxMindDbFile.TYPE_BYTES, bytes.length);
+        out.write(bytes, 0, bytes.length);
+      } else {
+        throw new IllegalArgumentException("Cannot encode " + (value == null ? "null" : value.getClass().getName()));
+      }
+      // Only values longer than a pointer are worth sharing
+      if (shared && out.size() - start > 4) {
+        offsets.put(value, start);
+      }
+    }
+
+    private void integer(int type, long value) {
+      int length = (64 - Long.numberOfLeadingZeros(value) + 7) / 8;
+      control(type, length);
+      unsigned(value, length);
+    }
+
+    private void unsigned(long value, int length) {
+      for (int i = length - 1; i >= 0; i--) {
+        out.write((int) (value >>> (8 * i)));
+      }
+    }
+
+    private void control(int type, int size) {
+      int typeBits = type > 7 ? 0 : type << 5;
+      if (size < 29) {
+        out.write(typeBits | size);
+      } else if (size < 285) {
+        out.write(typeBits | 29);
+      } else if (size < 65821) {
+        out.write(typeBits | 30);
+      } else {
+        out.write(typeBits | 31);
+      }
+      if (type > 7) {
+        out.write(type - 7);
+      }
+      if (size >= 65821) {
+        unsigned(size - 65821, 3);
+      } else if (size >= 285) {
+        unsigned(size - 285, 2);
+      } else if (size >= 29) {
+        out.write(size - 29);
+      }
+    }
+
+    private void pointer(int offset) {
+      if (offset < 2048) {
+        out.write(0x20 | (offset >>> 8));
+        out.write(offset);
+      } else if (offset < 526336) {
+        int value = offset - 2048;
+        out.write(0x28 | (value >>> 16));
+        unsigned(value, 2);
+      } else if (offset < 134744064) {
+        int value = offset - 526336;
+        out.write(0x30 | (value >>> 24));
+        unsigned(value, 3);
+      } else {
+        out.write(0x38);
+        unsigned(offset, 4);
+      }
+    }
+  }
+}
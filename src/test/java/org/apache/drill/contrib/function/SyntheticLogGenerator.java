@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates reproducible firewall style logs for benchmarks. Source addresses follow a Zipf distribution
+ * over a fixed pool of IPv4 and IPv6 addresses, so that a few hosts produce most of the traffic the way
+ * they do in real logs, and a small share of the rows carries junk instead of an address.
+ */
+public class SyntheticLogGenerator {
+
+  public static final String HEADER = "ts,src_ip,dst_ip,src_port,dst_port,protocol,bytes,action";
+
+  private static final String[] JUNK = {"", "-", "unknown", "999.12.1.1", "10.0.0", "fe80::zz", "not an ip"};
+
+  private static final int[] SERVICE_PORTS = {443, 80, 53, 22, 25, 123, 3389, 3306, 445, 8080, 993, 161, 21, 5432, 1194};
+
+  private static final String[] PROTOCOLS = {"tcp", "tcp", "tcp", "udp", "udp", "TCP", "sctp"};
+
+  private static final String[] ACTIONS = {"allow", "allow", "allow", "deny", "drop"};
+
+  private final Random random;
+  private final String[] sources;
+  private final double[] sourceWeights;
+  private final double[] portWeights;
+  private final double ipv6Share;
+  private final double junkShare;
+
+  public SyntheticLogGenerator(long seed, int distinctSources, double ipv6Share, double junkShare) {
+    this.random = new Random(seed);
+    this.ipv6Share = ipv6Share;
+    this.junkShare = junkShare;
+    this.sources = new String[distinctSources];
+    for (int i = 0; i < distinctSources; i++) {
+      sources[i] = random.nextDouble() < ipv6Share ? randomIpv6() : randomIpv4();
+    }
+    this.sourceWeights = zipf(distinctSources, 1.1);
+    this.portWeights = zipf(SERVICE_PORTS.length, 1.0);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: SyntheticLogGenerator <output.csvh> <rows> [seed]");
+      System.exit(1);
+    }
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+    new SyntheticLogGenerator(seed, 100_000, 0.2, 0.01).write(new File(args[0]), Long.parseLong(args[1]));
+  }
+
+  /**
+   * Writes a CSV file with a header line, readable by Drill's {@code csvh} format.
+   */
+  public void write(File output, long rows) throws IOException {
+    long timestamp = 1_600_000_000_000L;
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+      out.write(HEADER);
+      out.write('\n');
+      StringBuilder line = new StringBuilder(128);
+      for (long i = 0; i < rows; i++) {
+        timestamp += random.nextInt(50);
+        line.setLength(0);
+        line.append(timestamp).append(',')
+          .append(nextSource()).append(',')
+          .append(random.nextDouble() < ipv6Share ? randomIpv6() : randomIpv4()).append(',')
+          .append(1024 + random.nextInt(64511)).append(',')
+          .append(nextPort()).append(',')
+          .append(PROTOCOLS[random.nextInt(PROTOCOLS.length)]).append(',')
+          .append(40 + random.nextInt(1_500_000)).append(',')
+          .append(ACTIONS[random.nextInt(ACTIONS.length)]).append('\n');
+        out.append(line);
+      }
+    }
+  }
+
+  public String nextSource() {
+    if (random.nextDouble() < junkShare) {
+      return JUNK[random.nextInt(JUNK.length)];
+    }
+    return sources[sample(sourceWeights)];
+  }
+
+  public int nextPort() {
+    // One in ten connections goes to a random port, the rest to common services
+    if (random.nextInt(10) == 0) {
+      return random.nextInt(65536);
+    }
+    return SERVICE_PORTS[sample(portWeights)];
+  }
+
+  public String randomIpv4() {
+    // Stay out of 0/8, 10/8, 127/8 and the multicast and reserved ranges
+    int first;
+    do {
+      first = 1 + random.nextInt(223);
+    } while (first == 10 || first == 127);
+    return first + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+  }
+
+  public String randomIpv6() {
+    byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+    // Global unicast, 2000::/3
+    bytes[0] = (byte) (0x20 | (bytes[0] & 0x0F));
+    try {
+      return InetAddress.getByAddress(bytes).getHostAddress();
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private int sample(double[] cumulative) {
+    int index = Arrays.binarySearch(cumulative, random.nextDouble());
+    return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+  }
+
+  /**
+   * Returns the cumulative distribution of a Zipf distribution over ranks 1..n.
+   */
+  private static double[] zipf(int n, double exponent) {
+    double[] cumulative = new double[n];
+    double total = 0;
+    for (int i = 0; i < n; i++) {
+      total += 1.0 / Math.pow(i + 1, exponent);
+      cumulative[i] = total;
+    }
+    for (int i = 0; i < n; i++) {
+      cumulative[i] /= total;
+    }
+    return cumulative;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.drill.contrib.function;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Finds dotted quads with the Vector API, loading each row of at most 15 bytes as one 128 bit vector.
+ * The digit and dot lanes are compared in one step each and turned into bit masks, which validate the
+ * row and give the position of every dot without a branch per byte. The parts are then converted from
+ * those positions one at a time; shuffling their digits into int lanes to convert them together was
+ * barely faster on Java 21 and still allocated some vectors on the heap.
+ */
+public class GeoIPVectorDottedQuadScanner extends GeoIPDottedQuadScanner {
+
+  private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_128;
+  private static final ByteVector ZERO = ByteVector.broadcast(BYTES, (byte) '0');
+  private static final ByteVector NINE = ByteVector.broadcast(BYTES, (byte) '9');
+  private static final ByteVector DOT = ByteVector.broadcast(BYTES, (byte) '.');
+
+  @Override
+  public int scan(byte[] text, int[] starts, int count, byte[] families, int[] addresses) {
+    int found = 0;
+    for (int i = 0; i < count; i++) {
+      int start = starts[i];
+      int length = starts[i + 1] - start;
+      long address = length >= 7 && length <= 15 ? parse(text, start, length) : -1;
+      if (address < 0) {
+        families[i] = GeoIPBulkParser.INVALID;
+      } else {
+        families[i] = GeoIPBulkParser.IPV4;
+        addresses[i] = (int) address;
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public String getName() {
+    return "vector";
+  }
+
+  private static long parse(byte[] text, int start, int length) {
+    ByteVector bytes = ByteVector.fromArray(BYTES, text, start);
+    long row = (1L << length) - 1;
+    long digits = bytes.compare(VectorOperators.GE, ZERO).and(bytes.compare(VectorOperators.LE, NINE)).toLong() & row;
+    long dots = bytes.compare(VectorOperators.EQ, DOT).toLong() & row;
+    if ((digits | dots) != row || Long.bitCount(dots) != 3) {
+      return -1;
+    }
+
+    int first = Long.numberOfTrailingZeros(dots);
+    dots &= dots - 1;
+    int second = Long.numberOfTrailingZeros(dots);
+    dots &= dots - 1;
+    int third = Long.numberOfTrailingZeros(dots);
+    int a = part(text, start, start + first);
+    int b = part(text, start + first + 1, start + second);
+    int c = part(text, start + second + 1, start + third);
+    int d = part(text, start + third + 1, start + length);
+    if ((a | b | c | d) < 0) {
+      return -1;
+    }
+    return ((long) a << 24) | (b << 16) | (c << 8) | d;
+  }
+
+  // Returns the value of a part of one to three digits, or -1 if it is empty, longer or above 255
+  private static int part(byte[] text, int start, int end) {
+    int value;
+    switch (end - start) {
+      case 1:
+        return text[start] - '0';
+      case 2:
+        return (text[start] - '0') * 10 + text[start + 1] - '0';
+      case 3:
+        value = (text[start] - '0') * 100 + (text[start + 1] - '0') * 10 + text[start + 2] - '0';
+        return value <= 255 ? value : -1;
+      default:
+        return -1;
+    }
+  }
+}